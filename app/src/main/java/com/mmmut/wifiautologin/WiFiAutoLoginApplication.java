@@ -2,12 +2,62 @@ package com.mmmut.wifiautologin;
 
 import android.app.Application;
 import android.util.Log;
+import androidx.annotation.NonNull;
 import androidx.work.Configuration;
-import androidx.work.WorkManager;
+import com.mmmut.wifiautologin.data.CredentialStore;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.network.EndpointLatencyTracker;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.receivers.WiFiNetworkMonitor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
 
-public class WiFiAutoLoginApplication extends Application {
+public class WiFiAutoLoginApplication extends Application implements Configuration.Provider {
     
     private static final String TAG = "WiFiAutoLoginApp";
+    private static final int TIMEOUT_SECONDS = 30;
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    // Workers only do short synchronous setup on this pool and then wait in OkHttp
+    // callbacks, so two threads are plenty (WorkManager's default is up to four)
+    private static final int WORK_THREADS = 2;
+
+    private static volatile OkHttpClient httpClient;
+
+    /**
+     * Returns the process-wide HTTP client. Every caller shares one dispatcher and one
+     * connection pool, so the portal GET/POST pair and back-to-back logins reuse the
+     * same keep-alive socket instead of opening a new one per attempt.
+     */
+    public static OkHttpClient getHttpClient() {
+        OkHttpClient client = httpClient;
+        if (client == null) {
+            synchronized (WiFiAutoLoginApplication.class) {
+                client = httpClient;
+                if (client == null) {
+                    client = createHttpClient();
+                    httpClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private static OkHttpClient createHttpClient() {
+        return new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            .followRedirects(true)
+            .followSslRedirects(true)
+            .build();
+    }
 
     @Override
     public void onCreate() {
@@ -19,12 +69,18 @@ public class WiFiAutoLoginApplication extends Application {
             // Set up global exception handler
             setupGlobalExceptionHandler();
             
-            // Initialize WorkManager with custom configuration
-            Configuration workManagerConfig = new Configuration.Builder()
-                    .setMinimumLoggingLevel(android.util.Log.INFO)
-                    .build();
+            // Start decrypting credential storage in the background before anyone needs it
+            CredentialStore.getInstance(this);
             
-            WorkManager.initialize(this, workManagerConfig);
+            // Open the endpoint latencies so their file is read before the first login races
+            EndpointLatencyTracker.getInstance(this);
+            
+            // Site-specific network rules go on top of the built-in campus rule before the
+            // monitor sees its first network
+            PortalAdapters.setRules(new PreferenceManager(this).getNetworkRules());
+            
+            // Watch Wi-Fi networks so logins start as soon as a campus network associates
+            WiFiNetworkMonitor.start(this);
             
             Log.d(TAG, "Application initialized successfully");
         } catch (Exception e) {
@@ -32,6 +88,26 @@ public class WiFiAutoLoginApplication extends Application {
         }
     }
     
+    /**
+     * WorkManager is initialized on demand from this configuration; its default startup
+     * initializer is removed in the manifest so this one actually takes effect.
+     */
+    @NonNull
+    @Override
+    public Configuration getWorkManagerConfiguration() {
+        return new Configuration.Builder()
+            .setMinimumLoggingLevel(android.util.Log.INFO)
+            .setExecutor(Executors.newFixedThreadPool(WORK_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "WorkManager-" + count.incrementAndGet());
+                }
+            }))
+            .build();
+    }
+    
     private void setupGlobalExceptionHandler() {
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
@@ -0,0 +1,241 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Trace;
+import android.util.Log;
+import androidx.security.crypto.EncryptedSharedPreferences;
+import androidx.security.crypto.MasterKeys;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide owner of the encrypted credential preferences.
+ *
+ * <p>Keystore setup and {@link EncryptedSharedPreferences} creation run once, on a background
+ * thread, the first time the store is requested. Decrypted credentials are kept in memory as
+ * char arrays for a short time so the receiver, worker and UI don't each pay for AES-SIV/GCM
+ * decryption; the arrays are zeroed when the cache expires or the credentials change.
+ */
+public final class CredentialStore {
+
+    private static final String TAG = "CredentialStore";
+    private static final String PREF_NAME = "wifi_auto_login_prefs";
+    private static final String KEY_ROLL_NUMBER = "roll_number";
+    private static final String KEY_PASSWORD = "password";
+    private static final long CACHE_TTL_SECONDS = 60;
+    private static final String TRACE_INIT = "CredentialStore.init";
+
+    private static final ScheduledExecutorService EXECUTOR =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CredentialStore");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private static volatile CredentialStore instance;
+
+    private final Future<SharedPreferences> encryptedPrefs;
+    private volatile boolean encryptionAvailable;
+
+    private final Object cacheLock = new Object();
+    private char[] cachedRollNumber;
+    private char[] cachedPassword;
+    private ScheduledFuture<?> cacheExpiry;
+
+    CredentialStore(final Context appContext) {
+        encryptedPrefs = EXECUTOR.submit(new Callable<SharedPreferences>() {
+            @Override
+            public SharedPreferences call() {
+                Trace.beginSection(TRACE_INIT);
+                try {
+                    return createEncryptedPrefs(appContext);
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+    }
+
+    /** Returns the shared store, starting its initialization in the background if needed. */
+    public static CredentialStore getInstance(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        CredentialStore result = instance;
+        if (result == null) {
+            synchronized (CredentialStore.class) {
+                result = instance;
+                if (result == null) {
+                    result = new CredentialStore(context.getApplicationContext());
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public String getRollNumber() {
+        synchronized (cacheLock) {
+            loadIfNeeded();
+            return cachedRollNumber != null ? new String(cachedRollNumber) : "";
+        }
+    }
+
+    public String getPassword() {
+        synchronized (cacheLock) {
+            loadIfNeeded();
+            return cachedPassword != null ? new String(cachedPassword) : "";
+        }
+    }
+
+    public boolean hasCredentials() {
+        synchronized (cacheLock) {
+            loadIfNeeded();
+            return cachedRollNumber != null && cachedRollNumber.length > 0
+                && cachedPassword != null && cachedPassword.length > 0;
+        }
+    }
+
+    public void saveCredentials(String rollNumber, String password) {
+        if (rollNumber == null) rollNumber = "";
+        if (password == null) password = "";
+
+        synchronized (cacheLock) {
+            clearCacheLocked();
+            try {
+                prefs().edit()
+                    .putString(KEY_ROLL_NUMBER, rollNumber)
+                    .putString(KEY_PASSWORD, password)
+                    .apply();
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving credentials", e);
+            }
+        }
+    }
+
+    /** Zeroes and drops the in-memory copy; the next read decrypts again. */
+    public void clearCache() {
+        synchronized (cacheLock) {
+            clearCacheLocked();
+        }
+    }
+
+    public boolean isEncryptionAvailable() {
+        awaitPrefs();
+        return encryptionAvailable;
+    }
+
+    /** True once the encrypted preferences are ready, i.e. reads will not block. */
+    public boolean isReady() {
+        return encryptedPrefs.isDone();
+    }
+
+    /**
+     * Runs {@code task} on the store's background thread once the encrypted preferences are
+     * ready. The executor is single-threaded and initialization was queued first, so the task
+     * never waits on Keystore setup and never runs on the caller's (possibly main) thread.
+     */
+    public Future<?> whenReady(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    private void loadIfNeeded() {
+        if (cachedRollNumber != null && cachedPassword != null) {
+            return;
+        }
+
+        String rollNumber = "";
+        String password = "";
+        try {
+            SharedPreferences prefs = prefs();
+            rollNumber = prefs.getString(KEY_ROLL_NUMBER, "");
+            password = prefs.getString(KEY_PASSWORD, "");
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading credentials", e);
+        }
+
+        cachedRollNumber = (rollNumber != null ? rollNumber : "").toCharArray();
+        cachedPassword = (password != null ? password : "").toCharArray();
+        cacheExpiry = EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                clearCache();
+            }
+        }, CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void clearCacheLocked() {
+        if (cachedRollNumber != null) {
+            Arrays.fill(cachedRollNumber, '\0');
+            cachedRollNumber = null;
+        }
+        if (cachedPassword != null) {
+            Arrays.fill(cachedPassword, '\0');
+            cachedPassword = null;
+        }
+        if (cacheExpiry != null) {
+            cacheExpiry.cancel(false);
+            cacheExpiry = null;
+        }
+    }
+
+    private SharedPreferences prefs() {
+        SharedPreferences prefs = awaitPrefs();
+        if (prefs == null) {
+            throw new IllegalStateException("Credential storage unavailable");
+        }
+        return prefs;
+    }
+
+    private SharedPreferences awaitPrefs() {
+        try {
+            return encryptedPrefs.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.e(TAG, "Interrupted waiting for credential storage", e);
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Credential storage initialization failed", e);
+            return null;
+        }
+    }
+
+    private SharedPreferences createEncryptedPrefs(Context context) {
+        try {
+            String masterKeyAlias = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
+            SharedPreferences prefs = EncryptedSharedPreferences.create(
+                PREF_NAME + "_encrypted",
+                masterKeyAlias,
+                context,
+                EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
+                EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
+            );
+            encryptionAvailable = true;
+            Log.d(TAG, "EncryptedSharedPreferences initialized successfully");
+            return prefs;
+        } catch (GeneralSecurityException | IOException e) {
+            // Fallback to regular preferences if encryption fails
+            Log.w(TAG, "Failed to create encrypted preferences, using fallback", e);
+            encryptionAvailable = false;
+            return context.getSharedPreferences(PREF_NAME + "_fallback", Context.MODE_PRIVATE);
+        } catch (Exception e) {
+            // Ultimate fallback
+            Log.e(TAG, "All preferences failed, using basic fallback", e);
+            encryptionAvailable = false;
+            return context.getSharedPreferences(PREF_NAME + "_basic", Context.MODE_PRIVATE);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import com.mmmut.wifiautologin.network.LogLinearHistogram;
+import com.mmmut.wifiautologin.network.NetworkRule;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Zips everything support needs into one file under {@code cache/diagnostics}: a summary
+ * of the settings (never the credentials), the decoded event log alongside the raw files,
+ * the login traces, and the phase metrics and history. Every part is streamed into the zip
+ * through a small buffer, so the size of the logs does not matter. Call off the main thread.
+ */
+public final class DiagnosticsBundle {
+
+    /** Cache subdirectory the bundle is written to; shared through the FileProvider. */
+    public static final String DIRECTORY = "diagnostics";
+    private static final String FILE_NAME = "wifi-autologin-diagnostics.zip";
+
+    private DiagnosticsBundle() {
+    }
+
+    /** Writes the bundle, replacing the previous one, and returns it. */
+    public static File write(Context context) throws IOException {
+        Context appContext = context.getApplicationContext();
+        File directory = new File(appContext.getCacheDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+
+        EventLog eventLog = EventLog.getInstance(appContext);
+        eventLog.flush();
+        LoginMetricsStore.getInstance(appContext).flush();
+
+        File bundle = new File(directory, FILE_NAME);
+        byte[] buffer = new byte[8192];
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(bundle)))) {
+            Writer text = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+
+            zip.putNextEntry(new ZipEntry("summary.txt"));
+            writeSummary(appContext, text);
+            text.flush();
+            zip.closeEntry();
+
+            zip.putNextEntry(new ZipEntry("events.txt"));
+            eventLog.writeText(text);
+            text.flush();
+            zip.closeEntry();
+
+            for (File file : eventLog.files()) {
+                addFile(zip, "events/" + file.getName(), file, buffer);
+            }
+
+            File[] traces = LoginTraceStore.getInstance(appContext).getDirectory().listFiles();
+            if (traces != null) {
+                Arrays.sort(traces);
+                for (File trace : traces) {
+                    addFile(zip, "traces/" + trace.getName(), trace, buffer);
+                }
+            }
+
+            File filesDir = appContext.getFilesDir();
+            addFile(zip, LoginMetricsStore.FILE_NAME, new File(filesDir, LoginMetricsStore.FILE_NAME), buffer);
+            addFile(zip, LoginHistoryStore.FILE_NAME, new File(filesDir, LoginHistoryStore.FILE_NAME), buffer);
+        }
+        return bundle;
+    }
+
+    private static void writeSummary(Context context, Writer out) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+        String version;
+        try {
+            version = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            version = "unknown";
+        }
+
+        PreferenceManager prefs = new PreferenceManager(context);
+        long lastLogin = prefs.getLastLoginTime();
+        out.write("Generated: " + format.format(new Date()) + "\n");
+        out.write("App version: " + version + "\n");
+        out.write("Device: " + Build.MANUFACTURER + " " + Build.MODEL + ", Android " + Build.VERSION.RELEASE
+            + " (API " + Build.VERSION.SDK_INT + ")\n");
+        out.write("Auto-login: " + (prefs.isAutoLoginEnabled() ? "on" : "off") + "\n");
+        out.write("Credentials saved: " + (prefs.hasCredentials() ? "yes" : "no") + "\n");
+        out.write("Last login: " + (lastLogin > 0 ? format.format(new Date(lastLogin)) : "never") + "\n");
+        out.write("Last result: " + prefs.getLastLoginResult() + "\n");
+        out.write("Logins avoided: " + prefs.getLoginsAvoided() + "\n");
+
+        out.write("\nNetwork rules (in addition to the built-in ones):\n");
+        for (NetworkRule rule : prefs.getNetworkRules()) {
+            out.write("  " + rule + "\n");
+        }
+
+        out.write("\nLogin phases (n, p50, p95, p99, max in ms):\n");
+        LoginMetricsStore metrics = LoginMetricsStore.getInstance(context);
+        for (LoginMetricsStore.Phase phase : LoginMetricsStore.Phase.values()) {
+            LogLinearHistogram.Summary summary = metrics.summarize(phase);
+            out.write(String.format(Locale.US, "  %-26s %5d %6d %6d %6d %6d\n", phase.label,
+                summary.count, summary.p50, summary.p95, summary.p99, summary.max));
+        }
+    }
+
+    private static void addFile(ZipOutputStream zip, String name, File file, byte[] buffer) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        zip.putNextEntry(new ZipEntry(name));
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                zip.write(buffer, 0, read);
+            }
+        }
+        zip.closeEntry();
+    }
+}
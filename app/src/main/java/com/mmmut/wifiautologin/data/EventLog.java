@@ -0,0 +1,404 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only binary log of what the monitor, worker and login service saw, for support.
+ *
+ * <p>{@link #record} encodes an event straight into one of two direct buffers under a short
+ * lock, without allocating; a single writer thread swaps the buffers a moment later and
+ * writes the full one through a {@link FileChannel}, so callers never wait on disk. If a
+ * burst fills the buffer before the writer gets to it, further events are counted and the
+ * count is logged as a {@link Type#DROPPED} event. Once the file reaches
+ * {@link #MAX_FILE_BYTES} it becomes {@code events.1.bin}, replacing the previous one, so
+ * the log never takes more than twice that.
+ *
+ * <p>Each file starts with a magic and version int, then records (big-endian):
+ * <pre>
+ *   short  length of the rest of the record
+ *   long   epoch millis
+ *   byte   type code
+ *   varint a, varint b   (zigzag LEB128; meaning depends on the type)
+ *   byte   text length, then that many bytes of UTF-8 text
+ * </pre>
+ */
+public final class EventLog {
+
+    private static final String TAG = "EventLog";
+    private static final String DIRECTORY = "events";
+    private static final String CURRENT = "events.bin";
+    private static final String ROTATED = "events.1.bin";
+
+    private static final int MAGIC = 0x57454c31; // "WEL1"
+    private static final int VERSION = 1;
+    static final int MAX_FILE_BYTES = 256 * 1024;
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_TEXT_BYTES = 0xff;
+    private static final int MAX_RECORD_BYTES = 2 + 8 + 1 + 10 + 10 + 1 + MAX_TEXT_BYTES;
+    private static final long FLUSH_DELAY_MILLIS = 2000;
+
+    /** What an event is; the code is what gets stored, so never reuse one. */
+    public enum Type {
+        /** a: network handle, b: capability flags ({@link #FLAG_VALIDATED}, {@link #FLAG_CAPTIVE}). */
+        NETWORK(1, "network", "flags"),
+        /** a: network handle, text: "ssid -> portal", or "ssid -> none". */
+        RULE_MATCH(2, "network", null),
+        /** a: network handle. */
+        NETWORK_LOST(3, "network", null),
+        /** a: run attempt, b: millis since the network event, text: trace id. */
+        WORK_START(4, "run", "delayMs"),
+        /** text: probe state. */
+        PROBE(5, null, null),
+        /** a: {@link LoginMetricsStore.Phase} ordinal, b: millis, text: gateway. */
+        HTTP_PHASE(6, "phase", "ms"),
+        /** a: classifier verdict ordinal, b: HTTP status, text: gateway. */
+        VERDICT(7, "verdict", "http"),
+        /** a: login outcome ordinal, b: millis since the work started, text: message. */
+        RESULT(8, "outcome", "ms"),
+        /** a: events lost because the buffer was full. */
+        DROPPED(9, "count", null),
+        /** a: what triggered it ({@code LoginWarmup.TRIGGER_*}), b: millis spent, text: "ssid -> portal". */
+        WARMUP(10, "trigger", "ms");
+
+        final int code;
+        final String aLabel;
+        final String bLabel;
+
+        Type(int code, String aLabel, String bLabel) {
+            this.code = code;
+            this.aLabel = aLabel;
+            this.bLabel = bLabel;
+        }
+
+        static Type forCode(int code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final int FLAG_VALIDATED = 1;
+    public static final int FLAG_CAPTIVE = 2;
+
+    private static volatile EventLog instance;
+
+    private final File directory;
+    private final ScheduledExecutorService writer;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Object lock = new Object();
+    private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_BYTES); // guarded by lock
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_BYTES);  // writer thread only
+    private int dropped; // guarded by lock
+
+    private FileChannel channel; // writer thread only
+
+    EventLog(File directory) {
+        this.directory = directory;
+        this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EventLog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static EventLog getInstance(Context context) {
+        EventLog result = instance;
+        if (result == null) {
+            synchronized (EventLog.class) {
+                result = instance;
+                if (result == null) {
+                    result = new EventLog(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Appends an event; cheap enough for the login path. Text beyond 255 bytes is cut off. */
+    public void record(Type type, long a, long b, String text) {
+        boolean halfFull;
+        synchronized (lock) {
+            ByteBuffer buffer = active;
+            if (buffer.remaining() < MAX_RECORD_BYTES) {
+                dropped++;
+            } else {
+                int start = buffer.position();
+                buffer.position(start + 2);
+                buffer.putLong(System.currentTimeMillis());
+                buffer.put((byte) type.code);
+                putVarLong(buffer, a);
+                putVarLong(buffer, b);
+                int lengthAt = buffer.position();
+                buffer.position(lengthAt + 1);
+                int textBytes = text != null ? putUtf8(buffer, text, MAX_TEXT_BYTES) : 0;
+                buffer.put(lengthAt, (byte) textBytes);
+                buffer.putShort(start, (short) (buffer.position() - start - 2));
+            }
+            halfFull = buffer.position() >= BUFFER_BYTES / 2;
+        }
+        // Bursts get written right away so they do not run into a full buffer
+        if (halfFull && drainQueued.compareAndSet(false, true)) {
+            writer.execute(drainTask);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            writer.schedule(drainTask, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void record(Type type, long a, long b) {
+        record(type, a, b, null);
+    }
+
+    /** Writes out everything recorded so far and waits for it, e.g. before an export. */
+    public void flush() {
+        Future<?> done = writer.submit(drainTask);
+        try {
+            done.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "Event log flush did not finish", e);
+        }
+    }
+
+    /** The log files, oldest first; only those that exist. Call {@link #flush()} first. */
+    File[] files() {
+        File rotated = new File(directory, ROTATED);
+        File current = new File(directory, CURRENT);
+        if (rotated.exists() && current.exists()) {
+            return new File[]{rotated, current};
+        }
+        if (current.exists()) {
+            return new File[]{current};
+        }
+        return rotated.exists() ? new File[]{rotated} : new File[0];
+    }
+
+    /** Decodes the log into one line per event, streaming file by file. */
+    void writeText(Writer out) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        byte[] record = new byte[MAX_RECORD_BYTES];
+        StringBuilder line = new StringBuilder();
+
+        for (File file : files()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    out.write("# " + file.getName() + ": unknown format\n");
+                    continue;
+                }
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readUnsignedShort();
+                    } catch (EOFException end) {
+                        break;
+                    }
+                    if (length > record.length) {
+                        out.write("# " + file.getName() + ": corrupt record, skipping rest of file\n");
+                        break;
+                    }
+                    in.readFully(record, 0, length);
+                    line.setLength(0);
+                    decode(ByteBuffer.wrap(record, 0, length), format, date, line);
+                    out.write(line.append('\n').toString());
+                }
+            } catch (EOFException e) {
+                out.write("# " + file.getName() + ": truncated\n");
+            }
+        }
+    }
+
+    private static void decode(ByteBuffer record, SimpleDateFormat format, Date date, StringBuilder line) {
+        date.setTime(record.getLong());
+        int code = record.get() & 0xff;
+        long a = getVarLong(record);
+        long b = getVarLong(record);
+        int textBytes = record.get() & 0xff;
+        String text = new String(record.array(), record.position(), textBytes, StandardCharsets.UTF_8);
+
+        Type type = Type.forCode(code);
+        line.append(format.format(date)).append(' ').append(type != null ? type.name() : "TYPE_" + code);
+        if (type == null || type.aLabel != null) {
+            line.append(' ').append(type != null ? type.aLabel : "a").append('=').append(a);
+        }
+        if (type == null || type.bLabel != null) {
+            line.append(' ').append(type != null ? type.bLabel : "b").append('=').append(b);
+        }
+        if (!text.isEmpty()) {
+            line.append(' ').append(text);
+        }
+    }
+
+    private void drain() {
+        flushScheduled.set(false);
+        drainQueued.set(false);
+        ByteBuffer full;
+        int lost;
+        synchronized (lock) {
+            full = active;
+            active = spare;
+            lost = dropped;
+            dropped = 0;
+        }
+        spare = full;
+        if (lost > 0) {
+            record(Type.DROPPED, lost, 0);
+        }
+        if (full.position() == 0) {
+            return;
+        }
+
+        full.flip();
+        try {
+            FileChannel out = channel();
+            while (full.hasRemaining()) {
+                out.write(full);
+            }
+            if (out.size() >= MAX_FILE_BYTES) {
+                rotate();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing event log", e);
+            closeChannel();
+        } finally {
+            full.clear();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            FileChannel opened = FileChannel.open(new File(directory, CURRENT).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            if (opened.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) {
+                    opened.write(header);
+                }
+            }
+            channel = opened;
+        }
+        return channel;
+    }
+
+    private void rotate() {
+        closeChannel();
+        File rotated = new File(directory, ROTATED);
+        if (rotated.exists() && !rotated.delete()) {
+            Log.w(TAG, "Could not delete " + rotated);
+        }
+        if (!new File(directory, CURRENT).renameTo(rotated)) {
+            Log.w(TAG, "Could not rotate event log");
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing event log", e);
+            }
+            channel = null;
+        }
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /** Encodes as much of the text as fits in maxBytes without splitting a character. */
+    private static int putUtf8(ByteBuffer buffer, String text, int maxBytes) {
+        int written = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int c = text.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, text.charAt(i + 1));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+
+            int size = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (written + size > maxBytes) {
+                break;
+            }
+            if (size == 1) {
+                buffer.put((byte) c);
+            } else if (size == 2) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (size == 3) {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else {
+                buffer.put((byte) (0xf0 | (c >> 18)));
+                buffer.put((byte) (0x80 | ((c >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+                i++;
+            }
+            written += size;
+        }
+        return written;
+    }
+}
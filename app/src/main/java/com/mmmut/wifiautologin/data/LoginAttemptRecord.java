@@ -0,0 +1,35 @@
+package com.mmmut.wifiautologin.data;
+
+/** One login attempt as stored in {@link LoginHistoryStore}. Timings are -1 when unknown. */
+public final class LoginAttemptRecord {
+
+    public static final int VERDICT_UNKNOWN = 0;
+    public static final int VERDICT_SUCCESS = 1;
+    public static final int VERDICT_FAILURE = 2;
+
+    public final long epochMillis;
+    public final String ssid;
+    public final String gateway;
+    public final int connectMillis;
+    public final int firstByteMillis;
+    public final int totalMillis;
+    public final int httpCode;
+    public final int verdict;
+    public final int retryCount;
+    public final boolean success;
+
+    public LoginAttemptRecord(long epochMillis, String ssid, String gateway, int connectMillis,
+                              int firstByteMillis, int totalMillis, int httpCode, int verdict,
+                              int retryCount, boolean success) {
+        this.epochMillis = epochMillis;
+        this.ssid = ssid != null ? ssid : "";
+        this.gateway = gateway != null ? gateway : "";
+        this.connectMillis = connectMillis;
+        this.firstByteMillis = firstByteMillis;
+        this.totalMillis = totalMillis;
+        this.httpCode = httpCode;
+        this.verdict = verdict;
+        this.retryCount = retryCount;
+        this.success = success;
+    }
+}
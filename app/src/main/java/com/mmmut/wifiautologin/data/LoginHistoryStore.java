@@ -0,0 +1,211 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded history of login attempts kept in a memory-mapped ring buffer.
+ *
+ * <p>The file is a 32-byte header followed by {@link #CAPACITY} fixed-size records, so the
+ * file never grows and appending one attempt is a handful of absolute puts into the mapping
+ * plus a header update, independent of how much history there is. Once full, the oldest
+ * record is overwritten. Reads page backwards from the newest record so the UI only decodes
+ * what it shows.
+ *
+ * <p>Record layout (little-endian, {@link #RECORD_SIZE} bytes):
+ * <pre>
+ *   0  long  epoch millis        20 short http code      24 byte ssid length
+ *   8  int   connect ms          22 byte  verdict        25 byte gateway length
+ *  12  int   first byte ms       23 byte  flags          26 ssid (UTF-8, 32 bytes)
+ *  16  int   total ms            (bit 0 success; bits 1-7 retry count)
+ *                                                        58 gateway (UTF-8, 48 bytes)
+ * </pre>
+ */
+public final class LoginHistoryStore {
+
+    private static final String TAG = "LoginHistoryStore";
+    static final String FILE_NAME = "login_history.bin";
+
+    private static final int MAGIC = 0x574c4831; // "WLH1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_HEAD = 12;
+    private static final int OFFSET_COUNT = 16;
+
+    static final int CAPACITY = 256;
+    static final int RECORD_SIZE = 128;
+    private static final int SSID_BYTES = 32;
+    private static final int GATEWAY_BYTES = 48;
+    private static final int MAX_RETRY = 0x7f;
+
+    private static volatile LoginHistoryStore instance;
+
+    private final MappedByteBuffer buffer;
+    private int head;  // slot the next record goes into
+    private int count;
+
+    LoginHistoryStore(File file) {
+        this(map(file));
+    }
+
+    private LoginHistoryStore(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer == null) {
+            return;
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(OFFSET_MAGIC) == MAGIC
+                && buffer.getInt(OFFSET_VERSION) == VERSION
+                && buffer.getInt(OFFSET_CAPACITY) == CAPACITY) {
+            head = clampSlot(buffer.getInt(OFFSET_HEAD));
+            count = Math.max(0, Math.min(CAPACITY, buffer.getInt(OFFSET_COUNT)));
+        } else {
+            buffer.putInt(OFFSET_MAGIC, MAGIC);
+            buffer.putInt(OFFSET_VERSION, VERSION);
+            buffer.putInt(OFFSET_CAPACITY, CAPACITY);
+            writeHeader();
+        }
+    }
+
+    /** Returns the shared store, mapping the history file on first use. */
+    public static LoginHistoryStore getInstance(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        LoginHistoryStore result = instance;
+        if (result == null) {
+            synchronized (LoginHistoryStore.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LoginHistoryStore(new File(context.getFilesDir(), FILE_NAME));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Appends one attempt, overwriting the oldest once the buffer is full. */
+    public synchronized void append(LoginAttemptRecord record) {
+        if (buffer == null || record == null) {
+            return;
+        }
+
+        int base = HEADER_SIZE + head * RECORD_SIZE;
+        int retry = Math.max(0, Math.min(MAX_RETRY, record.retryCount));
+        buffer.putLong(base, record.epochMillis);
+        buffer.putInt(base + 8, record.connectMillis);
+        buffer.putInt(base + 12, record.firstByteMillis);
+        buffer.putInt(base + 16, record.totalMillis);
+        buffer.putShort(base + 20, (short) record.httpCode);
+        buffer.put(base + 22, (byte) record.verdict);
+        buffer.put(base + 23, (byte) ((retry << 1) | (record.success ? 1 : 0)));
+        buffer.put(base + 24, (byte) putString(base + 26, record.ssid, SSID_BYTES));
+        buffer.put(base + 25, (byte) putString(base + 58, record.gateway, GATEWAY_BYTES));
+
+        head = (head + 1) % CAPACITY;
+        count = Math.min(CAPACITY, count + 1);
+        writeHeader();
+    }
+
+    /**
+     * Returns up to {@code limit} records, newest first, skipping the {@code offset} most
+     * recent ones. An empty list means there is no more history.
+     */
+    public synchronized List<LoginAttemptRecord> read(int offset, int limit) {
+        if (buffer == null || offset < 0 || limit <= 0 || offset >= count) {
+            return Collections.emptyList();
+        }
+
+        int n = Math.min(limit, count - offset);
+        List<LoginAttemptRecord> page = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int slot = Math.floorMod(head - 1 - offset - i, CAPACITY);
+            page.add(readSlot(HEADER_SIZE + slot * RECORD_SIZE));
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        if (buffer == null) {
+            return;
+        }
+        head = 0;
+        count = 0;
+        writeHeader();
+    }
+
+    private LoginAttemptRecord readSlot(int base) {
+        int flags = buffer.get(base + 23) & 0xff;
+        return new LoginAttemptRecord(
+            buffer.getLong(base),
+            getString(base + 26, buffer.get(base + 24) & 0xff, SSID_BYTES),
+            getString(base + 58, buffer.get(base + 25) & 0xff, GATEWAY_BYTES),
+            buffer.getInt(base + 8),
+            buffer.getInt(base + 12),
+            buffer.getInt(base + 16),
+            buffer.getShort(base + 20) & 0xffff,
+            buffer.get(base + 22),
+            flags >>> 1,
+            (flags & 1) != 0);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(OFFSET_HEAD, head);
+        buffer.putInt(OFFSET_COUNT, count);
+    }
+
+    /** Writes at most {@code max} bytes of UTF-8 without splitting a character; returns the length. */
+    private int putString(int position, String value, int max) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, max);
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer.put(position + i, bytes[i]);
+        }
+        return length;
+    }
+
+    private String getString(int position, int length, int max) {
+        byte[] bytes = new byte[Math.min(length, max)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int clampSlot(int slot) {
+        return slot >= 0 && slot < CAPACITY ? slot : 0;
+    }
+
+    private static MappedByteBuffer map(File file) {
+        long size = HEADER_SIZE + (long) CAPACITY * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not map login history, history disabled", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.util.Log;
+import com.mmmut.wifiautologin.network.LogLinearHistogram;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-phase latency histograms for logins, kept across process death.
+ *
+ * <p>Recording only touches the in-memory {@link LogLinearHistogram}s, which are lock-free.
+ * {@link #flush()} writes them out once a login has finished, to a temporary file that
+ * then replaces the old one, so a crash mid-write loses at most the last login's samples.
+ *
+ * <p>File layout (big-endian): magic, version, bucket count and phase count as ints, then
+ * per phase its ordinal as an int followed by one long per bucket.
+ */
+public final class LoginMetricsStore {
+
+    private static final String TAG = "LoginMetricsStore";
+    static final String FILE_NAME = "login_metrics.bin";
+
+    private static final int MAGIC = 0x574c4d31; // "WLM1"
+    private static final int VERSION = 1;
+
+    /** The steps of a login, in the order they happen. */
+    public enum Phase {
+        /** Network callback to login work starting: debounce plus WorkManager's own delay. */
+        SCHEDULE("Detected -> work started"),
+        DNS("DNS lookup"),
+        CONNECT("TCP connect"),
+        /** Call start until the request has been written, including DNS and connect. */
+        REQUEST_SENT("Call -> request sent"),
+        FIRST_BYTE("Request sent -> first byte"),
+        /** Login work starting until the login verdict is known. */
+        VERDICT("Work started -> verdict");
+
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static volatile LoginMetricsStore instance;
+
+    private final File file;
+    private final Map<Phase, LogLinearHistogram> histograms = new EnumMap<>(Phase.class);
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    LoginMetricsStore(File file) {
+        this.file = file;
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new LogLinearHistogram());
+        }
+        load();
+    }
+
+    /** Returns the shared store, reading the persisted histograms on first use. */
+    public static LoginMetricsStore getInstance(Context context) {
+        LoginMetricsStore result = instance;
+        if (result == null) {
+            synchronized (LoginMetricsStore.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LoginMetricsStore(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public void record(Phase phase, long millis) {
+        if (millis < 0) {
+            return;
+        }
+        histograms.get(phase).record(millis);
+        dirty.set(true);
+    }
+
+    public LogLinearHistogram.Summary summarize(Phase phase) {
+        return histograms.get(phase).summarize();
+    }
+
+    public void clear() {
+        for (LogLinearHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        dirty.set(true);
+        flush();
+    }
+
+    /** Persists the histograms if anything was recorded since the last flush. */
+    public synchronized void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(LogLinearHistogram.BUCKETS);
+            out.writeInt(histograms.size());
+            for (Map.Entry<Phase, LogLinearHistogram> entry : histograms.entrySet()) {
+                out.writeInt(entry.getKey().ordinal());
+                for (long count : entry.getValue().snapshot()) {
+                    out.writeLong(count);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing login metrics", e);
+            dirty.set(true);
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Error replacing login metrics file");
+            dirty.set(true);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != LogLinearHistogram.BUCKETS) {
+                Log.w(TAG, "Discarding login metrics in an old format");
+                return;
+            }
+            int phases = in.readInt();
+            Phase[] known = Phase.values();
+            long[] counts = new long[LogLinearHistogram.BUCKETS];
+            for (int p = 0; p < phases; p++) {
+                int ordinal = in.readInt();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = Math.max(0L, in.readLong());
+                }
+                if (ordinal >= 0 && ordinal < known.length) {
+                    histograms.get(known[ordinal]).add(counts);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading login metrics", e);
+        }
+    }
+}
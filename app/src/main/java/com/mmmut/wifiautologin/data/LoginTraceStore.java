@@ -0,0 +1,139 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.util.Log;
+import com.mmmut.wifiautologin.network.LoginTrace;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the JSON timelines of the last {@link #MAX_TRACES} logins as files under
+ * {@code files/traces}, named by time, correlation id and run so they sort chronologically.
+ *
+ * <p>A successful login's trace stays open until the system marks the network validated,
+ * since that, not the portal's reply, is when users actually have internet. The network
+ * monitor reports it through {@link #onValidated(long)}, which adds the final event and
+ * rewrites the file.
+ */
+public final class LoginTraceStore {
+
+    private static final String TAG = "LoginTraceStore";
+    private static final String DIRECTORY = "traces";
+    private static final String SUFFIX = ".json";
+    static final int MAX_TRACES = 20;
+
+    private static volatile LoginTraceStore instance;
+
+    private final File directory;
+    private final Map<Long, LoginTrace> awaitingValidation = new ConcurrentHashMap<>();
+
+    LoginTraceStore(File directory) {
+        this.directory = directory;
+    }
+
+    public static LoginTraceStore getInstance(Context context) {
+        LoginTraceStore result = instance;
+        if (result == null) {
+            synchronized (LoginTraceStore.class) {
+                result = instance;
+                if (result == null) {
+                    result = new LoginTraceStore(new File(context.getApplicationContext().getFilesDir(), DIRECTORY));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Writes the trace, replacing an earlier version of the same trace, and prunes old ones. */
+    public synchronized void save(LoginTrace trace) {
+        String json = trace.toJson();
+        if (json == null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return;
+        }
+
+        File file = new File(directory, trace.originMillis + "-" + trace.id + "-" + trace.run + SUFFIX);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing trace " + trace.id, e);
+            return;
+        }
+        Log.i(TAG, trace.summary());
+        prune();
+    }
+
+    /** Holds on to a successful login's trace until its network validates. */
+    public void awaitValidation(long networkHandle, LoginTrace trace) {
+        if (networkHandle != 0) {
+            awaitingValidation.put(networkHandle, trace);
+        }
+    }
+
+    /** Called by the network monitor; closes the pending trace for that network, if any. */
+    public void onValidated(long networkHandle) {
+        LoginTrace trace = awaitingValidation.remove(networkHandle);
+        if (trace != null) {
+            trace.instant(LoginTrace.LANE_WORKER, "validated", null);
+            save(trace);
+        }
+    }
+
+    public void onLost(long networkHandle) {
+        awaitingValidation.remove(networkHandle);
+    }
+
+    /** The newest trace's JSON, or null when there is none. */
+    public synchronized String readLatest() {
+        File[] files = listTraces();
+        if (files.length == 0) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(files[files.length - 1].toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading trace", e);
+            return null;
+        }
+    }
+
+    private void prune() {
+        File[] files = listTraces();
+        for (int i = 0; i < files.length - MAX_TRACES; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "Could not delete " + files[i]);
+            }
+        }
+    }
+
+    /** Oldest first. */
+    private File[] listTraces() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,121 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.mmmut.wifiautologin.network.PortalDescriptor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists portal descriptors under {@link PortalDescriptor#pageKey(String)}, so the
+ * per-session query a redirect-discovered login page carries neither splits the cache into
+ * one entry per session nor gets replayed: {@link #get(String)} hands out the descriptor
+ * rebased onto the page URL asked for.
+ */
+public class PortalDescriptorCache {
+
+    private static final String PREF_NAME = "wifi_auto_login_prefs_portal";
+    private static final String KEY_PREFIX = "descriptor_";
+    private static final int MAX_PARSED = 16;
+
+    // Parsed descriptors by page key, shared by every instance so only the first read per
+    // process pays for the JSON; descriptors are immutable. Least recently used go first.
+    private static final Map<String, PortalDescriptor> PARSED = Collections.synchronizedMap(
+        new LinkedHashMap<String, PortalDescriptor>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PortalDescriptor> eldest) {
+                return size() > MAX_PARSED;
+            }
+        });
+
+    private final SharedPreferences prefs;
+
+    public PortalDescriptorCache(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    PortalDescriptorCache(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * The cached form for this login page, carried over to the page's current session, or
+     * null when there is none or it has per-session inputs that need a fresh fetch.
+     */
+    public PortalDescriptor get(String pageUrl) {
+        PortalDescriptor stored = stored(PortalDescriptor.pageKey(pageUrl));
+        return stored != null ? stored.forPage(pageUrl) : null;
+    }
+
+    public void put(PortalDescriptor descriptor) {
+        if (descriptor == null) return;
+
+        String key = descriptor.pageKey;
+        descriptor = descriptor.withSessionFieldsFrom(stored(key));
+        PARSED.put(key, descriptor);
+        try {
+            String json = descriptor.toJson();
+            if (json != null) {
+                SharedPreferences.Editor editor = prefs.edit()
+                    .putString(KEY_PREFIX + key, json);
+                removeSessionKeys(editor);
+                editor.apply();
+            }
+        } catch (Exception e) {
+            android.util.Log.e("PortalDescriptorCache", "Error saving portal descriptor", e);
+        }
+    }
+
+    public void remove(String pageUrl) {
+        String key = PortalDescriptor.pageKey(pageUrl);
+        PARSED.remove(key);
+        try {
+            prefs.edit()
+                .remove(KEY_PREFIX + key)
+                .apply();
+        } catch (Exception e) {
+            android.util.Log.e("PortalDescriptorCache", "Error removing portal descriptor", e);
+        }
+    }
+
+    /** Reads and parses the descriptors of these login pages ahead of a login. */
+    public void warm(List<String> pageUrls) {
+        for (String pageUrl : pageUrls) {
+            get(pageUrl);
+        }
+    }
+
+    private PortalDescriptor stored(String key) {
+        PortalDescriptor parsed = PARSED.get(key);
+        if (parsed != null) {
+            return parsed;
+        }
+        try {
+            parsed = PortalDescriptor.fromJson(prefs.getString(KEY_PREFIX + key, null));
+            if (parsed != null) {
+                PARSED.put(key, parsed);
+            }
+            return parsed;
+        } catch (Exception e) {
+            android.util.Log.e("PortalDescriptorCache", "Error reading portal descriptor", e);
+            return null;
+        }
+    }
+
+    /** Drops entries written under a full session URL before descriptors were keyed by page. */
+    private void removeSessionKeys(SharedPreferences.Editor editor) {
+        for (String name : prefs.getAll().keySet()) {
+            if (name.startsWith(KEY_PREFIX)) {
+                String pageUrl = name.substring(KEY_PREFIX.length());
+                if (!pageUrl.equals(PortalDescriptor.pageKey(pageUrl))) {
+                    editor.remove(name);
+                }
+            }
+        }
+    }
+}
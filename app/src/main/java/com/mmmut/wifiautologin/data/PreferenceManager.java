@@ -2,99 +2,54 @@ package com.mmmut.wifiautologin.data;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import androidx.security.crypto.EncryptedSharedPreferences;
-import androidx.security.crypto.MasterKeys;
-import java.io.IOException;
-import java.security.GeneralSecurityException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import com.mmmut.wifiautologin.network.NetworkRule;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 
 public class PreferenceManager {
 
     private static final String PREF_NAME = "wifi_auto_login_prefs";
-    private static final String KEY_ROLL_NUMBER = "roll_number";
-    private static final String KEY_PASSWORD = "password";
     private static final String KEY_AUTO_LOGIN_ENABLED = "auto_login_enabled";
     private static final String KEY_LAST_LOGIN_TIME = "last_login_time";
     private static final String KEY_LAST_LOGIN_RESULT = "last_login_result";
+    private static final String KEY_LOGINS_AVOIDED = "logins_avoided";
+    private static final String KEY_NETWORK_RULES = "network_rules";
 
-    private final SharedPreferences encryptedPrefs;
+    // Format older versions stored last_login_time in, only used to migrate it
+    private static final DateTimeFormatter LEGACY_TIME_FORMAT =
+        DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
+
+    private final CredentialStore credentialStore;
     private final SharedPreferences regularPrefs;
-    private final SimpleDateFormat dateFormat;
-    private final boolean isEncryptionAvailable;
 
     public PreferenceManager(Context context) {
         if (context == null) {
             throw new IllegalArgumentException("Context cannot be null");
         }
         
-        dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
-        
         // Regular preferences for non-sensitive data
         regularPrefs = context.getSharedPreferences(PREF_NAME + "_regular", Context.MODE_PRIVATE);
         
-        // Encrypted preferences for sensitive data
-        SharedPreferences tempEncryptedPrefs = null;
-        boolean tempEncryptionAvailable = false;
-        
-        try {
-            String masterKeyAlias = MasterKeys.getOrCreate(MasterKeys.AES256_GCM_SPEC);
-            tempEncryptedPrefs = EncryptedSharedPreferences.create(
-                PREF_NAME + "_encrypted",
-                masterKeyAlias,
-                context,
-                EncryptedSharedPreferences.PrefKeyEncryptionScheme.AES256_SIV,
-                EncryptedSharedPreferences.PrefValueEncryptionScheme.AES256_GCM
-            );
-            tempEncryptionAvailable = true;
-            android.util.Log.d("PreferenceManager", "EncryptedSharedPreferences initialized successfully");
-        } catch (GeneralSecurityException | IOException e) {
-            // Fallback to regular preferences if encryption fails
-            android.util.Log.w("PreferenceManager", "Failed to create encrypted preferences, using fallback", e);
-            tempEncryptedPrefs = context.getSharedPreferences(PREF_NAME + "_fallback", Context.MODE_PRIVATE);
-            tempEncryptionAvailable = false;
-        } catch (Exception e) {
-            // Ultimate fallback
-            android.util.Log.e("PreferenceManager", "All preferences failed, using basic fallback", e);
-            tempEncryptedPrefs = context.getSharedPreferences(PREF_NAME + "_basic", Context.MODE_PRIVATE);
-            tempEncryptionAvailable = false;
-        }
-        
-        encryptedPrefs = tempEncryptedPrefs;
-        isEncryptionAvailable = tempEncryptionAvailable;
+        // Sensitive data lives in the shared, lazily initialized encrypted store
+        credentialStore = CredentialStore.getInstance(context);
     }
 
     public void saveCredentials(String rollNumber, String password) {
-        if (rollNumber == null) rollNumber = "";
-        if (password == null) password = "";
-        
-        try {
-            encryptedPrefs.edit()
-                .putString(KEY_ROLL_NUMBER, rollNumber)
-                .putString(KEY_PASSWORD, password)
-                .apply();
-        } catch (Exception e) {
-            android.util.Log.e("PreferenceManager", "Error saving credentials", e);
-        }
+        credentialStore.saveCredentials(rollNumber, password);
     }
 
     public String getRollNumber() {
-        try {
-            return encryptedPrefs.getString(KEY_ROLL_NUMBER, "");
-        } catch (Exception e) {
-            android.util.Log.e("PreferenceManager", "Error getting roll number", e);
-            return "";
-        }
+        return credentialStore.getRollNumber();
     }
 
     public String getPassword() {
-        try {
-            return encryptedPrefs.getString(KEY_PASSWORD, "");
-        } catch (Exception e) {
-            android.util.Log.e("PreferenceManager", "Error getting password", e);
-            return "";
-        }
+        return credentialStore.getPassword();
     }
 
     public void setAutoLoginEnabled(boolean enabled) {
@@ -116,26 +71,54 @@ public class PreferenceManager {
         }
     }
 
+    /** Stores the raw epoch millis; formatting is left to whoever displays it. */
     public void setLastLoginTime(long timestamp) {
         try {
-            String formattedTime = dateFormat.format(new Date(timestamp));
             regularPrefs.edit()
-                .putString(KEY_LAST_LOGIN_TIME, formattedTime)
+                .putLong(KEY_LAST_LOGIN_TIME, timestamp)
                 .apply();
         } catch (Exception e) {
             android.util.Log.e("PreferenceManager", "Error setting last login time", e);
         }
     }
 
-    public String getLastLoginTime() {
+    /** Epoch millis of the last login attempt, or 0 if there has been none. */
+    public long getLastLoginTime() {
         try {
-            return regularPrefs.getString(KEY_LAST_LOGIN_TIME, null);
+            return regularPrefs.getLong(KEY_LAST_LOGIN_TIME, 0L);
+        } catch (ClassCastException e) {
+            // Written by an older version as a formatted string
+            return migrateLastLoginTime();
         } catch (Exception e) {
             android.util.Log.e("PreferenceManager", "Error getting last login time", e);
-            return null;
+            return 0L;
         }
     }
 
+    private long migrateLastLoginTime() {
+        long timestamp = 0L;
+        try {
+            String legacy = regularPrefs.getString(KEY_LAST_LOGIN_TIME, null);
+            if (legacy != null) {
+                timestamp = LocalDateTime.parse(legacy, LEGACY_TIME_FORMAT)
+                    .atZone(ZoneId.systemDefault())
+                    .toInstant()
+                    .toEpochMilli();
+            }
+        } catch (DateTimeParseException | ClassCastException e) {
+            android.util.Log.w("PreferenceManager", "Dropping unreadable last login time", e);
+        }
+
+        SharedPreferences.Editor editor = regularPrefs.edit();
+        if (timestamp > 0) {
+            editor.putLong(KEY_LAST_LOGIN_TIME, timestamp);
+        } else {
+            editor.remove(KEY_LAST_LOGIN_TIME);
+        }
+        editor.apply();
+        return timestamp;
+    }
+
     public void setLastLoginResult(String result) {
         if (result == null) result = "";
         
@@ -157,12 +140,70 @@ public class PreferenceManager {
         }
     }
 
+    public void incrementLoginsAvoided() {
+        try {
+            regularPrefs.edit()
+                .putInt(KEY_LOGINS_AVOIDED, getLoginsAvoided() + 1)
+                .apply();
+        } catch (Exception e) {
+            android.util.Log.e("PreferenceManager", "Error updating avoided login count", e);
+        }
+    }
+
+    public int getLoginsAvoided() {
+        try {
+            return regularPrefs.getInt(KEY_LOGINS_AVOIDED, 0);
+        } catch (Exception e) {
+            android.util.Log.e("PreferenceManager", "Error getting avoided login count", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Stores site-specific network rules, one {@link NetworkRule} per line in its text form,
+     * and puts them into effect. Null or empty clears them.
+     *
+     * @throws IllegalArgumentException when a line is not a valid rule or names an adapter
+     *                                  that does not exist; nothing is stored then
+     */
+    public void setNetworkRules(String rules) {
+        List<NetworkRule> parsed = NetworkRule.parseAll(rules);
+        PortalAdapters.checkRules(parsed);
+        PortalAdapters.setRules(parsed);
+        try {
+            regularPrefs.edit()
+                .putString(KEY_NETWORK_RULES, parsed.isEmpty() ? null : rules)
+                .apply();
+        } catch (Exception e) {
+            android.util.Log.e("PreferenceManager", "Error saving network rules", e);
+        }
+    }
+
+    /** The stored site rules; empty when there are none or they no longer parse. */
+    public List<NetworkRule> getNetworkRules() {
+        try {
+            return NetworkRule.parseAll(regularPrefs.getString(KEY_NETWORK_RULES, null));
+        } catch (Exception e) {
+            android.util.Log.e("PreferenceManager", "Error reading network rules", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Registers for changes to the plain settings and login status, e.g. a background login
+     * finishing. The preferences hold listeners weakly, so the caller must keep a reference.
+     */
+    public void registerOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        regularPrefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public void unregisterOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        regularPrefs.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
     public boolean hasCredentials() {
         try {
-            String rollNumber = getRollNumber();
-            String password = getPassword();
-            return rollNumber != null && !rollNumber.isEmpty() && 
-                   password != null && !password.isEmpty();
+            return credentialStore.hasCredentials();
         } catch (Exception e) {
             android.util.Log.e("PreferenceManager", "Error checking credentials", e);
             return false;
@@ -170,6 +211,6 @@ public class PreferenceManager {
     }
 
     public boolean isEncryptionAvailable() {
-        return isEncryptionAvailable;
+        return credentialStore.isEncryptionAvailable();
     }
 }
@@ -0,0 +1,116 @@
+package com.mmmut.wifiautologin.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Learns how long the portal keeps an idle session alive and when the next keepalive is due.
+ *
+ * <p>The estimate is adjusted additively-increase / multiplicatively-decrease style: an
+ * observed expiry shrinks it below the gap that was too long, and a run of successful
+ * keepalives lets it creep back up so it does not stay pessimistic forever. Growth is
+ * bounded by what has been observed: at most one step past the longest gap a keepalive
+ * found the session alive after, and never past the shortest gap it was found expired
+ * after, so the estimate settles below the real idle timeout instead of cycling through
+ * expiries. All methods take the current time as a parameter so the logic runs the same
+ * under a fake clock.
+ */
+public class SessionStore {
+
+    private static final String PREF_NAME = "wifi_auto_login_prefs_session";
+    private static final String KEY_LAST_ACTIVITY = "last_activity";
+    private static final String KEY_LIFETIME = "session_lifetime";
+    private static final String KEY_ALIVE_STREAK = "alive_streak";
+    private static final String KEY_LONGEST_ALIVE = "longest_alive_gap";
+    private static final String KEY_SHORTEST_EXPIRED = "shortest_expired_gap";
+
+    static final long DEFAULT_LIFETIME_MILLIS = 5 * 60 * 1000L;
+    private static final long MIN_LIFETIME_MILLIS = 60 * 1000L;
+    private static final long MAX_LIFETIME_MILLIS = 60 * 60 * 1000L;
+    private static final long GROWTH_STEP_MILLIS = 30 * 1000L;
+    private static final int GROWTH_STREAK = 3;
+    private static final double SHRINK_FACTOR = 0.9;
+    private static final double KEEPALIVE_FRACTION = 0.8;
+
+    private final SharedPreferences prefs;
+
+    public SessionStore(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("Context cannot be null");
+        }
+        prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    SessionStore(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /** A full login just succeeded. */
+    public void onLogin(long now) {
+        prefs.edit()
+            .putLong(KEY_LAST_ACTIVITY, now)
+            .putInt(KEY_ALIVE_STREAK, 0)
+            .apply();
+    }
+
+    /** A keepalive was acknowledged; the idle timer restarts now. */
+    public void onKeepAlive(long now) {
+        int streak = prefs.getInt(KEY_ALIVE_STREAK, 0) + 1;
+        long lastActivity = prefs.getLong(KEY_LAST_ACTIVITY, 0L);
+        long longestAlive = prefs.getLong(KEY_LONGEST_ALIVE, 0L);
+        if (lastActivity > 0 && now - lastActivity > longestAlive) {
+            longestAlive = now - lastActivity;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit()
+            .putLong(KEY_LAST_ACTIVITY, now)
+            .putLong(KEY_LONGEST_ALIVE, longestAlive);
+
+        if (streak >= GROWTH_STREAK) {
+            // Probe one step past the longest gap known to be safe, staying under any gap
+            // known to be too long
+            long ceiling = (long) (longestAlive / KEEPALIVE_FRACTION) + GROWTH_STEP_MILLIS;
+            long shortestExpired = prefs.getLong(KEY_SHORTEST_EXPIRED, 0L);
+            if (shortestExpired > 0) {
+                ceiling = Math.min(ceiling, (long) (shortestExpired * SHRINK_FACTOR));
+            }
+            long lifetime = getLifetimeMillis();
+            if (lifetime < ceiling) {
+                editor.putLong(KEY_LIFETIME, clamp(Math.min(ceiling, lifetime + GROWTH_STEP_MILLIS)));
+            }
+            streak = 0;
+        }
+        editor.putInt(KEY_ALIVE_STREAK, streak).apply();
+    }
+
+    /** The portal reported the session gone, so the last gap was longer than its lifetime. */
+    public void onExpired(long now) {
+        long lastActivity = prefs.getLong(KEY_LAST_ACTIVITY, 0L);
+        long gap = lastActivity > 0 ? now - lastActivity : getLifetimeMillis();
+        long lifetime = Math.min(getLifetimeMillis(), (long) (gap * SHRINK_FACTOR));
+
+        SharedPreferences.Editor editor = prefs.edit()
+            .putLong(KEY_LIFETIME, clamp(lifetime))
+            .putInt(KEY_ALIVE_STREAK, 0);
+        long shortestExpired = prefs.getLong(KEY_SHORTEST_EXPIRED, 0L);
+        if (lastActivity > 0 && (shortestExpired == 0 || gap < shortestExpired)) {
+            editor.putLong(KEY_SHORTEST_EXPIRED, gap);
+        }
+        editor.apply();
+    }
+
+    public long getLifetimeMillis() {
+        return prefs.getLong(KEY_LIFETIME, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /** Delay from {@code now} until the next keepalive should go out, shortly before expiry. */
+    public long nextKeepAliveDelay(long now) {
+        long lastActivity = prefs.getLong(KEY_LAST_ACTIVITY, now);
+        long due = lastActivity + (long) (getLifetimeMillis() * KEEPALIVE_FRACTION);
+        return Math.max(0L, due - now);
+    }
+
+    private static long clamp(long lifetime) {
+        return Math.max(MIN_LIFETIME_MILLIS, Math.min(MAX_LIFETIME_MILLIS, lifetime));
+    }
+}
@@ -0,0 +1,239 @@
+package com.mmmut.wifiautologin.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derives per-phase timeouts from latencies observed on each SSID + gateway pair instead
+ * of waiting a fixed 30 seconds for every phase.
+ *
+ * <p>Connect and time-to-first-byte samples go into a {@link LatencyHistogram} persisted in
+ * SharedPreferences. Once a pair has enough samples, the timeout for a phase is its p95
+ * (connect) or p99 (first byte) times two plus fixed headroom, clamped to sane bounds. A
+ * gateway that usually accepts within 40 ms is therefore declared dead after well under a
+ * second rather than after 30.
+ *
+ * <p>A phase that times out is recorded as a censored sample at the deadline it hit, and each
+ * consecutive timeout doubles that phase's timeout until a sample completes again. A gateway
+ * that slows down past its learned deadline is therefore waited on longer next time instead
+ * of being cut off for good.
+ *
+ * <p>Recording only touches memory; {@link #flush()} saves what changed once a login is over.
+ */
+public final class AdaptiveTimeouts {
+
+    private static final String TAG = "AdaptiveTimeouts";
+    private static final String PREF_NAME = "wifi_auto_login_prefs_latency";
+    private static final String PHASE_CONNECT = "connect";
+    private static final String PHASE_FIRST_BYTE = "ttfb";
+    private static final int MIN_SAMPLES = 5;
+
+    // Used until a network has history; connect is already fail-fast for a LAN gateway
+    static final long DEFAULT_CONNECT_MILLIS = 5_000;
+    static final long DEFAULT_READ_MILLIS = 30_000;
+
+    private static final long MIN_CONNECT_MILLIS = 500;
+    private static final long MAX_CONNECT_MILLIS = 10_000;
+    private static final long CONNECT_HEADROOM_MILLIS = 250;
+    private static final long MIN_READ_MILLIS = 2_000;
+    private static final long MAX_READ_MILLIS = 30_000;
+    private static final long READ_HEADROOM_MILLIS = 1_000;
+    private static final long MAX_CALL_MILLIS = 45_000;
+    // Consecutive timeouts beyond this stop growing the backoff; the clamps cap it anyway
+    private static final int MAX_STRIKES = 4;
+
+    private static volatile AdaptiveTimeouts instance;
+
+    private final SharedPreferences prefs;
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // Histogram key -> consecutive timeouts of that phase; memory only, like a retry's backoff
+    private final ConcurrentHashMap<String, Integer> strikes = new ConcurrentHashMap<>();
+    private final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** @param prefs backing store, or null to keep the histograms in memory only */
+    public AdaptiveTimeouts(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public static AdaptiveTimeouts getInstance(Context context) {
+        AdaptiveTimeouts result = instance;
+        if (result == null) {
+            synchronized (AdaptiveTimeouts.class) {
+                result = instance;
+                if (result == null) {
+                    result = new AdaptiveTimeouts(context.getApplicationContext()
+                        .getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public void recordConnect(String networkKey, String gateway, long millis) {
+        record(key(networkKey, gateway, PHASE_CONNECT), millis, false);
+    }
+
+    public void recordFirstByte(String networkKey, String gateway, long millis) {
+        record(key(networkKey, gateway, PHASE_FIRST_BYTE), millis, false);
+    }
+
+    /** Records a connect that gave up after {@code millis}; the real value is at least that. */
+    public void recordConnectTimeout(String networkKey, String gateway, long millis) {
+        record(key(networkKey, gateway, PHASE_CONNECT), millis, true);
+    }
+
+    /** Records a wait for the first byte that gave up after {@code millis}. */
+    public void recordFirstByteTimeout(String networkKey, String gateway, long millis) {
+        record(key(networkKey, gateway, PHASE_FIRST_BYTE), millis, true);
+    }
+
+    public Timeouts timeoutsFor(String networkKey, String gateway) {
+        String connectKey = key(networkKey, gateway, PHASE_CONNECT);
+        String firstByteKey = key(networkKey, gateway, PHASE_FIRST_BYTE);
+        LatencyHistogram connect = histogram(connectKey);
+        LatencyHistogram firstByte = histogram(firstByteKey);
+
+        long connectMillis = DEFAULT_CONNECT_MILLIS;
+        if (connect.count() >= MIN_SAMPLES) {
+            connectMillis = clamp(connect.percentile(95) * 2 + CONNECT_HEADROOM_MILLIS,
+                MIN_CONNECT_MILLIS, MAX_CONNECT_MILLIS);
+        }
+        connectMillis = Math.min(MAX_CONNECT_MILLIS, connectMillis << strikes(connectKey));
+
+        long readMillis = DEFAULT_READ_MILLIS;
+        if (firstByte.count() >= MIN_SAMPLES) {
+            readMillis = clamp(firstByte.percentile(99) * 2 + READ_HEADROOM_MILLIS,
+                MIN_READ_MILLIS, MAX_READ_MILLIS);
+        }
+        readMillis = Math.min(MAX_READ_MILLIS, readMillis << strikes(firstByteKey));
+
+        // Overall deadline covers the page GET and the POST on a fresh connection
+        long callMillis = Math.min(MAX_CALL_MILLIS, connectMillis + 2 * readMillis);
+        return new Timeouts(connectMillis, readMillis, readMillis, callMillis);
+    }
+
+    /**
+     * Debug view of every tracked SSID + gateway pair: the observed distributions and the
+     * timeouts currently derived from them.
+     */
+    public String getDebugSnapshot() {
+        loadAll();
+        Map<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            lines.put(entry.getKey(), entry.getValue().toString());
+        }
+
+        StringBuilder builder = new StringBuilder();
+        String lastPair = null;
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            String key = line.getKey();
+            int split = key.lastIndexOf('|');
+            String pair = key.substring(0, split);
+            if (!pair.equals(lastPair)) {
+                int gatewaySplit = pair.indexOf('|');
+                builder.append(pair).append('\n')
+                    .append("  timeouts: ")
+                    .append(timeoutsFor(pair.substring(0, gatewaySplit), pair.substring(gatewaySplit + 1)))
+                    .append('\n');
+                lastPair = pair;
+            }
+            builder.append("  ").append(key.substring(split + 1)).append(": ")
+                .append(line.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Saves the histograms recorded into since the last flush, in one write. */
+    public void flush() {
+        if (prefs == null || dirty.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Iterator<String> keys = dirty.iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            keys.remove();
+            editor.putString(key, histogram(key).serialize());
+        }
+        try {
+            editor.apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Error persisting latency histograms", e);
+        }
+    }
+
+    private void record(String key, long millis, boolean timedOut) {
+        histogram(key).record(millis);
+        dirty.add(key);
+
+        if (!timedOut) {
+            strikes.remove(key);
+            return;
+        }
+        Integer previous = strikes.get(key);
+        strikes.put(key, Math.min(MAX_STRIKES, previous != null ? previous + 1 : 1));
+    }
+
+    private int strikes(String key) {
+        Integer count = strikes.get(key);
+        return count != null ? count : 0;
+    }
+
+    private LatencyHistogram histogram(String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram loaded = LatencyHistogram.deserialize(prefs != null ? prefs.getString(key, null) : null);
+            histogram = histograms.putIfAbsent(key, loaded);
+            if (histogram == null) {
+                histogram = loaded;
+            }
+        }
+        return histogram;
+    }
+
+    private void loadAll() {
+        if (prefs == null) {
+            return;
+        }
+        for (String key : prefs.getAll().keySet()) {
+            histogram(key);
+        }
+    }
+
+    private static String key(String networkKey, String gateway, String phase) {
+        String network = networkKey != null && !networkKey.isEmpty() ? networkKey.replace('|', '_') : "unknown";
+        String host = gateway != null ? gateway.replace('|', '_') : "unknown";
+        return network + "|" + host + "|" + phase;
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static final class Timeouts {
+        public final long connectMillis;
+        public final long readMillis;
+        public final long writeMillis;
+        public final long callMillis;
+
+        Timeouts(long connectMillis, long readMillis, long writeMillis, long callMillis) {
+            this.connectMillis = connectMillis;
+            this.readMillis = readMillis;
+            this.writeMillis = writeMillis;
+            this.callMillis = callMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "connect=" + connectMillis + "ms read=" + readMillis + "ms write=" + writeMillis
+                + "ms call=" + callMillis + "ms";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.mmmut.wifiautologin.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ASCII case-insensitive multi-pattern matcher compiled into a dense DFA. Callers feed it
+ * one byte at a time with {@link #next(int, byte)} and check {@link #matches(int)}, so a
+ * response can be scanned straight off the socket without decoding or copying it.
+ */
+public final class AhoCorasickMatcher {
+
+    public static final int MAX_PATTERNS = 64;
+
+    private final int[] byteClass = new int[256];
+    private final int alphabetSize;
+    private final int[] transitions;
+    private final long[] outputs;
+    private final int patternCount;
+
+    public AhoCorasickMatcher(String... patterns) {
+        if (patterns == null || patterns.length == 0) {
+            throw new IllegalArgumentException("At least one pattern is required");
+        }
+        if (patterns.length > MAX_PATTERNS) {
+            throw new IllegalArgumentException("Too many patterns: " + patterns.length);
+        }
+        patternCount = patterns.length;
+
+        // Collapse the byte alphabet to the characters that actually occur in patterns;
+        // every other byte shares class 0 and always falls back towards the root
+        byte[][] encoded = new byte[patterns.length][];
+        int classes = 1;
+        for (int i = 0; i < patterns.length; i++) {
+            String pattern = patterns[i];
+            if (pattern == null || pattern.isEmpty()) {
+                throw new IllegalArgumentException("Patterns cannot be empty");
+            }
+            // Checked before encoding, which would quietly turn anything else into '?'
+            for (int j = 0; j < pattern.length(); j++) {
+                if (pattern.charAt(j) >= 0x80) {
+                    throw new IllegalArgumentException("Only ASCII patterns are supported: " + pattern);
+                }
+            }
+            encoded[i] = pattern.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII);
+            for (byte b : encoded[i]) {
+                int c = b & 0xFF;
+                if (byteClass[c] == 0) {
+                    byteClass[c] = classes;
+                    if (c >= 'a' && c <= 'z') {
+                        byteClass[c - 'a' + 'A'] = classes;
+                    }
+                    classes++;
+                }
+            }
+        }
+        alphabetSize = classes;
+
+        // Build the trie
+        List<int[]> gotoRows = new ArrayList<>();
+        List<Long> outputList = new ArrayList<>();
+        gotoRows.add(newRow());
+        outputList.add(0L);
+
+        for (int i = 0; i < encoded.length; i++) {
+            int state = 0;
+            for (byte b : encoded[i]) {
+                int cls = byteClass[b & 0xFF];
+                int next = gotoRows.get(state)[cls];
+                if (next < 0) {
+                    next = gotoRows.size();
+                    gotoRows.get(state)[cls] = next;
+                    gotoRows.add(newRow());
+                    outputList.add(0L);
+                }
+                state = next;
+            }
+            outputList.set(state, outputList.get(state) | (1L << i));
+        }
+
+        // Resolve failure links breadth-first into a complete transition table
+        int stateCount = gotoRows.size();
+        int[] fail = new int[stateCount];
+        transitions = new int[stateCount * alphabetSize];
+        outputs = new long[stateCount];
+        for (int s = 0; s < stateCount; s++) {
+            outputs[s] = outputList.get(s);
+        }
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int[] root = gotoRows.get(0);
+        for (int cls = 0; cls < alphabetSize; cls++) {
+            int child = root[cls];
+            if (child < 0) {
+                transitions[cls] = 0;
+            } else {
+                transitions[cls] = child;
+                fail[child] = 0;
+                queue.add(child);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int[] row = gotoRows.get(state);
+            int base = state * alphabetSize;
+            int failBase = fail[state] * alphabetSize;
+            for (int cls = 0; cls < alphabetSize; cls++) {
+                int child = row[cls];
+                if (child < 0) {
+                    transitions[base + cls] = transitions[failBase + cls];
+                } else {
+                    transitions[base + cls] = child;
+                    fail[child] = transitions[failBase + cls];
+                    outputs[child] |= outputs[fail[child]];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    public int startState() {
+        return 0;
+    }
+
+    public int next(int state, byte b) {
+        return transitions[state * alphabetSize + byteClass[b & 0xFF]];
+    }
+
+    /** Bit {@code i} is set when pattern {@code i} ends at this state. */
+    public long matches(int state) {
+        return outputs[state];
+    }
+
+    public int patternCount() {
+        return patternCount;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+}
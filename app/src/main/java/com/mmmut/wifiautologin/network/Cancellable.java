@@ -0,0 +1,8 @@
+package com.mmmut.wifiautologin.network;
+
+/** Handle to an asynchronous portal operation; cancelling aborts its in-flight HTTP call. */
+public interface Cancellable {
+
+    /** Idempotent. The operation's callback is not invoked after this returns. */
+    void cancel();
+}
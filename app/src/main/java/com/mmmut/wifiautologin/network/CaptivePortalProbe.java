@@ -0,0 +1,141 @@
+package com.mmmut.wifiautologin.network;
+
+import android.util.Log;
+import com.mmmut.wifiautologin.WiFiAutoLoginApplication;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * One small request that tells whether the current network already has internet access.
+ * A captive portal intercepts the well-known "generate_204" URL and answers with a redirect
+ * or its own page, so anything but an empty 204 means we still need to log in.
+ */
+public class CaptivePortalProbe {
+
+    private static final String TAG = "CaptivePortalProbe";
+    public static final String DEFAULT_PROBE_URL = "http://connectivitycheck.gstatic.com/generate_204";
+    private static final int PROBE_TIMEOUT_SECONDS = 3;
+
+    public enum State {
+        /** The probe reached the internet untouched; the portal session is live. */
+        AUTHENTICATED,
+        /** The probe was intercepted by a portal. */
+        CAPTIVE,
+        /** The probe failed outright. Portals that block DNS before login also end up here. */
+        OFFLINE
+    }
+
+    private final OkHttpClient client;
+    private final String probeUrl;
+    private volatile String portalUrl;
+
+    public CaptivePortalProbe() {
+        this(WiFiAutoLoginApplication.getHttpClient(), DEFAULT_PROBE_URL);
+    }
+
+    public CaptivePortalProbe(OkHttpClient baseClient, String probeUrl) {
+        if (baseClient == null || probeUrl == null) {
+            throw new IllegalArgumentException("Client and probe URL cannot be null");
+        }
+        // Redirects are the signal we are looking for, so never follow them
+        this.client = baseClient.newBuilder()
+            .followRedirects(false)
+            .followSslRedirects(false)
+            .connectTimeout(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .callTimeout(PROBE_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS)
+            .build();
+        this.probeUrl = probeUrl;
+    }
+
+    /** Receives the probe's verdict on an OkHttp dispatcher thread. */
+    public interface ProbeCallback {
+        void onState(State state);
+    }
+
+    public State probe() {
+        try (Response response = client.newCall(request()).execute()) {
+            return stateOf(response);
+        } catch (IOException e) {
+            Log.d(TAG, "Probe failed: " + e.getMessage());
+            portalUrl = null;
+            return State.OFFLINE;
+        }
+    }
+
+    /** Like {@link #probe()}, without holding a thread while the request is out. */
+    public Cancellable probeAsync(final ProbeCallback callback) {
+        final Call call = client.newCall(request());
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (!call.isCanceled()) {
+                    Log.d(TAG, "Probe failed: " + e.getMessage());
+                    portalUrl = null;
+                    callback.onState(State.OFFLINE);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                State state;
+                try (Response closing = response) {
+                    // Cancelled after the response arrived: the caller has moved on, and the
+                    // portal URL must not change under whoever probes next
+                    if (call.isCanceled()) {
+                        return;
+                    }
+                    state = stateOf(closing);
+                }
+                callback.onState(state);
+            }
+        });
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
+        };
+    }
+
+    private Request request() {
+        return new Request.Builder()
+            .url(probeUrl)
+            .header("Cache-Control", "no-cache")
+            .get()
+            .build();
+    }
+
+    /**
+     * Where the last intercepted probe was sent: the redirect target, or the probe URL itself
+     * when the portal answered in place. Null unless the last probe returned CAPTIVE.
+     */
+    public String getPortalUrl() {
+        return portalUrl;
+    }
+
+    private State stateOf(Response response) {
+        long contentLength = response.body() != null ? response.body().contentLength() : 0;
+        if (response.code() == 204 || (response.code() == 200 && contentLength == 0)) {
+            Log.d(TAG, "Probe passed, network is authenticated");
+            portalUrl = null;
+            return State.AUTHENTICATED;
+        }
+
+        HttpUrl portal = response.request().url();
+        String location = response.isRedirect() ? response.header("Location") : null;
+        if (location != null) {
+            HttpUrl redirect = portal.resolve(location);
+            portal = redirect != null ? redirect : portal;
+        }
+        portalUrl = portal.toString();
+        Log.d(TAG, "Probe intercepted with status " + response.code() + ", portal at " + portalUrl);
+        return State.CAPTIVE;
+    }
+}
@@ -0,0 +1,161 @@
+package com.mmmut.wifiautologin.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers how fast each portal endpoint answered, as an exponentially weighted moving
+ * average, so the next login race starts with the gateway that has been quickest lately.
+ *
+ * <p>The averages are persisted in SharedPreferences and read back the first time the
+ * tracker is used, so a new process races the endpoints in the order the last one learned.
+ * Recording only touches memory; {@link #flush()} saves what changed once a login is over.
+ */
+public final class EndpointLatencyTracker {
+
+    private static final String TAG = "EndpointLatencyTracker";
+    private static final String PREF_NAME = "wifi_auto_login_prefs_endpoints";
+    private static final double SMOOTHING = 0.3;
+    private static final long FAILURE_PENALTY_MILLIS = 30_000;
+
+    private static volatile EndpointLatencyTracker instance;
+
+    private final SharedPreferences prefs;
+    private final ConcurrentHashMap<String, Double> averages = new ConcurrentHashMap<>();
+    private final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean loaded;
+
+    /** Keeps the averages in memory only. */
+    public EndpointLatencyTracker() {
+        this(null);
+    }
+
+    /** @param prefs backing store, or null to keep the averages in memory only */
+    public EndpointLatencyTracker(SharedPreferences prefs) {
+        this.prefs = prefs;
+        this.loaded = prefs == null;
+    }
+
+    /**
+     * The persisted tracker. Getting it at process start only opens the store, whose file
+     * the platform then reads in the background; the averages are parsed on first use.
+     */
+    public static EndpointLatencyTracker getInstance(Context context) {
+        EndpointLatencyTracker result = instance;
+        if (result == null) {
+            synchronized (EndpointLatencyTracker.class) {
+                result = instance;
+                if (result == null) {
+                    result = new EndpointLatencyTracker(context.getApplicationContext()
+                        .getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE));
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public void record(String endpoint, long latencyMillis) {
+        if (endpoint == null || latencyMillis < 0) {
+            return;
+        }
+        load();
+        synchronized (this) {
+            Double previous = averages.get(endpoint);
+            averages.put(endpoint, previous == null
+                ? (double) latencyMillis
+                : previous + SMOOTHING * (latencyMillis - previous));
+        }
+        dirty.add(endpoint);
+    }
+
+    public void recordFailure(String endpoint) {
+        record(endpoint, FAILURE_PENALTY_MILLIS);
+    }
+
+    /** Returns -1 when the endpoint has never been measured. */
+    public long averageMillis(String endpoint) {
+        load();
+        Double average = endpoint != null ? averages.get(endpoint) : null;
+        return average != null ? Math.round(average) : -1;
+    }
+
+    /**
+     * Measured endpoints first, fastest to slowest, then the unmeasured ones in their
+     * configured order.
+     */
+    public List<String> order(List<String> endpoints) {
+        // Snapshot first so concurrent updates cannot make the comparator inconsistent
+        final Map<String, Long> snapshot = new HashMap<>();
+        for (String endpoint : endpoints) {
+            snapshot.put(endpoint, averageMillis(endpoint));
+        }
+
+        List<String> ordered = new ArrayList<>(endpoints);
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long latencyA = snapshot.get(a);
+                long latencyB = snapshot.get(b);
+                if (latencyA < 0 || latencyB < 0) {
+                    return latencyA < 0 ? (latencyB < 0 ? 0 : 1) : -1;
+                }
+                return Long.compare(latencyA, latencyB);
+            }
+        });
+        return ordered;
+    }
+
+    /** Saves the averages recorded into since the last flush, in one write. */
+    public void flush() {
+        if (prefs == null || dirty.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit();
+        for (Iterator<String> endpoints = dirty.iterator(); endpoints.hasNext(); ) {
+            String endpoint = endpoints.next();
+            endpoints.remove();
+            Double average = averages.get(endpoint);
+            if (average != null) {
+                editor.putFloat(endpoint, average.floatValue());
+            }
+        }
+        try {
+            editor.apply();
+        } catch (Exception e) {
+            Log.w(TAG, "Error persisting endpoint latencies", e);
+        }
+    }
+
+    /** Reads the persisted averages the first time it is called. */
+    void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            try {
+                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                    if (entry.getValue() instanceof Float) {
+                        averages.put(entry.getKey(), ((Float) entry.getValue()).doubleValue());
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Error reading endpoint latencies", e);
+            }
+            loaded = true;
+        }
+    }
+}
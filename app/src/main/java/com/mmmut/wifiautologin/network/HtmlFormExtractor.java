@@ -0,0 +1,347 @@
+package com.mmmut.wifiautologin.network;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Single-pass extractor for the login form of a portal page.
+ *
+ * <p>The page is walked tag by tag straight off a {@link BufferedSource}; text is skipped with
+ * {@code indexOf}, and only the attributes of {@code <form>} and {@code <input>} tags are ever
+ * decoded, so no DOM or string copy of the page is built. Comments and the bodies of
+ * {@code <script>}, {@code <style>} and {@code <textarea>} are skipped. Extraction stops at the
+ * end of the first form that has a password field, so trailing markup is never tokenized.
+ */
+final class HtmlFormExtractor {
+
+    // Attribute runs longer than this are truncated; real form tags are a few hundred bytes
+    private static final int MAX_TAG_BYTES = 8 * 1024;
+
+    private static final ByteString COMMENT_OPEN = ByteString.encodeUtf8("!--");
+    private static final ByteString COMMENT_CLOSE = ByteString.encodeUtf8("-->");
+
+    private HtmlFormExtractor() {
+    }
+
+    /** The login form's fields; {@link #action} is null when the form does not declare one. */
+    static final class FormModel {
+        final String action;
+        /** Lower-case "get" or "post". */
+        final String method;
+        String usernameField;
+        String passwordField;
+        final Map<String, String> hiddenFields = new LinkedHashMap<>();
+
+        FormModel(String action, String method) {
+            this.action = action != null && !action.trim().isEmpty() ? action.trim() : null;
+            this.method = "get".equalsIgnoreCase(method != null ? method.trim() : null) ? "get" : "post";
+        }
+
+        private void addInput(Map<String, String> attributes) {
+            String name = attributes.get("name");
+            if (name == null || name.isEmpty()) {
+                return;
+            }
+            String type = attributes.get("type");
+            type = type != null ? type.trim().toLowerCase(Locale.ROOT) : "text";
+
+            switch (type) {
+                case "password":
+                    if (passwordField == null) passwordField = name;
+                    break;
+                case "hidden":
+                    String value = attributes.get("value");
+                    hiddenFields.put(name, value != null ? value : "");
+                    break;
+                case "text":
+                case "email":
+                case "tel":
+                case "number":
+                    if (usernameField == null) usernameField = name;
+                    break;
+                default:
+                    // Buttons, checkboxes and the like are not part of the login POST
+                    break;
+            }
+        }
+
+        private boolean hasFields() {
+            return usernameField != null || passwordField != null || !hiddenFields.isEmpty();
+        }
+    }
+
+    /**
+     * Returns the form holding the first password field. Without one, the first form with
+     * any usable input wins, and inputs outside any form (script-driven pages) are the last
+     * resort. Never returns null.
+     */
+    static FormModel extract(BufferedSource source) throws IOException {
+        FormModel loose = new FormModel(null, null);
+        FormModel current = null;
+        FormModel firstForm = null;
+
+        while (skipPast(source, (byte) '<') && !source.exhausted()) {
+            byte first = source.getBuffer().getByte(0);
+            if (first == '!') {
+                // Comment, doctype or CDATA
+                if (source.rangeEquals(0, COMMENT_OPEN)) {
+                    source.skip(COMMENT_OPEN.size());
+                    skipPast(source, COMMENT_CLOSE);
+                } else {
+                    readTag(source, false);
+                }
+                continue;
+            }
+
+            boolean closing = first == '/';
+            if (closing) {
+                source.skip(1);
+            }
+            String name = readTagName(source);
+            if (name.isEmpty()) {
+                // A bare '<' in text
+                continue;
+            }
+
+            if (closing) {
+                readTag(source, false);
+                if ("form".equals(name) && current != null) {
+                    if (current.passwordField != null) {
+                        return current;
+                    }
+                    if (firstForm == null && current.hasFields()) {
+                        firstForm = current;
+                    }
+                    current = null;
+                }
+                continue;
+            }
+
+            switch (name) {
+                case "form": {
+                    Map<String, String> attributes = parseAttributes(readTag(source, true));
+                    // Nested forms are invalid HTML and browsers ignore the inner tag
+                    if (current == null) {
+                        current = new FormModel(attributes.get("action"), attributes.get("method"));
+                    }
+                    break;
+                }
+                case "input": {
+                    Map<String, String> attributes = parseAttributes(readTag(source, true));
+                    (current != null ? current : loose).addInput(attributes);
+                    break;
+                }
+                case "script":
+                case "style":
+                case "textarea":
+                    readTag(source, false);
+                    skipRawText(source, name);
+                    break;
+                default:
+                    readTag(source, false);
+                    break;
+            }
+        }
+
+        if (current != null && current.passwordField != null) {
+            return current;
+        }
+        if (loose.passwordField != null) {
+            return loose;
+        }
+        if (firstForm != null) {
+            return firstForm;
+        }
+        return current != null && current.hasFields() ? current : loose;
+    }
+
+    /** Consumes up to and including {@code b}; false when the source ran out first. */
+    private static boolean skipPast(BufferedSource source, byte b) throws IOException {
+        long index = source.indexOf(b);
+        if (index < 0) {
+            source.skip(source.getBuffer().size());
+            return false;
+        }
+        source.skip(index + 1);
+        return true;
+    }
+
+    private static void skipPast(BufferedSource source, ByteString bytes) throws IOException {
+        long index = source.indexOf(bytes);
+        source.skip(index < 0 ? source.getBuffer().size() : index + bytes.size());
+    }
+
+    /** Skips a script-like body up to its (case-insensitive) end tag. */
+    private static void skipRawText(BufferedSource source, String name) throws IOException {
+        while (skipPast(source, (byte) '<')) {
+            if (source.request(1) && source.getBuffer().getByte(0) == '/') {
+                source.skip(1);
+                // Checked in place: scripts are full of end tags in strings, none worth a String
+                if (atTagName(source, name)) {
+                    source.skip(name.length());
+                    readTag(source, false);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** True when the source starts with the lower-case tag {@code name} in any case; consumes nothing. */
+    private static boolean atTagName(BufferedSource source, String name) throws IOException {
+        if (!source.request(name.length())) {
+            return false;
+        }
+        Buffer buffer = source.getBuffer();
+        for (int i = 0; i < name.length(); i++) {
+            if ((buffer.getByte(i) | 0x20) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return !source.request(name.length() + 1) || !isNameByte(buffer.getByte(name.length()) & 0xFF);
+    }
+
+    /** Reads an ASCII tag name, lower-cased, leaving the byte after it in the source. */
+    private static String readTagName(BufferedSource source) throws IOException {
+        StringBuilder name = new StringBuilder();
+        while (source.request(1)) {
+            int c = source.getBuffer().getByte(0) & 0xFF;
+            if (isNameByte(c)) {
+                name.append((char) (c >= 'A' && c <= 'Z' ? c | 0x20 : c));
+                source.skip(1);
+            } else {
+                break;
+            }
+        }
+        return name.toString();
+    }
+
+    private static boolean isNameByte(int c) {
+        int lower = c | 0x20;
+        return (lower >= 'a' && lower <= 'z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Consumes the rest of a tag through its closing '>', honouring quoted attribute values.
+     * Returns the raw attribute text when {@code keep} is set, otherwise null.
+     */
+    private static String readTag(BufferedSource source, boolean keep) throws IOException {
+        Buffer attributes = keep ? new Buffer() : null;
+        byte quote = 0;
+        while (!source.exhausted()) {
+            byte b = source.readByte();
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                break;
+            }
+            if (attributes != null && attributes.size() < MAX_TAG_BYTES) {
+                attributes.writeByte(b);
+            }
+        }
+        return attributes != null ? attributes.readUtf8() : null;
+    }
+
+    /** Parses {@code name="value"}, {@code name=value} and bare names; the first occurrence wins. */
+    static Map<String, String> parseAttributes(String tag) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        int i = 0;
+        int length = tag.length();
+        while (i < length) {
+            while (i < length && (isSpace(tag.charAt(i)) || tag.charAt(i) == '/')) i++;
+            int start = i;
+            while (i < length && !isSpace(tag.charAt(i)) && tag.charAt(i) != '=' && tag.charAt(i) != '/') i++;
+            if (i == start) {
+                // A stray '='
+                i++;
+                continue;
+            }
+            String name = tag.substring(start, i).toLowerCase(Locale.ROOT);
+
+            while (i < length && isSpace(tag.charAt(i))) i++;
+            String value = "";
+            if (i < length && tag.charAt(i) == '=') {
+                i++;
+                while (i < length && isSpace(tag.charAt(i))) i++;
+                if (i < length && (tag.charAt(i) == '"' || tag.charAt(i) == '\'')) {
+                    int end = tag.indexOf(tag.charAt(i), i + 1);
+                    if (end < 0) end = length;
+                    value = tag.substring(i + 1, end);
+                    i = end + 1;
+                } else {
+                    start = i;
+                    while (i < length && !isSpace(tag.charAt(i))) i++;
+                    value = tag.substring(start, i);
+                }
+            }
+            if (!attributes.containsKey(name)) {
+                attributes.put(name, decodeEntities(value));
+            }
+        }
+        return attributes;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /** Decodes the character references that show up in attribute values; others are kept as-is. */
+    static String decodeEntities(String value) {
+        int amp = value.indexOf('&');
+        if (amp < 0) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        decoded.append(value, 0, amp);
+        int i = amp;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            int semicolon = c == '&' ? value.indexOf(';', i) : -1;
+            if (semicolon < 0 || semicolon - i > 10) {
+                decoded.append(c);
+                i++;
+                continue;
+            }
+            String entity = value.substring(i + 1, semicolon);
+            int codePoint = codePointOf(entity);
+            if (codePoint < 0) {
+                decoded.append(c);
+                i++;
+            } else {
+                decoded.appendCodePoint(codePoint);
+                i = semicolon + 1;
+            }
+        }
+        return decoded.toString();
+    }
+
+    private static int codePointOf(String entity) {
+        switch (entity) {
+            case "amp": return '&';
+            case "lt": return '<';
+            case "gt": return '>';
+            case "quot": return '"';
+            case "apos": return '\'';
+            case "nbsp": return 0xA0;
+            default:
+                break;
+        }
+        if (entity.length() < 2 || entity.charAt(0) != '#') {
+            return -1;
+        }
+        try {
+            int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                ? Integer.parseInt(entity.substring(2), 16)
+                : Integer.parseInt(entity.substring(1));
+            return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
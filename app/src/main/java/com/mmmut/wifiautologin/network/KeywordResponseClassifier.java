@@ -0,0 +1,132 @@
+package com.mmmut.wifiautologin.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import okio.BufferedSource;
+
+/**
+ * Streaming classifier that runs every keyword through one {@link AhoCorasickMatcher} pass.
+ *
+ * <p>Success keywords win over failure keywords, so the first success match ends the scan.
+ * Plain failure keywords only record a tentative verdict because a later success keyword
+ * still overrides them; terminal failure keywords (such as an explicit portal status) rule
+ * out success for the rest of the reply.
+ *
+ * <p>Credential failure keywords mark a refusal of the credentials themselves, which turns
+ * any failure into {@link Verdict#REJECTED}. A terminal failure therefore only ends the scan
+ * once it is known whether the reply names the credentials, e.g. a status element followed
+ * by its message.
+ */
+public final class KeywordResponseClassifier implements LoginResponseClassifier {
+
+    private static final int KIND_SUCCESS = 0;
+    private static final int KIND_FAILURE = 1;
+    private static final int KIND_TERMINAL_FAILURE = 2;
+    private static final int KIND_CREDENTIAL_FAILURE = 3;
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final long MAX_SCAN_BYTES = 512 * 1024;
+
+    private static final ThreadLocal<byte[]> CHUNK = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    private final AhoCorasickMatcher matcher;
+    private final long successMask;
+    private final long terminalFailureMask;
+    private final long credentialFailureMask;
+
+    private KeywordResponseClassifier(Builder builder) {
+        String[] patterns = builder.patterns.toArray(new String[0]);
+        matcher = new AhoCorasickMatcher(patterns);
+
+        long success = 0L;
+        long terminal = 0L;
+        long credential = 0L;
+        for (int i = 0; i < builder.kinds.size(); i++) {
+            int kind = builder.kinds.get(i);
+            if (kind == KIND_SUCCESS) success |= 1L << i;
+            if (kind == KIND_TERMINAL_FAILURE) terminal |= 1L << i;
+            if (kind == KIND_CREDENTIAL_FAILURE) credential |= 1L << i;
+        }
+        successMask = success;
+        terminalFailureMask = terminal;
+        credentialFailureMask = credential;
+    }
+
+    @Override
+    public Verdict classify(BufferedSource source) throws IOException {
+        if (source == null) {
+            return Verdict.UNKNOWN;
+        }
+
+        byte[] chunk = CHUNK.get();
+        int state = matcher.startState();
+        boolean sawFailure = false;
+        boolean sawTerminal = false;
+        boolean sawCredential = false;
+        long scanned = 0;
+
+        int read;
+        while (scanned < MAX_SCAN_BYTES && (read = source.read(chunk, 0, chunk.length)) != -1) {
+            for (int i = 0; i < read; i++) {
+                state = matcher.next(state, chunk[i]);
+                long hits = matcher.matches(state);
+                if (hits == 0L) {
+                    continue;
+                }
+                if (!sawTerminal && (hits & successMask) != 0L) {
+                    return Verdict.SUCCESS;
+                }
+                sawFailure = true;
+                sawTerminal |= (hits & terminalFailureMask) != 0L;
+                sawCredential |= (hits & credentialFailureMask) != 0L;
+                if (sawTerminal && (sawCredential || credentialFailureMask == 0L)) {
+                    return sawCredential ? Verdict.REJECTED : Verdict.FAILURE;
+                }
+            }
+            scanned += read;
+        }
+
+        if (!sawFailure) {
+            return Verdict.UNKNOWN;
+        }
+        return sawCredential ? Verdict.REJECTED : Verdict.FAILURE;
+    }
+
+    public static final class Builder {
+        private final List<String> patterns = new ArrayList<>();
+        private final List<Integer> kinds = new ArrayList<>();
+
+        public Builder success(String pattern) {
+            return add(pattern, KIND_SUCCESS);
+        }
+
+        public Builder failure(String pattern) {
+            return add(pattern, KIND_FAILURE);
+        }
+
+        public Builder terminalFailure(String pattern) {
+            return add(pattern, KIND_TERMINAL_FAILURE);
+        }
+
+        /** A failure keyword that means the credentials were refused, e.g. "invalid". */
+        public Builder credentialFailure(String pattern) {
+            return add(pattern, KIND_CREDENTIAL_FAILURE);
+        }
+
+        public KeywordResponseClassifier build() {
+            return new KeywordResponseClassifier(this);
+        }
+
+        private Builder add(String pattern, int kind) {
+            patterns.add(pattern);
+            kinds.add(kind);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.mmmut.wifiautologin.network;
+
+/**
+ * Small fixed-bucket latency histogram that serializes to a short comma-separated string.
+ * Counts are halved once the total grows large, so old observations fade out and the
+ * percentiles follow the gateway's current behaviour.
+ */
+public final class LatencyHistogram {
+
+    /** Upper bound of each bucket in milliseconds; the last bucket is open-ended. */
+    private static final long[] BOUNDS_MILLIS = {
+        10, 20, 35, 50, 75, 100, 150, 200, 300, 500, 750, 1_000, 1_500, 2_000, 3_000,
+        5_000, 7_500, 10_000, 15_000, 20_000, 30_000, Long.MAX_VALUE
+    };
+    private static final int DECAY_THRESHOLD = 512;
+
+    private final int[] counts = new int[BOUNDS_MILLIS.length];
+    private int total;
+
+    public synchronized void record(long millis) {
+        if (millis < 0) {
+            return;
+        }
+        int index = 0;
+        while (millis > BOUNDS_MILLIS[index]) {
+            index++;
+        }
+        counts[index]++;
+        total++;
+
+        if (total >= DECAY_THRESHOLD) {
+            total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] /= 2;
+                total += counts[i];
+            }
+        }
+    }
+
+    public synchronized int count() {
+        return total;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), or -1 when empty.
+     * Samples beyond the last finite bound report that bound.
+     */
+    public synchronized long percentile(double percentile) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return i == counts.length - 1 ? BOUNDS_MILLIS[i - 1] : BOUNDS_MILLIS[i];
+            }
+        }
+        return BOUNDS_MILLIS[BOUNDS_MILLIS.length - 2];
+    }
+
+    public synchronized String serialize() {
+        StringBuilder builder = new StringBuilder(counts.length * 3);
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(counts[i]);
+        }
+        return builder.toString();
+    }
+
+    public static LatencyHistogram deserialize(String value) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (value == null || value.isEmpty()) {
+            return histogram;
+        }
+        String[] parts = value.split(",");
+        if (parts.length != BOUNDS_MILLIS.length) {
+            return histogram;
+        }
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                int count = Math.max(0, Integer.parseInt(parts[i].trim()));
+                histogram.counts[i] = count;
+                histogram.total += count;
+            }
+        } catch (NumberFormatException e) {
+            return new LatencyHistogram();
+        }
+        return histogram;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "n=" + total + " p50=" + percentile(50) + "ms p95=" + percentile(95)
+            + "ms p99=" + percentile(99) + "ms";
+    }
+}
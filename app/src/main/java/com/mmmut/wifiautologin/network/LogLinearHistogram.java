@@ -0,0 +1,127 @@
+package com.mmmut.wifiautologin.network;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets: every power of two is split
+ * into {@link #SUB_BUCKETS} linear sub-buckets, so any recorded value is reported within
+ * 12.5% of its true size across the whole range, from single milliseconds up to an hour.
+ *
+ * <p>Recording is one array index computation and one atomic increment, so OkHttp's event
+ * callbacks can record from any thread without contending on a lock. Unlike
+ * {@link LatencyHistogram} nothing decays; this one is for diagnostics, not for tuning.
+ */
+public final class LogLinearHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Larger values are clamped; about 70 minutes when recording milliseconds. */
+    static final long MAX_VALUE = (1L << 22) - 1;
+    public static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long value) {
+        if (value < 0) {
+            return;
+        }
+        counts.incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+    }
+
+    /** Adds previously persisted counts, e.g. from {@link #snapshot()} of an earlier process. */
+    public void add(long[] bucketCounts) {
+        if (bucketCounts == null || bucketCounts.length != BUCKETS) {
+            throw new IllegalArgumentException("Expected " + BUCKETS + " buckets");
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketCounts[i] > 0) {
+                counts.addAndGet(i, bucketCounts[i]);
+            }
+        }
+    }
+
+    /** Copies the current counts; concurrent records may or may not be included. */
+    public long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    /** Summary of one consistent snapshot. */
+    public Summary summarize() {
+        return new Summary(snapshot());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Values in [2^e, 2^(e+1)) share one exponent and split it into SUB_BUCKETS ranges
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Largest value that lands in the same bucket as {@code index}. */
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public static final class Summary {
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        Summary(long[] counts) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.count = total;
+            this.p50 = percentile(counts, total, 50);
+            this.p95 = percentile(counts, total, 95);
+            this.p99 = percentile(counts, total, 99);
+            this.max = percentile(counts, total, 100);
+        }
+
+        /** Highest equivalent value of the bucket holding the percentile, or -1 when empty. */
+        private static long percentile(long[] counts, long total, double percentile) {
+            if (total == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestEquivalentValue(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) {
+                return "n=0";
+            }
+            return "n=" + count + " p50=" + p50 + "ms p95=" + p95 + "ms p99=" + p99
+                + "ms max=" + max + "ms";
+        }
+    }
+}
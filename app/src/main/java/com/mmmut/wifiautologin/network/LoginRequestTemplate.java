@@ -0,0 +1,288 @@
+package com.mmmut.wifiautologin.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import okhttp3.FormBody;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * A login POST compiled once per login page: the URL, the header block and the URL-encoded
+ * form body are built up front, with the body kept as encoded byte chunks around the slots
+ * where the username, the password and {@link PortalAdapter#TIMESTAMP} go. Sending a login
+ * then only writes the chunks, the encoded credentials and the current time's digits into
+ * the socket.
+ *
+ * <p>Templates are cached per login page and rebuilt when the portal adapter or the page's
+ * descriptor differ from the ones they were compiled for. The credentials are never part of
+ * a template: they are encoded into the one request they are sent with, so nothing cached
+ * here outlives the credential store's decrypted copy. GET forms are not compiled.
+ */
+public final class LoginRequestTemplate {
+
+    private static final MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
+
+    private static final byte[] HEX = {
+        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    private static final byte SLOT_USERNAME = 0;
+    private static final byte SLOT_PASSWORD = 1;
+    private static final byte SLOT_TIMESTAMP = 2;
+
+    // Login page key (URL without its per-session query) -> template
+    private static final Map<String, LoginRequestTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final PortalAdapter adapter;
+    private final PortalDescriptor descriptor;
+
+    private final HttpUrl url;
+    private final Headers headers;
+    /** The body is chunks[0], slots[0], chunks[1], ..., slots[n - 1], chunks[n]. */
+    private final ByteString[] chunks;
+    private final byte[] slots;
+    private final long staticLength;
+
+    private LoginRequestTemplate(PortalAdapter adapter, PortalDescriptor descriptor, HttpUrl url,
+                                 ByteString[] chunks, byte[] slots) {
+        this.adapter = adapter;
+        this.descriptor = descriptor;
+        this.url = url;
+        this.headers = new Headers.Builder()
+            .add("User-Agent", adapter.userAgent)
+            .add("Referer", descriptor.pageUrl)
+            .add("Content-Type", FORM.toString())
+            .build();
+        this.chunks = chunks;
+        this.slots = slots;
+
+        long length = 0;
+        for (ByteString chunk : chunks) {
+            length += chunk.size();
+        }
+        this.staticLength = length;
+    }
+
+    /**
+     * Returns the cached template for this login page, compiling it if there is none or it
+     * was made for something else. Null when the form cannot be compiled, e.g. a GET form.
+     */
+    static LoginRequestTemplate forLogin(PortalAdapter adapter, PortalDescriptor descriptor) {
+        String key = descriptor.pageKey;
+        LoginRequestTemplate template = CACHE.get(key);
+        if (template != null && template.matches(adapter, descriptor)) {
+            return template;
+        }
+        template = compile(adapter, descriptor);
+        if (template != null) {
+            CACHE.put(key, template);
+        } else {
+            CACHE.remove(key);
+        }
+        return template;
+    }
+
+    /**
+     * A request ready to send with these credentials, stamped with the current time where
+     * the form wants it.
+     */
+    Request newRequest(String username, String password) {
+        return new Request.Builder()
+            .url(url)
+            .headers(headers)
+            .post(new FilledBody(username, password, System.currentTimeMillis()))
+            .build();
+    }
+
+    private boolean matches(PortalAdapter adapter, PortalDescriptor descriptor) {
+        // Descriptors are immutable and shared from the cache, so a changed page is a new instance
+        return this.adapter == adapter && this.descriptor == descriptor;
+    }
+
+    private static LoginRequestTemplate compile(PortalAdapter adapter, PortalDescriptor descriptor) {
+        if ("get".equals(descriptor.method)) {
+            return null;
+        }
+        HttpUrl url = HttpUrl.parse(descriptor.actionUrl);
+        if (url == null) {
+            return null;
+        }
+
+        List<ByteString> chunks = new ArrayList<>();
+        ByteArrayOutputStream slots = new ByteArrayOutputStream();
+        StringBuilder chunk = new StringBuilder();
+        boolean first = true;
+        for (PortalAdapter.FormField field : adapter.loginFields(descriptor)) {
+            if (!first) {
+                chunk.append('&');
+            }
+            first = false;
+            chunk.append(encode(field.name)).append('=');
+            if (!field.template) {
+                chunk.append(encode(field.value));
+                continue;
+            }
+
+            // Literal parts are encoded now; each placeholder ends a chunk and leaves a slot
+            String value = field.value;
+            int literal = 0;
+            int i = 0;
+            while ((i = value.indexOf('{', i)) >= 0) {
+                int slot = slotAt(value, i);
+                if (slot < 0) {
+                    i++;
+                    continue;
+                }
+                chunk.append(encode(value.substring(literal, i)));
+                chunks.add(ByteString.encodeUtf8(chunk.toString()));
+                chunk.setLength(0);
+                slots.write(slot);
+                i += placeholder(slot).length();
+                literal = i;
+            }
+            chunk.append(encode(value.substring(literal)));
+        }
+        chunks.add(ByteString.encodeUtf8(chunk.toString()));
+
+        return new LoginRequestTemplate(adapter, descriptor, url, chunks.toArray(new ByteString[0]),
+            slots.toByteArray());
+    }
+
+    private static int slotAt(String value, int index) {
+        for (byte slot = SLOT_USERNAME; slot <= SLOT_TIMESTAMP; slot++) {
+            if (value.startsWith(placeholder(slot), index)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static String placeholder(int slot) {
+        switch (slot) {
+            case SLOT_USERNAME:
+                return PortalAdapter.USERNAME;
+            case SLOT_PASSWORD:
+                return PortalAdapter.PASSWORD;
+            default:
+                return PortalAdapter.TIMESTAMP;
+        }
+    }
+
+    /** Form-encodes exactly as {@link FormBody} does, so compiled bodies match built ones. */
+    private static String encode(String text) {
+        return text.isEmpty() ? text : new FormBody.Builder().add(text, "").build().encodedName(0);
+    }
+
+    /**
+     * Form-encodes a credential straight into bytes, the way {@link FormBody} does: letters,
+     * digits and {@code *-._} as they are, every other UTF-8 byte as {@code %XX}. Built per
+     * request, so it skips the builder {@link #encode(String)} goes through.
+     */
+    private static ByteString encodeCredential(String text) {
+        Buffer encoded = new Buffer();
+        for (int i = 0; i < text.length(); ) {
+            int c = text.codePointAt(i);
+            if (c < 0x80) {
+                if (isUnreserved(c)) {
+                    encoded.writeByte(c);
+                } else {
+                    writePercent(encoded, c);
+                }
+            } else {
+                for (byte b : new String(Character.toChars(c)).getBytes(StandardCharsets.UTF_8)) {
+                    writePercent(encoded, b & 0xff);
+                }
+            }
+            i += Character.charCount(c);
+        }
+        return encoded.readByteString();
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+            || c == '*' || c == '-' || c == '.' || c == '_';
+    }
+
+    private static void writePercent(Buffer sink, int b) {
+        sink.writeByte('%').writeByte(HEX[b >> 4]).writeByte(HEX[b & 0xf]);
+    }
+
+    private static int decimalLength(long value) {
+        int length = 1;
+        while (value >= 10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * The compiled body filled in for one request. The timestamp is fixed when the request
+     * is made so retries resend it; the credentials live only as long as the request.
+     */
+    private final class FilledBody extends RequestBody {
+        private final ByteString username;
+        private final ByteString password;
+        private final long timestamp;
+
+        FilledBody(String username, String password, long timestamp) {
+            this.username = encodeCredential(username != null ? username : "");
+            this.password = encodeCredential(password != null ? password : "");
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return FORM;
+        }
+
+        @Override
+        public long contentLength() {
+            long length = staticLength;
+            for (byte slot : slots) {
+                switch (slot) {
+                    case SLOT_USERNAME:
+                        length += username.size();
+                        break;
+                    case SLOT_PASSWORD:
+                        length += password.size();
+                        break;
+                    default:
+                        length += decimalLength(timestamp);
+                        break;
+                }
+            }
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            sink.write(chunks[0]);
+            for (int i = 0; i < slots.length; i++) {
+                switch (slots[i]) {
+                    case SLOT_USERNAME:
+                        sink.write(username);
+                        break;
+                    case SLOT_PASSWORD:
+                        sink.write(password);
+                        break;
+                    default:
+                        sink.writeDecimalLong(timestamp);
+                        break;
+                }
+                sink.write(chunks[i + 1]);
+            }
+        }
+    }
+}
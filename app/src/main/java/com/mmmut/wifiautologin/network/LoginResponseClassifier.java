@@ -0,0 +1,22 @@
+package com.mmmut.wifiautologin.network;
+
+import java.io.IOException;
+import okio.BufferedSource;
+
+/**
+ * Decides whether a portal's reply to the login POST means we are online. Implementations
+ * read from the response source directly and may stop as soon as the verdict is certain.
+ */
+public interface LoginResponseClassifier {
+
+    enum Verdict {
+        SUCCESS,
+        /** The portal declined the login for a reason that may pass, e.g. a login limit. */
+        FAILURE,
+        UNKNOWN,
+        /** The portal declined these credentials. */
+        REJECTED
+    }
+
+    Verdict classify(BufferedSource source) throws IOException;
+}
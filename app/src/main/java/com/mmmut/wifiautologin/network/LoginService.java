@@ -1,134 +1,808 @@
 package com.mmmut.wifiautologin.network;
 
 import android.util.Log;
+import com.mmmut.wifiautologin.WiFiAutoLoginApplication;
+import com.mmmut.wifiautologin.data.EventLog;
+import com.mmmut.wifiautologin.data.LoginMetricsStore;
+import com.mmmut.wifiautologin.data.PortalDescriptorCache;
 import okhttp3.*;
 import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.UnknownServiceException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okio.Buffer;
 
+/**
+ * Logs in to the captive portal. All HTTP goes through OkHttp's asynchronous
+ * {@link Call#enqueue}, so a login in progress holds no thread while it waits on the
+ * network; {@link #performLoginAsync} reports through a callback and can be cancelled,
+ * which cancels the calls in flight.
+ */
 public class LoginService {
 
     private static final String TAG = "LoginService";
-    private static final String LOGIN_URL = "http://172.16.1.3:8090/httpclient.html";
-    private static final int TIMEOUT_SECONDS = 30;
+    private static final long DESCRIPTOR_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long RACE_STAGGER_MILLIS = 300;
+
+    // Only fires the stagger timers; the attempts themselves run on OkHttp's dispatcher
+    private static final ScheduledExecutorService RACE_TIMER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PortalRace");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /** Receives the outcome of an asynchronous login, on an OkHttp dispatcher thread. */
+    public interface LoginCallback {
+        void onResult(LoginResult result);
+    }
 
     private final OkHttpClient client;
+    private final PortalDescriptorCache descriptorCache;
+    private final PortalAdapter adapter;
+    private final LoginResponseClassifier classifier;
+    private final List<String> endpoints;
+    private final EndpointLatencyTracker latencyTracker;
+    private final AdaptiveTimeouts adaptiveTimeouts;
+    private final LoginMetricsStore metrics;
+    private final LoginTrace trace;
+    private final EventLog eventLog;
 
     public LoginService() {
-        client = new OkHttpClient.Builder()
-            .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-            .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-            .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-            .followRedirects(true)
-            .followSslRedirects(true)
-            .build();
+        this(new Builder());
+    }
+
+    public LoginService(PortalDescriptorCache descriptorCache) {
+        this(new Builder().descriptorCache(descriptorCache));
+    }
+
+    public LoginService(OkHttpClient client, PortalDescriptorCache descriptorCache) {
+        this(new Builder().client(client).descriptorCache(descriptorCache));
+    }
+
+    private LoginService(Builder builder) {
+        this.client = builder.client != null ? builder.client : WiFiAutoLoginApplication.getHttpClient();
+        this.descriptorCache = builder.descriptorCache;
+        this.adapter = builder.adapter != null ? builder.adapter : PortalAdapters.getDefault();
+        this.classifier = builder.classifier != null ? builder.classifier : adapter.classifier();
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(
+            builder.endpoints != null ? builder.endpoints : adapter.endpoints));
+        this.latencyTracker = builder.latencyTracker != null ? builder.latencyTracker : new EndpointLatencyTracker();
+        this.adaptiveTimeouts = builder.adaptiveTimeouts != null ? builder.adaptiveTimeouts : new AdaptiveTimeouts(null);
+        this.metrics = builder.metrics;
+        this.trace = builder.trace;
+        this.eventLog = builder.eventLog;
     }
 
     public LoginResult performLogin(String rollNumber, String password) {
+        return performLogin(rollNumber, password, null);
+    }
+
+    /**
+     * Blocking form of {@link #performLoginAsync}. Interrupting the caller cancels the login.
+     *
+     * @param networkKey identifies the network (normally the SSID) so timeouts are learned
+     *                   per SSID + gateway; may be null
+     */
+    public LoginResult performLogin(String rollNumber, String password, String networkKey) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<LoginResult> outcome = new AtomicReference<>();
+        Cancellable login = performLoginAsync(rollNumber, password, networkKey, new LoginCallback() {
+            @Override
+            public void onResult(LoginResult result) {
+                outcome.set(result);
+                done.countDown();
+            }
+        });
+
+        try {
+            done.await();
+            return outcome.get();
+        } catch (InterruptedException e) {
+            login.cancel();
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Login interrupted");
+            return new LoginResult(LoginResult.Outcome.TRANSIENT, "Login interrupted");
+        }
+    }
+
+    /**
+     * Starts a login and returns at once. {@code callback} gets exactly one result unless the
+     * returned handle is cancelled first.
+     *
+     * @param networkKey identifies the network (normally the SSID) so timeouts are learned
+     *                   per SSID + gateway; may be null
+     */
+    public Cancellable performLoginAsync(String rollNumber, String password, String networkKey,
+                                         LoginCallback callback) {
         if (rollNumber == null || password == null) {
             Log.e(TAG, "Invalid credentials provided");
-            return new LoginResult(false, "Invalid credentials");
-        }
-        
-        Log.d(TAG, "Attempting login for roll number: " + rollNumber);
-        
-        Response getResponse = null;
-        Response postResponse = null;
-        
+            callback.onResult(new LoginResult(LoginResult.Outcome.PERMANENT, "Invalid credentials"));
+            return new Race(Collections.<String>emptyList(), null, null, null, callback);
+        }
+
+        if (endpoints.isEmpty()) {
+            Log.e(TAG, "No login page known for portal " + adapter.id);
+            callback.onResult(new LoginResult(LoginResult.Outcome.PERMANENT, "Login page not found"));
+            return new Race(Collections.<String>emptyList(), null, null, null, callback);
+        }
+
+        Log.d(TAG, "Attempting login for roll number: " + rollNumber + " via " + adapter.id);
+
+        Race race = new Race(latencyTracker.order(endpoints), rollNumber, password, networkKey, callback);
+        race.start();
+        return race;
+    }
+
+    /** Debug view of the observed latency distributions and the timeouts derived from them. */
+    public String getTimeoutDebugSnapshot() {
+        return adaptiveTimeouts.getDebugSnapshot();
+    }
+
+    /**
+     * Loads what a login on this network reads from disk: the endpoint latencies and, for
+     * every endpoint, the timeouts learned for its gateway and, when its descriptor is cached,
+     * the compiled login request, so the next login only fills in the credentials. Runs no
+     * network I/O.
+     *
+     * @param networkKey as passed to {@link #performLoginAsync}; may be null
+     */
+    public void prepare(String networkKey) {
+        latencyTracker.load();
+        for (String pageUrl : endpoints) {
+            adaptiveTimeouts.timeoutsFor(networkKey, gatewayOf(pageUrl));
+            PortalDescriptor cached = descriptorCache != null ? descriptorCache.get(pageUrl) : null;
+            if (cached != null) {
+                LoginRequestTemplate.forLogin(adapter, cached);
+            }
+        }
+    }
+
+    /**
+     * Refreshes cached descriptors with a conditional GET when they are missing or older
+     * than a day. Meant to run off the critical path, e.g. after a successful login.
+     */
+    public void revalidateDescriptorIfStale() {
+        if (descriptorCache == null) {
+            return;
+        }
+
+        for (final String pageUrl : endpoints) {
+            try {
+                PortalDescriptor cached = descriptorCache.get(pageUrl);
+                if (cached == null || cached.isOlderThan(DESCRIPTOR_MAX_AGE_MILLIS)) {
+                    // fetchDescriptor stores whatever it gets; nothing waits for the answer
+                    fetchDescriptor(pageUrl, cached, newAttempt(pageUrl, null), new DescriptorCallback() {
+                        @Override
+                        public void onDescriptor(PortalDescriptor descriptor) {
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            Log.w(TAG, "Background portal revalidation failed for " + pageUrl, e);
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Background portal revalidation failed for " + pageUrl, e);
+            }
+        }
+    }
+
+    /**
+     * Happy-eyeballs style race: the fastest known endpoint goes first, each further
+     * endpoint starts after a short stagger (or straight away once an earlier one has
+     * failed), and the first definitive answer wins while the rest are cancelled. With a
+     * single endpoint this is just that one attempt.
+     */
+    private final class Race implements Cancellable {
+        private final List<String> ordered;
+        private final String rollNumber;
+        private final String password;
+        private final String networkKey;
+        private final LoginCallback callback;
+
+        private final List<Attempt> attempts = new ArrayList<>();
+        private ScheduledFuture<?> stagger;
+        private LoginResult fallback;
+        private int started;
+        private int finished;
+        private boolean done;
+
+        Race(List<String> ordered, String rollNumber, String password, String networkKey,
+             LoginCallback callback) {
+            this.ordered = ordered;
+            this.rollNumber = rollNumber;
+            this.password = password;
+            this.networkKey = networkKey;
+            this.callback = callback;
+            this.done = ordered.isEmpty();
+        }
+
+        synchronized void start() {
+            if (!done) {
+                startNext();
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            if (!done) {
+                done = true;
+                cancelAll();
+            }
+        }
+
+        /** Caller holds the lock. */
+        private void startNext() {
+            String pageUrl = ordered.get(started++);
+            Attempt attempt = newAttempt(pageUrl, networkKey);
+            attempts.add(attempt);
+
+            if (stagger != null) {
+                stagger.cancel(false);
+                stagger = null;
+            }
+            if (started < ordered.size()) {
+                stagger = RACE_TIMER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStagger();
+                    }
+                }, RACE_STAGGER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            timedAttempt(pageUrl, rollNumber, password, attempt, new LoginCallback() {
+                @Override
+                public void onResult(LoginResult result) {
+                    onAttemptResult(result);
+                }
+            });
+        }
+
+        private synchronized void onStagger() {
+            if (!done && started < ordered.size()) {
+                Log.d(TAG, "No answer yet, starting backup endpoint " + ordered.get(started));
+                startNext();
+            }
+        }
+
+        private void onAttemptResult(LoginResult result) {
+            LoginResult winner;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                finished++;
+
+                if (result.isDefinitive()) {
+                    winner = result;
+                } else {
+                    if (fallback == null) {
+                        fallback = result;
+                    }
+                    if (started < ordered.size()) {
+                        startNext();
+                        return;
+                    }
+                    if (finished < started) {
+                        return;
+                    }
+                    winner = fallback;
+                }
+
+                done = true;
+                cancelAll();
+            }
+            callback.onResult(winner);
+        }
+
+        private void cancelAll() {
+            if (stagger != null) {
+                stagger.cancel(false);
+            }
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    /**
+     * Each attempt gets a derived client with timeouts learned for this SSID + gateway and
+     * a listener that keeps learning them. Derived clients share the pool and dispatcher.
+     */
+    private Attempt newAttempt(String pageUrl, String networkKey) {
+        String gateway = gatewayOf(pageUrl);
+        AdaptiveTimeouts.Timeouts timeouts = adaptiveTimeouts.timeoutsFor(networkKey, gateway);
+        Log.d(TAG, "Timeouts for " + gateway + ": " + timeouts);
+
+        PhaseTimingListener listener = new PhaseTimingListener(adaptiveTimeouts, networkKey, gateway, metrics, trace,
+            eventLog);
+        OkHttpClient attemptClient = client.newBuilder()
+            .connectTimeout(timeouts.connectMillis, TimeUnit.MILLISECONDS)
+            .readTimeout(timeouts.readMillis, TimeUnit.MILLISECONDS)
+            .writeTimeout(timeouts.writeMillis, TimeUnit.MILLISECONDS)
+            .callTimeout(timeouts.callMillis, TimeUnit.MILLISECONDS)
+            .eventListener(listener)
+            .build();
+        return new Attempt(attemptClient, listener);
+    }
+
+    private static String gatewayOf(String pageUrl) {
+        HttpUrl url = HttpUrl.parse(pageUrl);
+        return url != null ? url.host() + ":" + url.port() : pageUrl;
+    }
+
+    private void timedAttempt(final String pageUrl, String rollNumber, String password,
+                              final Attempt attempt, final LoginCallback callback) {
+        final long startNanos = System.nanoTime();
+        attemptLogin(pageUrl, rollNumber, password, attempt, new LoginCallback() {
+            @Override
+            public void onResult(LoginResult result) {
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+                // A cancelled loser was at least this slow, which is still worth remembering
+                if (attempt.isCancelled() || result.reachedPortal) {
+                    latencyTracker.record(pageUrl, elapsedMillis);
+                } else {
+                    latencyTracker.recordFailure(pageUrl);
+                }
+                callback.onResult(result.withTiming(gatewayOf(pageUrl), attempt.listener.lastConnectMillis(),
+                    attempt.listener.lastFirstByteMillis(), elapsedMillis));
+            }
+        });
+    }
+
+    private void attemptLogin(final String pageUrl, final String rollNumber, final String password,
+                              final Attempt attempt, final LoginCallback callback) {
+        final PortalDescriptor cached;
         try {
-            // First, try to get the login page to understand the form structure
-            Request getRequest = new Request.Builder()
-                .url(LOGIN_URL)
-                .get()
-                .build();
+            cached = descriptorCache != null ? descriptorCache.get(pageUrl) : null;
+        } catch (Exception e) {
+            callback.onResult(failureResult(pageUrl, attempt, e));
+            return;
+        }
+
+        // Use the cached form description when we have one so the login is a single POST
+        if (cached == null) {
+            fetchDescriptor(pageUrl, null, attempt, new DescriptorCallback() {
+                @Override
+                public void onDescriptor(PortalDescriptor descriptor) {
+                    if (descriptor == null) {
+                        // Usually the portal still starting up or overloaded; worth another try
+                        callback.onResult(new LoginResult(LoginResult.Outcome.TRANSIENT,
+                            "Failed to access login portal"));
+                    } else {
+                        postLogin(descriptor, rollNumber, password, attempt, callback);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    callback.onResult(failureResult(pageUrl, attempt, e));
+                }
+            });
+            return;
+        }
+
+        postLogin(cached, rollNumber, password, attempt, new LoginCallback() {
+            @Override
+            public void onResult(final LoginResult result) {
+                if (result.success || !result.reachedPortal) {
+                    callback.onResult(result);
+                    return;
+                }
+
+                // A rejected login with a cached descriptor may mean the portal changed its
+                // form: revalidate and retry once, but only if the form actually differs
+                fetchDescriptor(pageUrl, cached, attempt, new DescriptorCallback() {
+                    @Override
+                    public void onDescriptor(PortalDescriptor fresh) {
+                        if (fresh != null && !fresh.sameFormAs(cached)) {
+                            Log.i(TAG, "Portal form changed, retrying login with new descriptor");
+                            postLogin(fresh, rollNumber, password, attempt, callback);
+                        } else {
+                            callback.onResult(result);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
 
-            getResponse = client.newCall(getRequest).execute();
-            
-            if (!getResponse.isSuccessful()) {
-                Log.e(TAG, "Failed to access login page. Response code: " + getResponse.code());
-                return new LoginResult(false, "Failed to access login portal");
+    private static LoginResult failureResult(String pageUrl, Attempt attempt, Exception e) {
+        if (attempt.isCancelled()) {
+            Log.d(TAG, "Login attempt against " + pageUrl + " cancelled");
+            return new LoginResult(LoginResult.Outcome.TRANSIENT, "Cancelled");
+        }
+        if (e instanceof IOException) {
+            Log.e(TAG, "Network error during login", e);
+            return new LoginResult(outcomeOf((IOException) e), "Network error: " + e.getMessage());
+        }
+        Log.e(TAG, "Unexpected error during login", e);
+        return new LoginResult(LoginResult.Outcome.PERMANENT, "Error: " + e.getMessage());
+    }
+
+    /** Receives a portal descriptor, or null when the portal answered with an error status. */
+    private interface DescriptorCallback {
+        void onDescriptor(PortalDescriptor descriptor);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * GETs the login page, conditionally when a previous descriptor is supplied, and
+     * stores the result.
+     */
+    private void fetchDescriptor(final String pageUrl, final PortalDescriptor previous, Attempt attempt,
+                                 final DescriptorCallback callback) {
+        Request.Builder builder = new Request.Builder()
+            .url(pageUrl)
+            .get();
+
+        if (previous != null) {
+            if (previous.etag != null) {
+                builder.header("If-None-Match", previous.etag);
+            }
+            if (previous.lastModified != null) {
+                builder.header("If-Modified-Since", previous.lastModified);
+            }
+        }
+
+        attempt.enqueue(builder.build(), new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onFailure(e);
             }
 
-            String loginPageContent = getResponse.body() != null ? getResponse.body().string() : "";
+            @Override
+            public void onResponse(Call call, Response response) {
+                PortalDescriptor descriptor;
+                try (Response closing = response) {
+                    descriptor = readDescriptor(pageUrl, previous, closing);
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                    return;
+                }
+                callback.onDescriptor(descriptor);
+            }
+        });
+    }
+
+    private PortalDescriptor readDescriptor(String pageUrl, PortalDescriptor previous, Response response)
+            throws IOException {
+        PortalDescriptor descriptor;
+
+        if (response.code() == 304 && previous != null) {
+            Log.d(TAG, "Login page not modified");
+            descriptor = previous.revalidated(response.header("ETag"), response.header("Last-Modified"));
+        } else if (response.isSuccessful()) {
+            // Portals that send no validators still fingerprint by body hash, taken while the
+            // form is extracted so the page is read once and never held in memory whole
+            PortalDescriptor parsed = PortalDescriptor.parse(pageUrl,
+                response.body() != null ? response.body().source() : new Buffer(),
+                response.header("ETag"), response.header("Last-Modified"), adapter);
             Log.d(TAG, "Successfully accessed login page");
+            if (previous != null && previous.hasContentHash(parsed.contentHash)) {
+                Log.d(TAG, "Login page unchanged, reusing form");
+                descriptor = previous.revalidated(response.header("ETag"), response.header("Last-Modified"));
+            } else {
+                descriptor = parsed;
+            }
+        } else {
+            Log.e(TAG, "Failed to access login page. Response code: " + response.code());
+            return null;
+        }
+
+        if (descriptorCache != null) {
+            descriptorCache.put(descriptor);
+        }
+        return descriptor;
+    }
+
+    private void postLogin(final PortalDescriptor descriptor, String rollNumber, String password,
+                           final Attempt attempt, final LoginCallback callback) {
+        // POST forms come precompiled, so a login only fills the credentials and time into the body
+        LoginRequestTemplate template = LoginRequestTemplate.forLogin(adapter, descriptor);
+        Request postRequest = template != null
+            ? template.newRequest(rollNumber, password)
+            : buildLoginRequest(descriptor, rollNumber, password);
 
-            // Build the POST request with form data
-            // Common parameter names for campus login portals
-            RequestBody formBody = new FormBody.Builder()
-                .add("username", rollNumber)
-                .add("password", password)
-                .add("mode", "191")
-                .add("a", System.currentTimeMillis() + "")
-                .add("producttype", "0")
-                .build();
-
-            Request postRequest = new Request.Builder()
-                .url(LOGIN_URL)
+        attempt.enqueue(postRequest, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                callback.onResult(failureResult(descriptor.pageUrl, attempt, e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                LoginResult result;
+                try (Response closing = response) {
+                    result = readLoginResponse(closing);
+                } catch (Exception e) {
+                    result = failureResult(descriptor.pageUrl, attempt, e);
+                }
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /** Builds the login request from scratch, as a POST body or query as the page's form says. */
+    private Request buildLoginRequest(PortalDescriptor descriptor, String rollNumber, String password) {
+        FormBody formBody = adapter.buildLoginForm(descriptor, rollNumber, password);
+
+        Request.Builder builder = new Request.Builder()
+            .addHeader("User-Agent", adapter.userAgent)
+            .addHeader("Referer", descriptor.pageUrl);
+        if ("get".equals(descriptor.method)) {
+            HttpUrl.Builder url = HttpUrl.get(descriptor.actionUrl).newBuilder();
+            for (int i = 0; i < formBody.size(); i++) {
+                url.addEncodedQueryParameter(formBody.encodedName(i), formBody.encodedValue(i));
+            }
+            builder.url(url.build()).get();
+        } else {
+            builder.url(descriptor.actionUrl)
                 .post(formBody)
-                .addHeader("User-Agent", "Mozilla/5.0 (Linux; Android 10; SM-G973F) AppleWebKit/537.36")
-                .addHeader("Content-Type", "application/x-www-form-urlencoded")
-                .addHeader("Referer", LOGIN_URL)
-                .build();
-
-            postResponse = client.newCall(postRequest).execute();
-            
-            if (postResponse.isSuccessful()) {
-                String responseBody = postResponse.body() != null ? postResponse.body().string() : "";
-                
-                Log.d(TAG, "Login request completed with status: " + postResponse.code());
-                
-                // Check response content for success indicators
-                if (responseBody.toLowerCase().contains("success") || 
-                    responseBody.toLowerCase().contains("logged in") ||
-                    responseBody.toLowerCase().contains("authentication successful")) {
-                    
+                .addHeader("Content-Type", "application/x-www-form-urlencoded");
+        }
+        return builder.build();
+    }
+
+    private LoginResult readLoginResponse(Response postResponse) throws IOException {
+        if (postResponse.isSuccessful()) {
+            Log.d(TAG, "Login request completed with status: " + postResponse.code());
+
+            // Classify straight off the socket; the scan stops once the verdict is certain
+            LoginResponseClassifier.Verdict verdict = postResponse.body() != null
+                ? classifier.classify(postResponse.body().source())
+                : LoginResponseClassifier.Verdict.UNKNOWN;
+            if (eventLog != null) {
+                eventLog.record(EventLog.Type.VERDICT, verdict.ordinal(), postResponse.code(),
+                    postResponse.request().url().host());
+            }
+
+            switch (verdict) {
+                case SUCCESS:
                     Log.i(TAG, "Login successful");
-                    return new LoginResult(true, "Login successful");
-                    
-                } else if (responseBody.toLowerCase().contains("invalid") ||
-                          responseBody.toLowerCase().contains("incorrect") ||
-                          responseBody.toLowerCase().contains("failed")) {
-                    
+                    return new LoginResult(LoginResult.Outcome.SUCCESS, "Login successful", verdict,
+                        postResponse.code());
+                case REJECTED:
                     Log.w(TAG, "Login failed - invalid credentials");
-                    return new LoginResult(false, "Invalid credentials");
-                    
-                } else {
+                    return new LoginResult(LoginResult.Outcome.INVALID_CREDENTIALS, "Invalid credentials",
+                        verdict, postResponse.code());
+                case FAILURE:
+                    // A login limit or a gateway hiccup, not the credentials: worth another go
+                    Log.w(TAG, "Login refused by the portal");
+                    return new LoginResult(LoginResult.Outcome.TRANSIENT, "Login refused by the portal",
+                        verdict, postResponse.code());
+                default:
                     // If we can't determine from response content, assume success for 2xx status
                     Log.i(TAG, "Login likely successful (status: " + postResponse.code() + ")");
-                    return new LoginResult(true, "Login completed");
-                }
-            } else {
-                Log.e(TAG, "Login request failed with status: " + postResponse.code());
-                return new LoginResult(false, "Login failed (HTTP " + postResponse.code() + ")");
+                    return new LoginResult(LoginResult.Outcome.SUCCESS, "Login completed", verdict,
+                        postResponse.code());
             }
+        } else {
+            Log.e(TAG, "Login request failed with status: " + postResponse.code());
+            return new LoginResult(outcomeOf(postResponse.code()),
+                "Login failed (HTTP " + postResponse.code() + ")",
+                LoginResponseClassifier.Verdict.UNKNOWN, postResponse.code());
+        }
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Network error during login", e);
-            return new LoginResult(false, "Network error: " + e.getMessage());
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected error during login", e);
-            return new LoginResult(false, "Error: " + e.getMessage());
-        } finally {
-            // Clean up resources
-            try {
-                if (getResponse != null && getResponse.body() != null) {
-                    getResponse.body().close();
-                }
-                if (postResponse != null && postResponse.body() != null) {
-                    postResponse.body().close();
-                }
-            } catch (Exception e) {
-                Log.w(TAG, "Error closing response bodies", e);
+    /** Timeouts, resets and refused connections pass; a request the client refuses to send won't. */
+    private static LoginResult.Outcome outcomeOf(IOException e) {
+        return e instanceof UnknownServiceException || e instanceof ProtocolException
+            ? LoginResult.Outcome.PERMANENT
+            : LoginResult.Outcome.TRANSIENT;
+    }
+
+    /** Server errors, request timeouts and throttling are worth retrying; other statuses are not. */
+    private static LoginResult.Outcome outcomeOf(int httpCode) {
+        return httpCode >= 500 || httpCode == 408 || httpCode == 429
+            ? LoginResult.Outcome.TRANSIENT
+            : LoginResult.Outcome.PERMANENT;
+    }
+
+    /** Tracks the call currently in flight for one endpoint so a lost race can cancel it. */
+    private static final class Attempt {
+        private final OkHttpClient client;
+        final PhaseTimingListener listener;
+        private volatile Call currentCall;
+        private volatile boolean cancelled;
+
+        Attempt(OkHttpClient client, PhaseTimingListener listener) {
+            this.client = client;
+            this.listener = listener;
+        }
+
+        void enqueue(Request request, Callback callback) {
+            Call call = client.newCall(request);
+            currentCall = call;
+            if (cancelled) {
+                call.cancel();
+            }
+            call.enqueue(callback);
+        }
+
+        void cancel() {
+            cancelled = true;
+            Call call = currentCall;
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    public static final class Builder {
+        private OkHttpClient client;
+        private PortalDescriptorCache descriptorCache;
+        private PortalAdapter adapter;
+        private LoginResponseClassifier classifier;
+        private List<String> endpoints;
+        private EndpointLatencyTracker latencyTracker;
+        private AdaptiveTimeouts adaptiveTimeouts;
+        private LoginMetricsStore metrics;
+        private LoginTrace trace;
+        private EventLog eventLog;
+
+        /** Defaults to the application-wide client. */
+        public Builder client(OkHttpClient client) {
+            this.client = client;
+            return this;
+        }
+
+        public Builder descriptorCache(PortalDescriptorCache descriptorCache) {
+            this.descriptorCache = descriptorCache;
+            return this;
+        }
+
+        /**
+         * Portal the logins talk to; supplies the endpoints, form template and reply
+         * classifier unless those are set explicitly. Defaults to {@link PortalAdapters#getDefault()}.
+         */
+        public Builder adapter(PortalAdapter adapter) {
+            this.adapter = adapter;
+            return this;
+        }
+
+        public Builder classifier(LoginResponseClassifier classifier) {
+            this.classifier = classifier;
+            return this;
+        }
+
+        /**
+         * Login page URLs in order of preference; with more than one, logins race them and
+         * take the first definitive answer.
+         */
+        public Builder endpoints(List<String> endpoints) {
+            if (endpoints == null || endpoints.isEmpty()) {
+                throw new IllegalArgumentException("At least one portal endpoint is required");
             }
+            this.endpoints = endpoints;
+            return this;
+        }
+
+        public Builder latencyTracker(EndpointLatencyTracker latencyTracker) {
+            this.latencyTracker = latencyTracker;
+            return this;
+        }
+
+        public Builder adaptiveTimeouts(AdaptiveTimeouts adaptiveTimeouts) {
+            this.adaptiveTimeouts = adaptiveTimeouts;
+            return this;
+        }
+
+        /** Where per-phase network timings are recorded; none are by default. */
+        public Builder metrics(LoginMetricsStore metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /** Trace that every HTTP call of this service's logins is recorded into, one lane per gateway. */
+        public Builder trace(LoginTrace trace) {
+            this.trace = trace;
+            return this;
+        }
+
+        /** Where network phase timings and classifier verdicts are logged for support; nowhere by default. */
+        public Builder eventLog(EventLog eventLog) {
+            this.eventLog = eventLog;
+            return this;
+        }
+
+        public LoginService build() {
+            return new LoginService(this);
         }
     }
 
     public static class LoginResult {
+
+        /** Why a login ended the way it did, and so whether trying again can help. */
+        public enum Outcome {
+            SUCCESS,
+            /** The portal rejected the roll number or password; retrying cannot help. */
+            INVALID_CREDENTIALS,
+            /**
+             * Timeout, dropped connection, refused connection, server error, or a portal refusal
+             * that does not name the credentials, e.g. a login limit.
+             */
+            TRANSIENT,
+            /** Any other failure that will not go away by itself, e.g. an unexpected status. */
+            PERMANENT;
+
+            public boolean isRetryable() {
+                return this == TRANSIENT;
+            }
+        }
+
+        public final Outcome outcome;
         public final boolean success;
         public final String message;
+        public final LoginResponseClassifier.Verdict verdict;
+        /** True when the portal answered the login POST, whatever it said. */
+        public final boolean reachedPortal;
+        /** Status of the login POST, or 0 when it never got a response. */
+        public final int httpCode;
+        /** host:port of the gateway that produced this result, or null. */
+        public final String gateway;
+        /** Per-phase timings of the attempt in milliseconds, -1 when not observed. */
+        public final long connectMillis;
+        public final long firstByteMillis;
+        public final long totalMillis;
+
+        public LoginResult(Outcome outcome, String message) {
+            this(outcome, message, LoginResponseClassifier.Verdict.UNKNOWN, 0);
+        }
 
-        public LoginResult(boolean success, String message) {
-            this.success = success;
+        public LoginResult(Outcome outcome, String message, LoginResponseClassifier.Verdict verdict,
+                           int httpCode) {
+            this(outcome, message, verdict, httpCode, null, -1, -1, -1);
+        }
+
+        private LoginResult(Outcome outcome, String message, LoginResponseClassifier.Verdict verdict,
+                            int httpCode, String gateway, long connectMillis, long firstByteMillis,
+                            long totalMillis) {
+            this.outcome = outcome != null ? outcome : Outcome.PERMANENT;
+            this.success = this.outcome == Outcome.SUCCESS;
             this.message = message != null ? message : "";
+            this.verdict = verdict != null ? verdict : LoginResponseClassifier.Verdict.UNKNOWN;
+            this.reachedPortal = httpCode > 0;
+            this.httpCode = httpCode;
+            this.gateway = gateway;
+            this.connectMillis = connectMillis;
+            this.firstByteMillis = firstByteMillis;
+            this.totalMillis = totalMillis;
+        }
+
+        LoginResult withTiming(String gateway, long connectMillis, long firstByteMillis, long totalMillis) {
+            return new LoginResult(outcome, message, verdict, httpCode, gateway, connectMillis,
+                firstByteMillis, totalMillis);
+        }
+
+        /** Logged in, or told the credentials are wrong; another gateway won't change that. */
+        public boolean isDefinitive() {
+            return outcome == Outcome.SUCCESS || outcome == Outcome.INVALID_CREDENTIALS;
         }
     }
 }
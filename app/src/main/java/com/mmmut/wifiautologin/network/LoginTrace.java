@@ -0,0 +1,200 @@
+package com.mmmut.wifiautologin.network;
+
+import android.os.Build;
+import android.os.Trace;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timeline of one login, from the network event that scheduled it to the verdict, under a
+ * correlation id that travels with the work request.
+ *
+ * <p>Spans go two ways: into {@link Trace} async sections named {@code login:<span>}, so
+ * they line up with the system's own Wi-Fi and WorkManager tracks in a Perfetto capture,
+ * and into an in-memory timeline exported by {@link #toJson()} in the Chrome trace event
+ * format that Perfetto and chrome://tracing open directly. Spans are grouped into lanes,
+ * e.g. the worker itself and one lane per portal endpoint. Thread-safe.
+ */
+public final class LoginTrace {
+
+    public static final String LANE_WORKER = "worker";
+
+    private static final String SECTION_PREFIX = "login:";
+    private static final AtomicInteger COOKIES = new AtomicInteger();
+
+    public final String id;
+    /** Which run of the login work this is; retries share the id but get a trace each. */
+    public final int run;
+    /** Wall-clock time of the network event; timeline offsets are relative to it. */
+    public final long originMillis;
+    private final long createdNanos;
+    private final long createdOffsetMicros;
+
+    private final List<JSONObject> events = new ArrayList<>();
+    private final Map<String, Integer> lanes = new LinkedHashMap<>();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    /**
+     * @param originMillis wall-clock time of the network event, which may have happened in
+     *                     an earlier process; {@code System.currentTimeMillis()} if unknown
+     */
+    public LoginTrace(String id, int run, long originMillis) {
+        this.id = id != null ? id : newId();
+        this.run = run;
+        this.originMillis = originMillis;
+        this.createdNanos = System.nanoTime();
+        this.createdOffsetMicros = Math.max(0L, System.currentTimeMillis() - originMillis) * 1000;
+    }
+
+    /** Mints a short random correlation id. */
+    public static String newId() {
+        return String.format(Locale.US, "%08x", ThreadLocalRandom.current().nextInt());
+    }
+
+    /** Microseconds since the network event; monotonic within this process. */
+    public long nowMicros() {
+        return createdOffsetMicros + (System.nanoTime() - createdNanos) / 1000;
+    }
+
+    public void setAttribute(String key, String value) {
+        synchronized (this) {
+            attributes.put(key, value);
+        }
+    }
+
+    public Span begin(String lane, String name) {
+        return new Span(lane, name);
+    }
+
+    /** Records a span that has already finished, e.g. time spent queued before this process ran. */
+    public void span(String lane, String name, long startMicros, long endMicros, String detail) {
+        add(lane, name, "X", startMicros, Math.max(0L, endMicros - startMicros), detail);
+    }
+
+    public void instant(String lane, String name, String detail) {
+        add(lane, name, "i", nowMicros(), -1, detail);
+    }
+
+    /** One-line summary for logs: the worker lane's spans with their durations. */
+    public synchronized String summary() {
+        StringBuilder text = new StringBuilder(id).append('/').append(run).append(':');
+        Integer worker = lanes.get(LANE_WORKER);
+        for (JSONObject event : events) {
+            if (worker == null || event.optInt("tid") != worker) {
+                continue;
+            }
+            text.append(' ').append(event.optString("name"));
+            long dur = event.optLong("dur", -1);
+            if (dur >= 0) {
+                text.append('=').append(dur / 1000).append("ms");
+            }
+        }
+        return text.toString();
+    }
+
+    /** The timeline as a Chrome trace event JSON object. */
+    public synchronized String toJson() {
+        try {
+            JSONArray traceEvents = new JSONArray();
+            for (Map.Entry<String, Integer> lane : lanes.entrySet()) {
+                traceEvents.put(new JSONObject()
+                    .put("name", "thread_name")
+                    .put("ph", "M")
+                    .put("pid", 1)
+                    .put("tid", lane.getValue())
+                    .put("args", new JSONObject().put("name", lane.getKey())));
+            }
+            for (JSONObject event : events) {
+                traceEvents.put(event);
+            }
+
+            JSONObject otherData = new JSONObject()
+                .put("traceId", id)
+                .put("run", run)
+                .put("originMillis", originMillis);
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                otherData.put(attribute.getKey(), attribute.getValue());
+            }
+            return new JSONObject()
+                .put("traceEvents", traceEvents)
+                .put("displayTimeUnit", "ms")
+                .put("otherData", otherData)
+                .toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private synchronized void add(String lane, String name, String phase, long tsMicros, long durMicros,
+                                  String detail) {
+        Integer tid = lanes.get(lane);
+        if (tid == null) {
+            tid = lanes.size() + 1;
+            lanes.put(lane, tid);
+        }
+        try {
+            JSONObject event = new JSONObject()
+                .put("name", name)
+                .put("cat", "login")
+                .put("ph", phase)
+                .put("ts", tsMicros)
+                .put("pid", 1)
+                .put("tid", tid);
+            if (durMicros >= 0) {
+                event.put("dur", durMicros);
+            } else {
+                event.put("s", "t");
+            }
+            if (detail != null) {
+                event.put("args", new JSONObject().put("detail", detail));
+            }
+            events.add(event);
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which we never put
+        }
+    }
+
+    /** An open span; {@link #end} may be called from any thread, and only the first call counts. */
+    public final class Span {
+        private final String lane;
+        private final String name;
+        private final long startMicros;
+        private final int cookie;
+        private boolean ended;
+
+        private Span(String lane, String name) {
+            this.lane = lane;
+            this.name = name;
+            this.startMicros = nowMicros();
+            this.cookie = COOKIES.incrementAndGet();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(SECTION_PREFIX + name, cookie);
+            }
+        }
+
+        public void end() {
+            end(null);
+        }
+
+        public void end(String detail) {
+            synchronized (this) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(SECTION_PREFIX + name, cookie);
+            }
+            span(lane, name, startMicros, nowMicros(), detail);
+        }
+    }
+}
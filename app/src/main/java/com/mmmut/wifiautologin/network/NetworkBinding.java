@@ -0,0 +1,57 @@
+package com.mmmut.wifiautologin.network;
+
+import android.net.Network;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+
+/**
+ * Derives clients whose sockets and DNS lookups go through one specific {@link Network}.
+ * While a captive Wi-Fi network is unvalidated the system may still route default traffic
+ * over mobile data, so portal requests must be pinned to the Wi-Fi network explicitly.
+ */
+public final class NetworkBinding {
+
+    private static final Object LOCK = new Object();
+    private static Network boundNetwork;
+    private static OkHttpClient boundBase;
+    private static OkHttpClient boundClient;
+
+    private NetworkBinding() {
+    }
+
+    /**
+     * Returns {@code base} bound to {@code network}, or {@code base} itself when no network
+     * is given. The last bound client is cached so consecutive logins on the same network
+     * keep reusing its pooled connections.
+     */
+    public static OkHttpClient bind(OkHttpClient base, final Network network) {
+        if (base == null || network == null) {
+            return base;
+        }
+
+        synchronized (LOCK) {
+            if (network.equals(boundNetwork) && base == boundBase) {
+                return boundClient;
+            }
+
+            OkHttpClient client = base.newBuilder()
+                .socketFactory(network.getSocketFactory())
+                .dns(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        return Arrays.asList(network.getAllByName(hostname));
+                    }
+                })
+                .build();
+
+            boundNetwork = network;
+            boundBase = base;
+            boundClient = client;
+            return client;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.mmmut.wifiautologin.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One "this network uses that portal" rule. Rules are compiled into a {@link NetworkRuleSet};
+ * the precedence between kinds is defined there, not by the order rules are declared in.
+ *
+ * <p>Rules can also be written as text, one per line, as {@code kind:value -> adapterId}:
+ * <pre>
+ *   ssid:MMMUT-Hostel -> sophos
+ *   prefix:MMMUT -> sophos
+ *   glob:Guest-* -> fortigate
+ *   regex:^Lab[0-9]+$ -> pfsense
+ *   oui:00:09:0F -> fortigate
+ *   captive -> generic
+ * </pre>
+ */
+public final class NetworkRule {
+
+    public enum Kind {
+        /** The whole SSID, case-sensitive. */
+        SSID("ssid"),
+        SSID_PREFIX("prefix"),
+        /** {@code *} and {@code ?} wildcards over the whole SSID. */
+        SSID_GLOB("glob"),
+        /** Java regular expression over the whole SSID. */
+        SSID_REGEX("regex"),
+        /** First three octets of the access point's BSSID, i.e. the vendor. */
+        BSSID_OUI("oui"),
+        /** Any network the system reports as behind a captive portal. */
+        CAPTIVE_PORTAL("captive");
+
+        final String key;
+
+        Kind(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final String ARROW = "->";
+
+    public final Kind kind;
+    /** Null for {@link Kind#CAPTIVE_PORTAL}. */
+    public final String value;
+    public final String adapterId;
+
+    private NetworkRule(Kind kind, String value, String adapterId) {
+        if (adapterId == null || adapterId.isEmpty()) {
+            throw new IllegalArgumentException("Rule needs an adapter id");
+        }
+        if (kind != Kind.CAPTIVE_PORTAL && (value == null || value.isEmpty())) {
+            throw new IllegalArgumentException("Rule " + kind.key + " needs a value");
+        }
+        if (kind == Kind.BSSID_OUI && NetworkRuleSet.parseOui(value) < 0) {
+            throw new IllegalArgumentException("Not an OUI: " + value);
+        }
+        this.kind = kind;
+        this.value = kind != Kind.CAPTIVE_PORTAL ? value : null;
+        this.adapterId = adapterId;
+    }
+
+    public static NetworkRule ssid(String ssid, String adapterId) {
+        return new NetworkRule(Kind.SSID, ssid, adapterId);
+    }
+
+    public static NetworkRule ssidPrefix(String prefix, String adapterId) {
+        return new NetworkRule(Kind.SSID_PREFIX, prefix, adapterId);
+    }
+
+    public static NetworkRule ssidGlob(String glob, String adapterId) {
+        return new NetworkRule(Kind.SSID_GLOB, glob, adapterId);
+    }
+
+    public static NetworkRule ssidRegex(String regex, String adapterId) {
+        return new NetworkRule(Kind.SSID_REGEX, regex, adapterId);
+    }
+
+    /** @param oui e.g. "00:09:0F" or "00-09-0f" */
+    public static NetworkRule bssidOui(String oui, String adapterId) {
+        return new NetworkRule(Kind.BSSID_OUI, oui, adapterId);
+    }
+
+    public static NetworkRule captivePortal(String adapterId) {
+        return new NetworkRule(Kind.CAPTIVE_PORTAL, null, adapterId);
+    }
+
+    /**
+     * Parses one rule in the text form shown above.
+     *
+     * @throws IllegalArgumentException when the line is not a valid rule
+     */
+    public static NetworkRule parse(String line) {
+        if (line == null) {
+            throw new IllegalArgumentException("Rule cannot be null");
+        }
+        int arrow = line.lastIndexOf(ARROW);
+        if (arrow < 0) {
+            throw new IllegalArgumentException("Rule has no adapter: " + line);
+        }
+        String adapterId = line.substring(arrow + ARROW.length()).trim();
+        String condition = line.substring(0, arrow).trim();
+
+        int colon = condition.indexOf(':');
+        String key = (colon >= 0 ? condition.substring(0, colon) : condition).trim().toLowerCase(Locale.ROOT);
+        String value = colon >= 0 ? condition.substring(colon + 1).trim() : null;
+        for (Kind kind : Kind.values()) {
+            if (kind.key.equals(key)) {
+                return new NetworkRule(kind, value, adapterId);
+            }
+        }
+        throw new IllegalArgumentException("Unknown rule kind: " + key);
+    }
+
+    /** Parses one rule per line, skipping blank lines and lines starting with '#'. */
+    public static List<NetworkRule> parseAll(String text) {
+        List<NetworkRule> rules = new ArrayList<>();
+        if (text == null) {
+            return rules;
+        }
+        for (String line : text.split("\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                rules.add(parse(line));
+            }
+        }
+        return rules;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.CAPTIVE_PORTAL
+            ? kind.key + " " + ARROW + " " + adapterId
+            : kind.key + ":" + value + " " + ARROW + " " + adapterId;
+    }
+}
@@ -0,0 +1,233 @@
+package com.mmmut.wifiautologin.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link NetworkRule}s compiled for matching on every network callback without allocating:
+ * exact SSIDs go in a hash map, prefixes in a character trie, OUIs in a sorted int array,
+ * and globs and regexes are precompiled into patterns whose matchers are reset and reused.
+ *
+ * <p>The most specific rule wins, whatever order the rules were declared in:
+ * <ol>
+ *   <li>exact SSID;</li>
+ *   <li>BSSID OUI;</li>
+ *   <li>the longest matching SSID prefix;</li>
+ *   <li>globs and regexes, the first declared one that matches;</li>
+ *   <li>"any captive portal".</li>
+ * </ol>
+ * Within one kind, the first declared rule for the same value wins.
+ */
+public final class NetworkRuleSet {
+
+    private final Map<String, String> exact = new HashMap<>();
+    private final TrieNode prefixes = new TrieNode();
+    private final int[] ouis;
+    private final String[] ouiAdapters;
+    private final Matcher[] patterns;
+    private final String[] patternAdapters;
+    private final String captiveAdapter;
+
+    public NetworkRuleSet(List<NetworkRule> rules) {
+        Map<Integer, String> ouiMap = new HashMap<>();
+        List<Matcher> patternList = new ArrayList<>();
+        List<String> patternAdapterList = new ArrayList<>();
+        String captive = null;
+
+        for (NetworkRule rule : rules) {
+            switch (rule.kind) {
+                case SSID:
+                    if (!exact.containsKey(rule.value)) {
+                        exact.put(rule.value, rule.adapterId);
+                    }
+                    break;
+                case SSID_PREFIX:
+                    prefixes.insert(rule.value, rule.adapterId);
+                    break;
+                case BSSID_OUI:
+                    Integer oui = parseOui(rule.value);
+                    if (!ouiMap.containsKey(oui)) {
+                        ouiMap.put(oui, rule.adapterId);
+                    }
+                    break;
+                case SSID_GLOB:
+                    patternList.add(Pattern.compile(globToRegex(rule.value)).matcher(""));
+                    patternAdapterList.add(rule.adapterId);
+                    break;
+                case SSID_REGEX:
+                    patternList.add(Pattern.compile(rule.value).matcher(""));
+                    patternAdapterList.add(rule.adapterId);
+                    break;
+                case CAPTIVE_PORTAL:
+                    if (captive == null) {
+                        captive = rule.adapterId;
+                    }
+                    break;
+            }
+        }
+
+        ouis = new int[ouiMap.size()];
+        int i = 0;
+        for (Integer oui : ouiMap.keySet()) {
+            ouis[i++] = oui;
+        }
+        Arrays.sort(ouis);
+        ouiAdapters = new String[ouis.length];
+        for (i = 0; i < ouis.length; i++) {
+            ouiAdapters[i] = ouiMap.get(ouis[i]);
+        }
+
+        patterns = patternList.toArray(new Matcher[0]);
+        patternAdapters = patternAdapterList.toArray(new String[0]);
+        captiveAdapter = captive;
+    }
+
+    /**
+     * Returns the adapter id of the winning rule, or null when no rule matches.
+     *
+     * @param ssid    unquoted SSID, or null when unknown
+     * @param bssid   "aa:bb:cc:dd:ee:ff", or null when unknown
+     * @param captive whether the system has flagged the network as captive
+     */
+    public String match(String ssid, String bssid, boolean captive) {
+        if (ssid != null) {
+            String adapterId = exact.get(ssid);
+            if (adapterId != null) {
+                return adapterId;
+            }
+        }
+
+        if (bssid != null && ouis.length > 0) {
+            int index = Arrays.binarySearch(ouis, parseOui(bssid));
+            if (index >= 0) {
+                return ouiAdapters[index];
+            }
+        }
+
+        if (ssid != null) {
+            String adapterId = prefixes.longestMatch(ssid);
+            if (adapterId != null) {
+                return adapterId;
+            }
+
+            if (patterns.length > 0) {
+                // Matchers are reused rather than allocated per call, so they are shared state
+                synchronized (patterns) {
+                    for (int i = 0; i < patterns.length; i++) {
+                        if (patterns[i].reset(ssid).matches()) {
+                            return patternAdapters[i];
+                        }
+                    }
+                }
+            }
+        }
+
+        return captive ? captiveAdapter : null;
+    }
+
+    /**
+     * Packs the first three octets of a MAC address ("00:09:0f:..." or "00-09-0F") into an int,
+     * or returns -1 when the text does not start with three hex octets.
+     */
+    static int parseOui(String mac) {
+        if (mac == null || mac.length() < 8) {
+            return -1;
+        }
+        int oui = 0;
+        for (int octet = 0; octet < 3; octet++) {
+            int offset = octet * 3;
+            int high = Character.digit(mac.charAt(offset), 16);
+            int low = Character.digit(mac.charAt(offset + 1), 16);
+            if (high < 0 || low < 0) {
+                return -1;
+            }
+            if (octet < 2 && mac.charAt(offset + 2) != ':' && mac.charAt(offset + 2) != '-') {
+                return -1;
+            }
+            oui = (oui << 8) | (high << 4) | low;
+        }
+        return oui;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /** Character trie with children kept in parallel sorted arrays; SSIDs are short. */
+    private static final class TrieNode {
+        private char[] labels = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private String adapterId;
+
+        void insert(String prefix, String adapterId) {
+            TrieNode node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.childOrCreate(prefix.charAt(i));
+            }
+            if (node.adapterId == null) {
+                node.adapterId = adapterId;
+            }
+        }
+
+        String longestMatch(String ssid) {
+            String best = null;
+            TrieNode node = this;
+            for (int i = 0; i < ssid.length(); i++) {
+                node = node.child(ssid.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                if (node.adapterId != null) {
+                    best = node.adapterId;
+                }
+            }
+            return best;
+        }
+
+        private TrieNode child(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private TrieNode childOrCreate(char label) {
+            int index = Arrays.binarySearch(labels, label);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(labels, insertAt, newLabels, insertAt + 1, labels.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            newLabels[insertAt] = label;
+            newChildren[insertAt] = new TrieNode();
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertAt];
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.mmmut.wifiautologin.network;
+
+import com.mmmut.wifiautologin.data.EventLog;
+import com.mmmut.wifiautologin.data.LoginMetricsStore;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Feeds the TCP connect time and the time to first response byte of one login attempt
+ * into {@link AdaptiveTimeouts}, timed-out ones as censored samples, and every network phase
+ * into {@link LoginMetricsStore} and the {@link EventLog} when given. Reused pooled
+ * connections produce no DNS or connect sample.
+ *
+ * <p>With a {@link LoginTrace}, each call and its DNS, connect and wait-for-first-byte
+ * phases also become spans in the gateway's lane, which is how the trace's correlation id
+ * reaches the HTTP calls without being sent to the portal.
+ */
+final class PhaseTimingListener extends EventListener {
+
+    private final AdaptiveTimeouts timeouts;
+    private final String networkKey;
+    private final String gateway;
+    private final LoginMetricsStore metrics;
+    private final LoginTrace trace;
+    private final EventLog eventLog;
+
+    private LoginTrace.Span callSpan;
+    private LoginTrace.Span dnsSpan;
+    private LoginTrace.Span connectSpan;
+    private LoginTrace.Span waitSpan;
+    private long callStartNanos;
+    private long dnsStartNanos;
+    private long connectStartNanos;
+    private long requestSentNanos;
+    private volatile long lastConnectMillis = -1;
+    private volatile long lastFirstByteMillis = -1;
+
+    /**
+     * @param metrics  where to record every phase, or null to only feed the timeouts
+     * @param trace    the login's trace, or null
+     * @param eventLog where to log every phase for support, or null
+     */
+    PhaseTimingListener(AdaptiveTimeouts timeouts, String networkKey, String gateway,
+                        LoginMetricsStore metrics, LoginTrace trace, EventLog eventLog) {
+        this.timeouts = timeouts;
+        this.networkKey = networkKey;
+        this.gateway = gateway;
+        this.metrics = metrics;
+        this.trace = trace;
+        this.eventLog = eventLog;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStartNanos = System.nanoTime();
+        if (trace != null) {
+            Request request = call.request();
+            callSpan = trace.begin(gateway, request.method() + " " + request.url().encodedPath());
+        }
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        endSpans(null);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        // Still waiting for the response: the first byte took at least this long
+        if (requestSentNanos != 0 && ioe instanceof InterruptedIOException) {
+            timeouts.recordFirstByteTimeout(networkKey, gateway, elapsedMillis(requestSentNanos));
+            requestSentNanos = 0;
+        }
+        endSpans(ioe.getClass().getSimpleName());
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStartNanos = System.nanoTime();
+        dnsSpan = begin("dns");
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        if (dnsStartNanos != 0) {
+            record(LoginMetricsStore.Phase.DNS, elapsedMillis(dnsStartNanos));
+            dnsStartNanos = 0;
+        }
+        dnsSpan = end(dnsSpan, null);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStartNanos = System.nanoTime();
+        connectSpan = begin("connect");
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        if (connectStartNanos != 0) {
+            lastConnectMillis = elapsedMillis(connectStartNanos);
+            timeouts.recordConnect(networkKey, gateway, lastConnectMillis);
+            record(LoginMetricsStore.Phase.CONNECT, lastConnectMillis);
+            connectStartNanos = 0;
+        }
+        connectSpan = end(connectSpan, null);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                              Protocol protocol, IOException ioe) {
+        if (connectStartNanos != 0 && ioe instanceof InterruptedIOException) {
+            timeouts.recordConnectTimeout(networkKey, gateway, elapsedMillis(connectStartNanos));
+        }
+        connectStartNanos = 0;
+        connectSpan = end(connectSpan, ioe.getClass().getSimpleName());
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        requestSentNanos = System.nanoTime();
+        // Bodiless requests are fully sent now; POSTs report once their body is written
+        if (request.body() == null) {
+            onRequestSent();
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        requestSentNanos = System.nanoTime();
+        onRequestSent();
+    }
+
+    private void onRequestSent() {
+        if (callStartNanos != 0) {
+            record(LoginMetricsStore.Phase.REQUEST_SENT, elapsedMillis(callStartNanos));
+            callStartNanos = 0;
+        }
+        waitSpan = begin("wait");
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if (requestSentNanos != 0) {
+            lastFirstByteMillis = elapsedMillis(requestSentNanos);
+            timeouts.recordFirstByte(networkKey, gateway, lastFirstByteMillis);
+            record(LoginMetricsStore.Phase.FIRST_BYTE, lastFirstByteMillis);
+            requestSentNanos = 0;
+        }
+        waitSpan = end(waitSpan, null);
+    }
+
+    /** Connect time of the most recent new connection, or -1 if every call reused one. */
+    long lastConnectMillis() {
+        return lastConnectMillis;
+    }
+
+    /** Time to first byte of the most recent response, or -1 if none arrived. */
+    long lastFirstByteMillis() {
+        return lastFirstByteMillis;
+    }
+
+    private void record(LoginMetricsStore.Phase phase, long millis) {
+        if (metrics != null) {
+            metrics.record(phase, millis);
+        }
+        if (eventLog != null) {
+            eventLog.record(EventLog.Type.HTTP_PHASE, phase.ordinal(), millis, gateway);
+        }
+    }
+
+    private LoginTrace.Span begin(String name) {
+        return trace != null ? trace.begin(gateway, name) : null;
+    }
+
+    /** Ends the span if there is one; returns null so callers can clear their field. */
+    private static LoginTrace.Span end(LoginTrace.Span span, String detail) {
+        if (span != null) {
+            span.end(detail);
+        }
+        return null;
+    }
+
+    /** Closes whatever a failed call left open, then the call itself. */
+    private void endSpans(String detail) {
+        dnsSpan = end(dnsSpan, detail);
+        connectSpan = end(connectSpan, detail);
+        waitSpan = end(waitSpan, detail);
+        callSpan = end(callSpan, detail);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
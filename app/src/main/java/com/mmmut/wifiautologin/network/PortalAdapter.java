@@ -0,0 +1,283 @@
+package com.mmmut.wifiautologin.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+/**
+ * Declarative description of one captive-portal vendor: where its login page lives, how the
+ * login form is filled in, which words in the reply mean success or failure, and the
+ * optional keepalive and logout calls.
+ *
+ * <p>Values in form and request templates may contain {@link #USERNAME}, {@link #PASSWORD}
+ * and {@link #TIMESTAMP}, which are filled in per request. The keyword lists are compiled
+ * into {@link KeywordResponseClassifier}s when the adapter is built, so every login reuses
+ * the same automaton. Instances are immutable; the built-in ones, and the
+ * rules that pick one for a network, live in {@link PortalAdapters}.
+ */
+public final class PortalAdapter {
+
+    public static final String USERNAME = "{username}";
+    public static final String PASSWORD = "{password}";
+    public static final String TIMESTAMP = "{timestamp}";
+
+    private static final String DEFAULT_USER_AGENT =
+        "Mozilla/5.0 (Linux; Android 10; SM-G973F) AppleWebKit/537.36";
+
+    public final String id;
+    /** Login page URLs in order of preference; empty when the portal is found by redirect. */
+    public final List<String> endpoints;
+    public final String usernameField;
+    public final String passwordField;
+    public final String userAgent;
+    /** Null when the portal has no keepalive call. */
+    public final RequestTemplate keepAlive;
+    /** Null when the portal has no logout call. */
+    public final RequestTemplate logout;
+
+    private final Map<String, String> formFields;
+    private final LoginResponseClassifier classifier;
+
+    private PortalAdapter(Builder builder) {
+        this.id = builder.id;
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(builder.endpoints));
+        this.usernameField = builder.usernameField;
+        this.passwordField = builder.passwordField;
+        this.userAgent = builder.userAgent;
+        this.keepAlive = builder.keepAlive;
+        this.logout = builder.logout;
+        this.formFields = Collections.unmodifiableMap(new LinkedHashMap<>(builder.formFields));
+        this.classifier = builder.keywords.build();
+    }
+
+    /** Classifier for the login reply, compiled once when the adapter was built. */
+    public LoginResponseClassifier classifier() {
+        return classifier;
+    }
+
+    /**
+     * Builds the login POST body: the credential fields, then the adapter's form template,
+     * then any other hidden inputs the login page declared (tokens and the like). Template
+     * values with placeholders are always filled in; plain template values are defaults
+     * that a hidden input of the same name on the page overrides.
+     */
+    public FormBody buildLoginForm(PortalDescriptor descriptor, String username, String password) {
+        FormBody.Builder form = new FormBody.Builder();
+        for (FormField field : loginFields(descriptor)) {
+            form.add(field.name, field.template ? expand(field.value, username, password) : field.value);
+        }
+        return form.build();
+    }
+
+    /**
+     * The login form's fields in the order {@link #buildLoginForm} sends them, with the
+     * credentials still as {@link #USERNAME} and {@link #PASSWORD} placeholders.
+     */
+    List<FormField> loginFields(PortalDescriptor descriptor) {
+        List<FormField> fields = new ArrayList<>();
+        fields.add(new FormField(descriptor.usernameField, USERNAME, true));
+        fields.add(new FormField(descriptor.passwordField, PASSWORD, true));
+
+        Set<String> added = new HashSet<>();
+        added.add(descriptor.usernameField);
+        added.add(descriptor.passwordField);
+
+        for (Map.Entry<String, String> field : formFields.entrySet()) {
+            String template = field.getValue();
+            String pageValue = descriptor.hiddenFields.get(field.getKey());
+            if (pageValue != null && !hasPlaceholder(template)) {
+                fields.add(new FormField(field.getKey(), pageValue, false));
+            } else {
+                fields.add(new FormField(field.getKey(), template, true));
+            }
+            added.add(field.getKey());
+        }
+
+        for (Map.Entry<String, String> hidden : descriptor.hiddenFields.entrySet()) {
+            if (added.add(hidden.getKey())) {
+                fields.add(new FormField(hidden.getKey(), hidden.getValue(), false));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Fills in the placeholders in one pass, so a credential that happens to contain
+     * placeholder text is sent as typed.
+     */
+    static String expand(String template, String username, String password) {
+        if (!hasPlaceholder(template)) {
+            return template;
+        }
+        StringBuilder expanded = new StringBuilder(template.length() + 16);
+        int i = 0;
+        while (i < template.length()) {
+            if (template.startsWith(USERNAME, i)) {
+                expanded.append(username != null ? username : "");
+                i += USERNAME.length();
+            } else if (template.startsWith(PASSWORD, i)) {
+                expanded.append(password != null ? password : "");
+                i += PASSWORD.length();
+            } else if (template.startsWith(TIMESTAMP, i)) {
+                expanded.append(System.currentTimeMillis());
+                i += TIMESTAMP.length();
+            } else {
+                expanded.append(template.charAt(i++));
+            }
+        }
+        return expanded.toString();
+    }
+
+    private static boolean hasPlaceholder(String template) {
+        return template.indexOf('{') >= 0;
+    }
+
+    /** One login form field; a template value may contain placeholders, a literal one is sent as is. */
+    static final class FormField {
+        final String name;
+        final String value;
+        final boolean template;
+
+        FormField(String name, String value, boolean template) {
+            this.name = name;
+            this.value = value;
+            this.template = template;
+        }
+    }
+
+    /** A secondary call such as keepalive or logout, resolved against the login page URL. */
+    public static final class RequestTemplate {
+        public final boolean post;
+        public final String path;
+        private final Map<String, String> params;
+        private final LoginResponseClassifier classifier;
+
+        private RequestTemplate(boolean post, String path, Map<String, String> params,
+                                KeywordResponseClassifier.Builder keywords) {
+            this.post = post;
+            this.path = path;
+            this.params = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+            this.classifier = keywords.build();
+        }
+
+        public static RequestTemplate get(String path, Map<String, String> params,
+                                          KeywordResponseClassifier.Builder keywords) {
+            return new RequestTemplate(false, path, params, keywords);
+        }
+
+        public static RequestTemplate post(String path, Map<String, String> params,
+                                           KeywordResponseClassifier.Builder keywords) {
+            return new RequestTemplate(true, path, params, keywords);
+        }
+
+        /** SUCCESS means the call did what it should, FAILURE that the session is gone. */
+        public LoginResponseClassifier classifier() {
+            return classifier;
+        }
+
+        /** Returns null when {@code pageUrl} is not a usable base URL. */
+        public Request toRequest(String pageUrl, String username, String password) {
+            HttpUrl base = HttpUrl.parse(pageUrl);
+            HttpUrl url = base != null ? base.resolve(path) : null;
+            if (url == null) {
+                return null;
+            }
+
+            if (post) {
+                FormBody.Builder form = new FormBody.Builder();
+                for (Map.Entry<String, String> param : params.entrySet()) {
+                    form.add(param.getKey(), expand(param.getValue(), username, password));
+                }
+                return new Request.Builder().url(url).post(form.build()).build();
+            }
+
+            HttpUrl.Builder query = url.newBuilder();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                query.addQueryParameter(param.getKey(), expand(param.getValue(), username, password));
+            }
+            return new Request.Builder().url(query.build()).get().build();
+        }
+    }
+
+    public static final class Builder {
+        private final String id;
+        private final List<String> endpoints = new ArrayList<>();
+        private final Map<String, String> formFields = new LinkedHashMap<>();
+        private final KeywordResponseClassifier.Builder keywords = new KeywordResponseClassifier.Builder();
+        private String usernameField = PortalDescriptor.DEFAULT_USERNAME_FIELD;
+        private String passwordField = PortalDescriptor.DEFAULT_PASSWORD_FIELD;
+        private String userAgent = DEFAULT_USER_AGENT;
+        private RequestTemplate keepAlive;
+        private RequestTemplate logout;
+
+        public Builder(String id) {
+            if (id == null || id.isEmpty()) {
+                throw new IllegalArgumentException("Adapter id cannot be empty");
+            }
+            this.id = id;
+        }
+
+        public Builder endpoint(String pageUrl) {
+            endpoints.add(pageUrl);
+            return this;
+        }
+
+        /** Field names used when the login page does not declare its own inputs. */
+        public Builder credentialFields(String usernameField, String passwordField) {
+            this.usernameField = usernameField;
+            this.passwordField = passwordField;
+            return this;
+        }
+
+        public Builder formField(String name, String template) {
+            formFields.put(name, template);
+            return this;
+        }
+
+        public Builder userAgent(String userAgent) {
+            this.userAgent = userAgent;
+            return this;
+        }
+
+        public Builder success(String keyword) {
+            keywords.success(keyword);
+            return this;
+        }
+
+        public Builder failure(String keyword) {
+            keywords.failure(keyword);
+            return this;
+        }
+
+        public Builder terminalFailure(String keyword) {
+            keywords.terminalFailure(keyword);
+            return this;
+        }
+
+        public Builder credentialFailure(String keyword) {
+            keywords.credentialFailure(keyword);
+            return this;
+        }
+
+        public Builder keepAlive(RequestTemplate keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder logout(RequestTemplate logout) {
+            this.logout = logout;
+            return this;
+        }
+
+        public PortalAdapter build() {
+            return new PortalAdapter(this);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.mmmut.wifiautologin.network;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link PortalAdapter}s by id, and the {@link NetworkRule}s that map a network
+ * to one of them. The rules are compiled into a {@link NetworkRuleSet} whenever they change,
+ * so choosing an adapter on a network callback is a handful of lookups.
+ */
+public final class PortalAdapters {
+
+    private static final String TAG = "PortalAdapters";
+
+    /** Sophos / Cyberoam "httpclient" portal used on the MMMUT campus. */
+    public static final PortalAdapter SOPHOS = new PortalAdapter.Builder("sophos")
+        .endpoint("http://172.16.1.3:8090/httpclient.html")
+        .formField("mode", "191")
+        .formField("a", PortalAdapter.TIMESTAMP)
+        .formField("producttype", "0")
+        // XML reply to mode=191, optionally wrapped in CDATA, then the HTML variant's phrases
+        .success("<status>live</status>")
+        .success("<status><![cdata[live]]></status>")
+        .terminalFailure("<status>login</status>")
+        .terminalFailure("<status><![cdata[login]]></status>")
+        .success("success")
+        .success("logged in")
+        .success("authentication successful")
+        .credentialFailure("invalid")
+        .credentialFailure("incorrect")
+        .failure("failed")
+        .failure("maximum login limit")
+        .keepAlive(PortalAdapter.RequestTemplate.get("live",
+            params("mode", "192", "username", PortalAdapter.USERNAME,
+                "a", PortalAdapter.TIMESTAMP, "producttype", "0"),
+            new KeywordResponseClassifier.Builder()
+                .success("<ack>ack</ack>")
+                .success("<ack><![cdata[ack]]></ack>")
+                .terminalFailure("login_again")))
+        .logout(PortalAdapter.RequestTemplate.post("logout.xml",
+            params("mode", "193", "username", PortalAdapter.USERNAME,
+                "a", PortalAdapter.TIMESTAMP, "producttype", "0"),
+            new KeywordResponseClassifier.Builder()
+                .success("signed out")
+                .success("logged off")))
+        .build();
+
+    /** FortiGate firewall authentication; the login page is the fgtauth URL we get redirected to. */
+    public static final PortalAdapter FORTIGATE = new PortalAdapter.Builder("fortigate")
+        .formField("magic", "")
+        .formField("4Tredir", CaptivePortalProbe.DEFAULT_PROBE_URL)
+        .success("keepalive?")
+        .success("authentication keepalive")
+        .terminalFailure("firewall authentication failed")
+        .credentialFailure("authentication failed")
+        .failure("failed")
+        .credentialFailure("invalid")
+        .build();
+
+    /** pfSense / OPNsense captive portal; the page carries the zone as a hidden input. */
+    public static final PortalAdapter PFSENSE = new PortalAdapter.Builder("pfsense")
+        .credentialFields("auth_user", "auth_pass")
+        .formField("accept", "Login")
+        .formField("redirurl", CaptivePortalProbe.DEFAULT_PROBE_URL)
+        .success("logout_id")
+        .success("you are connected")
+        .terminalFailure("invalid credentials specified")
+        .credentialFailure("invalid")
+        .failure("failed")
+        .build();
+
+    /** Plain HTML form portal: whatever fields the page declares, generic reply phrases. */
+    public static final PortalAdapter GENERIC = new PortalAdapter.Builder("generic")
+        .success("logged in")
+        .success("login successful")
+        .success("you are now connected")
+        .credentialFailure("invalid")
+        .credentialFailure("incorrect")
+        .failure("failed")
+        .build();
+
+    /** Networks handled out of the box; site rules passed to {@link #setRules} are added to these. */
+    private static final List<NetworkRule> DEFAULT_RULES = Collections.singletonList(
+        NetworkRule.ssidPrefix("MMMUT", SOPHOS.id));
+
+    private static final Map<String, PortalAdapter> BY_ID = new ConcurrentHashMap<>();
+    private static volatile List<NetworkRule> siteRules = Collections.emptyList();
+    private static volatile NetworkRuleSet rules = new NetworkRuleSet(DEFAULT_RULES);
+
+    static {
+        for (PortalAdapter adapter : new PortalAdapter[] {SOPHOS, FORTIGATE, PFSENSE, GENERIC}) {
+            BY_ID.put(adapter.id, adapter);
+        }
+    }
+
+    private PortalAdapters() {
+    }
+
+    /** The adapter used when the network is unknown, e.g. without location permission. */
+    public static PortalAdapter getDefault() {
+        return SOPHOS;
+    }
+
+    /** Adds a site-specific adapter, replacing any adapter with the same id. */
+    public static void register(PortalAdapter adapter) {
+        if (adapter == null) {
+            throw new IllegalArgumentException("Adapter cannot be null");
+        }
+        BY_ID.put(adapter.id, adapter);
+        // Site rules naming it may have been left out while it was unknown
+        compileRules();
+    }
+
+    /** Returns the adapter with this id, or null. */
+    public static PortalAdapter forId(String id) {
+        return id != null ? BY_ID.get(id) : null;
+    }
+
+    /**
+     * Checks that every rule names a registered adapter.
+     *
+     * @throws IllegalArgumentException naming the first rule that does not
+     */
+    public static void checkRules(List<NetworkRule> rules) {
+        for (NetworkRule rule : rules) {
+            if (forId(rule.adapterId) == null) {
+                throw new IllegalArgumentException("Unknown portal adapter in rule: " + rule);
+            }
+        }
+    }
+
+    /**
+     * Replaces the site rules; the built-in rules stay in effect alongside them. Rules naming
+     * an adapter that is not registered are left out, so they never shadow a rule that would
+     * have found one.
+     */
+    public static synchronized void setRules(List<NetworkRule> siteRules) {
+        PortalAdapters.siteRules = new ArrayList<>(siteRules);
+        compileRules();
+    }
+
+    private static synchronized void compileRules() {
+        List<NetworkRule> combined = new ArrayList<>(siteRules.size() + DEFAULT_RULES.size());
+        for (NetworkRule rule : siteRules) {
+            if (BY_ID.containsKey(rule.adapterId)) {
+                combined.add(rule);
+            } else {
+                Log.w(TAG, "Ignoring rule for unknown portal adapter: " + rule);
+            }
+        }
+        combined.addAll(DEFAULT_RULES);
+        rules = new NetworkRuleSet(combined);
+    }
+
+    /**
+     * Returns the adapter chosen by the network rules, or null if this is not a portal we
+     * handle. See {@link NetworkRuleSet} for how competing rules are ranked.
+     */
+    public static PortalAdapter forNetwork(String ssid, String bssid, boolean captive) {
+        return forId(rules.match(ssid, bssid, captive));
+    }
+
+    /** Like {@link #forNetwork} for when only the SSID is known. */
+    public static PortalAdapter forSsid(String ssid) {
+        return forNetwork(ssid, null, false);
+    }
+
+    /**
+     * Picks the adapter for scheduled work: the one recorded when the work was scheduled,
+     * else whatever the SSID maps to, else {@link #getDefault()}.
+     */
+    public static PortalAdapter resolve(String adapterId, String ssid) {
+        PortalAdapter adapter = forId(adapterId);
+        if (adapter == null) {
+            adapter = forSsid(ssid);
+        }
+        return adapter != null ? adapter : getDefault();
+    }
+
+    private static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,291 @@
+package com.mmmut.wifiautologin.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import okhttp3.HttpUrl;
+import okio.BufferedSource;
+import okio.HashingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Everything LoginService needs to know about the portal's login form: where and how to
+ * submit it, which field names to use and the hidden inputs the page carries, plus the
+ * fingerprint of the page it was parsed from (ETag / Last-Modified and a hash of the body).
+ * How the form is filled in beyond that is up to the {@link PortalAdapter}.
+ *
+ * <p>Portals found through a redirect put a per-session value in the login page's query,
+ * such as FortiGate's {@code fgtauth?<magic>}, and usually echo it in a hidden input.
+ * Descriptors are therefore cached under {@link #pageKey(String)}, which leaves the query
+ * out, and {@link #forPage(String)} carries such values over from the new session's URL.
+ * Hidden inputs seen to change between sessions without coming from the URL are listed in
+ * {@link #sessionFields}; a descriptor with any cannot be replayed and the page is fetched.
+ */
+public final class PortalDescriptor {
+
+    static final String DEFAULT_USERNAME_FIELD = "username";
+    static final String DEFAULT_PASSWORD_FIELD = "password";
+
+    public final String pageUrl;
+    /** {@link #pageKey(String)} of {@link #pageUrl}, worked out once. */
+    public final String pageKey;
+    public final String actionUrl;
+    /** Lower-case "post" or "get". */
+    public final String method;
+    public final String usernameField;
+    public final String passwordField;
+    /** Hidden inputs of the login form in page order, e.g. tokens or mode values. */
+    public final Map<String, String> hiddenFields;
+    /** Hidden inputs whose values change every session and cannot be taken from the page URL. */
+    public final Set<String> sessionFields;
+    public final String etag;
+    public final String lastModified;
+    /** Hex SHA-256 of the login page body, or null for descriptors stored before it was kept. */
+    public final String contentHash;
+    public final long fetchedAt;
+
+    public PortalDescriptor(String pageUrl, String actionUrl, String method, String usernameField,
+                            String passwordField, Map<String, String> hiddenFields, Set<String> sessionFields,
+                            String etag, String lastModified, String contentHash, long fetchedAt) {
+        if (pageUrl == null || actionUrl == null) {
+            throw new IllegalArgumentException("Portal URLs cannot be null");
+        }
+        this.pageUrl = pageUrl;
+        this.pageKey = pageKey(pageUrl);
+        this.actionUrl = actionUrl;
+        this.method = "get".equals(method) ? "get" : "post";
+        this.usernameField = usernameField != null ? usernameField : DEFAULT_USERNAME_FIELD;
+        this.passwordField = passwordField != null ? passwordField : DEFAULT_PASSWORD_FIELD;
+        this.hiddenFields = hiddenFields != null
+            ? Collections.unmodifiableMap(new LinkedHashMap<>(hiddenFields))
+            : Collections.<String, String>emptyMap();
+        this.sessionFields = sessionFields != null && !sessionFields.isEmpty()
+            ? Collections.unmodifiableSet(new LinkedHashSet<>(sessionFields))
+            : Collections.<String>emptySet();
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * Extracts the login form from the page as it streams in, hashing the bytes on the way
+     * through; the rest of the page after the form is only hashed. Credential field names
+     * the page does not declare fall back to the adapter's, so a script-driven page without
+     * a plain {@code <form>} still yields a usable descriptor.
+     */
+    public static PortalDescriptor parse(String pageUrl, Source page, String etag, String lastModified,
+                                         PortalAdapter adapter) throws IOException {
+        HashingSource hashing = HashingSource.sha256(page);
+        BufferedSource buffered = Okio.buffer(hashing);
+        HtmlFormExtractor.FormModel form = HtmlFormExtractor.extract(buffered);
+        buffered.readAll(Okio.blackhole());
+        String contentHash = hashing.hash().hex();
+
+        String usernameField = form.usernameField;
+        String passwordField = form.passwordField;
+        if (adapter != null) {
+            if (usernameField == null) usernameField = adapter.usernameField;
+            if (passwordField == null) passwordField = adapter.passwordField;
+        }
+        return new PortalDescriptor(pageUrl, resolve(pageUrl, form.action), form.method, usernameField,
+            passwordField, form.hiddenFields, null, etag, lastModified, contentHash, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns a copy carrying fresh validators, used when the server answers 304 or sends
+     * a body with the same hash.
+     */
+    public PortalDescriptor revalidated(String etag, String lastModified) {
+        return new PortalDescriptor(pageUrl, actionUrl, method, usernameField, passwordField, hiddenFields,
+            sessionFields, etag != null ? etag : this.etag, lastModified != null ? lastModified : this.lastModified,
+            contentHash, System.currentTimeMillis());
+    }
+
+    /**
+     * The key descriptors are cached under: the page URL's scheme, host, port and path, so
+     * every session of a redirect-discovered portal shares one entry.
+     */
+    public static String pageKey(String pageUrl) {
+        HttpUrl url = HttpUrl.parse(pageUrl);
+        return url != null ? url.newBuilder().query(null).fragment(null).build().toString() : pageUrl;
+    }
+
+    /**
+     * This form as served at {@code pageUrl}, another session of the same page: hidden
+     * values and an action query that came from the old page's query are taken from the new
+     * one. Null when the form has {@link #sessionFields} and must be fetched instead.
+     */
+    public PortalDescriptor forPage(String pageUrl) {
+        if (this.pageUrl.equals(pageUrl)) {
+            return this;
+        }
+        return sessionFields.isEmpty() ? rebase(pageUrl) : null;
+    }
+
+    /**
+     * Returns this freshly parsed descriptor with {@link #sessionFields} learned from the
+     * previous one for the same page: hidden values that differ from what the previous
+     * descriptor would have carried over are per-session. Once learned they stay listed.
+     */
+    public PortalDescriptor withSessionFieldsFrom(PortalDescriptor previous) {
+        PortalDescriptor expected = previous != null && pageKey(previous.pageUrl).equals(pageKey(pageUrl))
+            ? previous.rebase(pageUrl)
+            : null;
+        if (expected == null) {
+            return this;
+        }
+
+        Set<String> session = new LinkedHashSet<>(previous.sessionFields);
+        for (Map.Entry<String, String> field : hiddenFields.entrySet()) {
+            String old = expected.hiddenFields.get(field.getKey());
+            if (old != null && !old.equals(field.getValue())) {
+                session.add(field.getKey());
+            }
+        }
+        if (session.equals(sessionFields)) {
+            return this;
+        }
+        return new PortalDescriptor(pageUrl, actionUrl, method, usernameField, passwordField, hiddenFields,
+            session, etag, lastModified, contentHash, fetchedAt);
+    }
+
+    private PortalDescriptor rebase(String pageUrl) {
+        HttpUrl from = HttpUrl.parse(this.pageUrl);
+        HttpUrl to = HttpUrl.parse(pageUrl);
+        if (from == null || to == null) {
+            return null;
+        }
+
+        Map<String, String> hidden = new LinkedHashMap<>();
+        for (Map.Entry<String, String> field : hiddenFields.entrySet()) {
+            hidden.put(field.getKey(), carryOver(field.getValue(), from, to));
+        }
+
+        String action = actionUrl;
+        HttpUrl parsedAction = HttpUrl.parse(actionUrl);
+        if (actionUrl.equals(this.pageUrl)) {
+            action = pageUrl;
+        } else if (parsedAction != null && from.encodedQuery() != null
+                && from.encodedQuery().equals(parsedAction.encodedQuery())) {
+            action = parsedAction.newBuilder().encodedQuery(to.encodedQuery()).build().toString();
+        }
+        return new PortalDescriptor(pageUrl, action, method, usernameField, passwordField, hidden,
+            sessionFields, etag, lastModified, contentHash, fetchedAt);
+    }
+
+    /** The new session's value for a hidden input that echoed the old page's query, if any. */
+    private static String carryOver(String value, HttpUrl from, HttpUrl to) {
+        if (value.isEmpty()) {
+            return value;
+        }
+        // FortiGate style: the whole query is the session token
+        if (value.equals(from.query()) && to.query() != null) {
+            return to.query();
+        }
+        for (int i = 0; i < from.querySize(); i++) {
+            if (value.equals(from.queryParameterValue(i))) {
+                String fresh = to.queryParameter(from.queryParameterName(i));
+                return fresh != null ? fresh : value;
+            }
+        }
+        return value;
+    }
+
+    /** True when {@code contentHash} is known to match the page this descriptor came from. */
+    public boolean hasContentHash(String contentHash) {
+        return this.contentHash != null && this.contentHash.equals(contentHash);
+    }
+
+    /** True when both descriptors would produce the same login POST. */
+    public boolean sameFormAs(PortalDescriptor other) {
+        return other != null
+            && actionUrl.equals(other.actionUrl)
+            && method.equals(other.method)
+            && usernameField.equals(other.usernameField)
+            && passwordField.equals(other.passwordField)
+            && hiddenFields.equals(other.hiddenFields);
+    }
+
+    public boolean isOlderThan(long maxAgeMillis) {
+        return System.currentTimeMillis() - fetchedAt > maxAgeMillis;
+    }
+
+    public String toJson() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("pageUrl", pageUrl);
+            json.put("actionUrl", actionUrl);
+            json.put("method", method);
+            json.put("usernameField", usernameField);
+            json.put("passwordField", passwordField);
+            json.put("hiddenFields", new JSONObject(hiddenFields));
+            if (!sessionFields.isEmpty()) {
+                json.put("sessionFields", new JSONArray(sessionFields));
+            }
+            json.putOpt("etag", etag);
+            json.putOpt("lastModified", lastModified);
+            json.putOpt("contentHash", contentHash);
+            json.put("fetchedAt", fetchedAt);
+            return json.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public static PortalDescriptor fromJson(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(value);
+            Map<String, String> hiddenFields = new LinkedHashMap<>();
+            JSONObject hidden = json.optJSONObject("hiddenFields");
+            if (hidden != null) {
+                Iterator<String> names = hidden.keys();
+                while (names.hasNext()) {
+                    String name = names.next();
+                    hiddenFields.put(name, hidden.getString(name));
+                }
+            }
+            Set<String> sessionFields = new LinkedHashSet<>();
+            JSONArray session = json.optJSONArray("sessionFields");
+            if (session != null) {
+                for (int i = 0; i < session.length(); i++) {
+                    sessionFields.add(session.getString(i));
+                }
+            }
+            return new PortalDescriptor(
+                json.getString("pageUrl"),
+                json.getString("actionUrl"),
+                json.optString("method", null),
+                json.optString("usernameField", null),
+                json.optString("passwordField", null),
+                hiddenFields,
+                sessionFields,
+                json.optString("etag", null),
+                json.optString("lastModified", null),
+                json.optString("contentHash", null),
+                json.optLong("fetchedAt", 0L));
+        } catch (JSONException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String resolve(String pageUrl, String action) {
+        if (action == null) {
+            return pageUrl;
+        }
+        HttpUrl base = HttpUrl.parse(pageUrl);
+        HttpUrl resolved = base != null ? base.resolve(action) : null;
+        return resolved != null ? resolved.toString() : pageUrl;
+    }
+}
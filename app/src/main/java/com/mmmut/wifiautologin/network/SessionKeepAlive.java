@@ -0,0 +1,90 @@
+package com.mmmut.wifiautologin.network;
+
+import android.util.Log;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends the portal's lightweight keepalive, which resets its idle timer without re-sending
+ * the password, and its logout call, both as described by the {@link PortalAdapter}. For
+ * the Sophos family the keepalive is {@code live?mode=192}, answered with
+ * {@code <ack>ack</ack>} while the session is live and {@code <ack>login_again</ack>} once
+ * it has expired.
+ */
+public class SessionKeepAlive {
+
+    private static final String TAG = "SessionKeepAlive";
+    private static final int TIMEOUT_SECONDS = 5;
+
+    public enum Status {
+        /** The portal acknowledged the ping; the session is still live. */
+        ALIVE,
+        /** The portal reports the session has expired and wants a fresh login. */
+        EXPIRED,
+        /** The portal could not be reached or gave no usable answer. */
+        UNREACHABLE
+    }
+
+    private final OkHttpClient client;
+    private final PortalAdapter adapter;
+    private final String pageUrl;
+
+    public SessionKeepAlive(OkHttpClient baseClient, PortalAdapter adapter, String pageUrl) {
+        if (baseClient == null || adapter == null || pageUrl == null) {
+            throw new IllegalArgumentException("Client, adapter and portal URL cannot be null");
+        }
+        this.client = baseClient.newBuilder()
+            .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .callTimeout(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS)
+            .build();
+        this.adapter = adapter;
+        this.pageUrl = pageUrl;
+    }
+
+    /** True when the adapter defines a keepalive call at all. */
+    public boolean isSupported() {
+        return adapter.keepAlive != null;
+    }
+
+    public Status ping(String rollNumber) {
+        return send(adapter.keepAlive, rollNumber, "Keepalive");
+    }
+
+    /** Ends the portal session. ALIVE here means the portal confirmed the logout. */
+    public Status logout(String rollNumber) {
+        return send(adapter.logout, rollNumber, "Logout");
+    }
+
+    private Status send(PortalAdapter.RequestTemplate template, String rollNumber, String label) {
+        Request request = template != null && rollNumber != null
+            ? template.toRequest(pageUrl, rollNumber, null)
+            : null;
+        if (request == null) {
+            return Status.UNREACHABLE;
+        }
+
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.w(TAG, label + " failed with status " + response.code());
+                return Status.UNREACHABLE;
+            }
+
+            switch (template.classifier().classify(response.body().source())) {
+                case SUCCESS:
+                    return Status.ALIVE;
+                case FAILURE:
+                case REJECTED:
+                    return Status.EXPIRED;
+                default:
+                    return Status.UNREACHABLE;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, label + " request failed: " + e.getMessage());
+            return Status.UNREACHABLE;
+        }
+    }
+}
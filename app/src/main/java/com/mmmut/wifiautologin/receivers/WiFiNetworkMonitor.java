@@ -0,0 +1,260 @@
+package com.mmmut.wifiautologin.receivers;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.mmmut.wifiautologin.data.EventLog;
+import com.mmmut.wifiautologin.data.LoginTraceStore;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.workers.LoginScheduler;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches Wi-Fi networks through {@link ConnectivityManager.NetworkCallback} and schedules
+ * a login as soon as a campus network comes up without validated internet access.
+ *
+ * <p>The in-process callback reacts within milliseconds of association. A second,
+ * PendingIntent-based registration wakes {@link WiFiConnectionReceiver} when the process is
+ * not running; starting the process re-registers the in-process callback, which then
+ * replays the current network state. While the process runs, {@link WiFiScanWatcher}
+ * warms up logins for campus networks that are in range or being joined.
+ */
+public final class WiFiNetworkMonitor {
+
+    private static final String TAG = "WiFiNetworkMonitor";
+    public static final String ACTION_NETWORK_EVENT = "com.mmmut.wifiautologin.action.NETWORK_EVENT";
+
+    private static final Object LOCK = new Object();
+    private static WiFiNetworkMonitor instance;
+
+    private final Context appContext;
+    private final ConnectivityManager connectivityManager;
+    /** Current Wi-Fi networks and their {@link EventLog} capability flags. */
+    private final Map<Network, Integer> wifiNetworks = new ConcurrentHashMap<>();
+    /** Networks a login was scheduled for, and whether they were captive at the time. */
+    private final Map<Network, Boolean> scheduledCaptive = new ConcurrentHashMap<>();
+
+    WiFiNetworkMonitor(Context appContext, ConnectivityManager connectivityManager) {
+        this.appContext = appContext;
+        this.connectivityManager = connectivityManager;
+    }
+
+    /** Registers the monitor once per process; later calls are no-ops. */
+    public static void start(Context context) {
+        if (context == null) {
+            return;
+        }
+
+        synchronized (LOCK) {
+            if (instance != null) {
+                return;
+            }
+
+            Context appContext = context.getApplicationContext();
+            ConnectivityManager connectivityManager =
+                (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (connectivityManager == null) {
+                Log.e(TAG, "ConnectivityManager is null");
+                return;
+            }
+
+            NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .build();
+
+            WiFiNetworkMonitor monitor = new WiFiNetworkMonitor(appContext, connectivityManager);
+            try {
+                connectivityManager.registerNetworkCallback(request, monitor.newCallback());
+                registerWakeUp(appContext, connectivityManager, request);
+                WiFiScanWatcher.register(appContext);
+                instance = monitor;
+                Log.d(TAG, "Network monitor registered");
+            } catch (Exception e) {
+                Log.e(TAG, "Error registering network callback", e);
+            }
+        }
+    }
+
+    /**
+     * Looks up a Wi-Fi network by the handle passed to the login worker. Returns null when
+     * the network has gone away in the meantime.
+     */
+    public static Network findNetwork(long networkHandle) {
+        WiFiNetworkMonitor monitor;
+        synchronized (LOCK) {
+            monitor = instance;
+        }
+        if (monitor != null) {
+            for (Network network : monitor.wifiNetworks.keySet()) {
+                if (network.getNetworkHandle() == networkHandle) {
+                    return network;
+                }
+            }
+        }
+        if (networkHandle != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return Network.fromNetworkHandle(networkHandle);
+        }
+        return null;
+    }
+
+    private static void registerWakeUp(Context context, ConnectivityManager connectivityManager,
+                                       NetworkRequest request) {
+        Intent intent = new Intent(context, WiFiConnectionReceiver.class)
+            .setAction(ACTION_NETWORK_EVENT);
+        // The system adds the network extras to this intent, so it must stay mutable
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, flags);
+        try {
+            connectivityManager.registerNetworkCallback(request, pendingIntent);
+        } catch (Exception e) {
+            Log.w(TAG, "Error registering wake-up callback", e);
+        }
+    }
+
+    ConnectivityManager.NetworkCallback newCallback() {
+        // SSIDs are only reported to callbacks that ask for location info on Android 12+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return new Callback(ConnectivityManager.NetworkCallback.FLAG_INCLUDE_LOCATION_INFO);
+        }
+        return new Callback();
+    }
+
+    private void onCapabilities(Network network, NetworkCapabilities capabilities) {
+        boolean captive = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL);
+        boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+
+        // Only log state changes, not every signal strength update
+        int flags = (validated ? EventLog.FLAG_VALIDATED : 0) | (captive ? EventLog.FLAG_CAPTIVE : 0);
+        Integer previousFlags = wifiNetworks.put(network, flags);
+        boolean changed = previousFlags == null || previousFlags != flags;
+        if (changed) {
+            EventLog.getInstance(appContext).record(EventLog.Type.NETWORK, network.getNetworkHandle(), flags);
+        }
+
+        if (validated && !captive) {
+            Log.d(TAG, "Network " + network + " is validated, no login needed");
+            // Ends the time-to-internet trace of the login that got us here, if any
+            LoginTraceStore.getInstance(appContext).onValidated(network.getNetworkHandle());
+            return;
+        }
+
+        // Capabilities change constantly (signal strength and so on); once a login is
+        // scheduled, only act again when the captive-portal flag newly appears. Until then
+        // every update is another chance, e.g. after credentials are saved or auto-login is
+        // turned on while connected.
+        Boolean previous = scheduledCaptive.get(network);
+        if (previous != null && (previous || !captive)) {
+            return;
+        }
+
+        WifiInfo wifiInfo = wifiInfoOf(capabilities);
+        String ssid = ssidOf(wifiInfo);
+        if (ssid == null) {
+            Log.d(TAG, "SSID unavailable for network " + network);
+            return;
+        }
+
+        PortalAdapter adapter = PortalAdapters.forNetwork(ssid, wifiInfo.getBSSID(), captive);
+        if (changed) {
+            EventLog.getInstance(appContext).record(EventLog.Type.RULE_MATCH, network.getNetworkHandle(), 0,
+                ssid + " -> " + (adapter != null ? adapter.id : "none"));
+        }
+        if (adapter == null) {
+            Log.d(TAG, "No portal rule matches network: " + ssid);
+            return;
+        }
+
+        try {
+            PreferenceManager preferenceManager = new PreferenceManager(appContext);
+            if (!preferenceManager.isAutoLoginEnabled()) {
+                Log.d(TAG, "Auto-login is disabled");
+                return;
+            }
+            if (!preferenceManager.hasCredentials()) {
+                Log.d(TAG, "No credentials saved");
+                return;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading preferences", e);
+            return;
+        }
+
+        Log.d(TAG, "Network " + ssid + " (" + adapter.id + ") needs login (captive=" + captive + ")");
+        LoginScheduler.scheduleLogin(appContext, LoginScheduler.networkKey(ssid, network.getNetworkHandle()),
+            ssid, adapter.id, network.getNetworkHandle(), 0);
+        scheduledCaptive.put(network, captive);
+    }
+
+    private void onLost(Network network) {
+        wifiNetworks.remove(network);
+        EventLog.getInstance(appContext).record(EventLog.Type.NETWORK_LOST, network.getNetworkHandle(), 0);
+        LoginTraceStore.getInstance(appContext).onLost(network.getNetworkHandle());
+        if (scheduledCaptive.remove(network) != null) {
+            Log.d(TAG, "Network " + network + " lost, cancelling login and heartbeat");
+            LoginScheduler.cancelLogin(appContext);
+            LoginScheduler.cancelHeartbeat(appContext);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private WifiInfo wifiInfoOf(NetworkCapabilities capabilities) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && capabilities.getTransportInfo() instanceof WifiInfo) {
+            return (WifiInfo) capabilities.getTransportInfo();
+        }
+        WifiManager wifiManager = (WifiManager) appContext.getSystemService(Context.WIFI_SERVICE);
+        return wifiManager != null ? wifiManager.getConnectionInfo() : null;
+    }
+
+    private static String ssidOf(WifiInfo wifiInfo) {
+        String ssid = wifiInfo != null ? wifiInfo.getSSID() : null;
+        if (ssid == null || WifiManager.UNKNOWN_SSID.equals(ssid)) {
+            return null;
+        }
+        return ssid.replace("\"", "");
+    }
+
+    private final class Callback extends ConnectivityManager.NetworkCallback {
+
+        Callback() {
+            super();
+        }
+
+        Callback(int flags) {
+            super(flags);
+        }
+
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+            try {
+                onCapabilities(network, capabilities);
+            } catch (Exception e) {
+                Log.e(TAG, "Error handling capability change", e);
+            }
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            try {
+                WiFiNetworkMonitor.this.onLost(network);
+            } catch (Exception e) {
+                Log.e(TAG, "Error handling lost network", e);
+            }
+        }
+    }
+}
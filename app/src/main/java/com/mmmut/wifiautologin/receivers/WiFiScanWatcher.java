@@ -0,0 +1,117 @@
+package com.mmmut.wifiautologin.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.NetworkInfo;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.workers.LoginWarmup;
+import java.util.List;
+
+/**
+ * Predicts logins before {@link WiFiNetworkMonitor} can see the network: a campus SSID in
+ * the scan results, or the Wi-Fi state moving through connecting, authenticating and
+ * obtaining an address for one, starts a {@link LoginWarmup}. By the time the network is
+ * available and the login is scheduled, its inputs are already in memory.
+ *
+ * <p>Registered for the lifetime of the process alongside the network callback. Scan results
+ * need location access; without it this simply never fires and logins start cold.
+ */
+final class WiFiScanWatcher extends BroadcastReceiver {
+
+    private static final String TAG = "WiFiScanWatcher";
+
+    private final WifiManager wifiManager;
+
+    private WiFiScanWatcher(WifiManager wifiManager) {
+        this.wifiManager = wifiManager;
+    }
+
+    static void register(Context appContext) {
+        WifiManager wifiManager = (WifiManager) appContext.getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager == null) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        try {
+            ContextCompat.registerReceiver(appContext, new WiFiScanWatcher(wifiManager), filter,
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+        } catch (Exception e) {
+            Log.w(TAG, "Error registering scan watcher", e);
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        try {
+            if (WifiManager.SCAN_RESULTS_AVAILABLE_ACTION.equals(intent.getAction())) {
+                onScanResults(context);
+            } else if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(intent.getAction())) {
+                onStateChanged(context, intent);
+            }
+        } catch (SecurityException e) {
+            Log.d(TAG, "No location access, cannot read Wi-Fi state");
+        } catch (Exception e) {
+            Log.e(TAG, "Error handling Wi-Fi event", e);
+        }
+    }
+
+    private void onScanResults(Context context) {
+        List<ScanResult> results = wifiManager.getScanResults();
+        if (results == null) {
+            return;
+        }
+        for (ScanResult result : results) {
+            String ssid = ssidOf(result);
+            PortalAdapter adapter = ssid != null ? PortalAdapters.forNetwork(ssid, result.BSSID, false) : null;
+            if (adapter != null) {
+                LoginWarmup.warm(context, adapter, ssid, LoginWarmup.TRIGGER_SCAN);
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void onStateChanged(Context context, Intent intent) {
+        NetworkInfo info = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+        if (info == null) {
+            return;
+        }
+        switch (info.getDetailedState()) {
+            case CONNECTING:
+            case AUTHENTICATING:
+            case OBTAINING_IPADDR:
+                break;
+            default:
+                return;
+        }
+
+        // Mid-association the connection info already names the network being joined
+        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+        String ssid = wifiInfo != null ? wifiInfo.getSSID() : null;
+        if (ssid == null || WifiManager.UNKNOWN_SSID.equals(ssid)) {
+            return;
+        }
+        ssid = ssid.replace("\"", "");
+        PortalAdapter adapter = PortalAdapters.forNetwork(ssid, wifiInfo.getBSSID(), false);
+        if (adapter != null) {
+            LoginWarmup.warm(context, adapter, ssid, LoginWarmup.TRIGGER_CONNECTING);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String ssidOf(ScanResult result) {
+        String ssid = result.SSID;
+        return ssid == null || ssid.isEmpty() ? null : ssid;
+    }
+}
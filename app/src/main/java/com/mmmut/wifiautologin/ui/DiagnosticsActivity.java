@@ -0,0 +1,144 @@
+package com.mmmut.wifiautologin.ui;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.Toast;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
+import com.mmmut.wifiautologin.data.DiagnosticsBundle;
+import com.mmmut.wifiautologin.data.LoginMetricsStore;
+import com.mmmut.wifiautologin.databinding.ActivityDiagnosticsBinding;
+import com.mmmut.wifiautologin.network.AdaptiveTimeouts;
+import com.mmmut.wifiautologin.network.LogLinearHistogram;
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows p50/p95/p99 for every login phase recorded by {@link LoginMetricsStore}, plus the
+ * latency distributions behind the adaptive timeouts. Both are read off the main thread.
+ * Export zips up the logs with {@link DiagnosticsBundle} and hands them to a share sheet.
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final String TAG = "DiagnosticsActivity";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private ActivityDiagnosticsBinding binding;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = ActivityDiagnosticsBinding.inflate(getLayoutInflater());
+        setContentView(binding.getRoot());
+
+        setSupportActionBar(binding.toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Diagnostics");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        binding.btnResetMetrics.setOnClickListener(v -> executor.execute(() -> {
+            LoginMetricsStore.getInstance(this).clear();
+            load();
+        }));
+        binding.btnExport.setOnClickListener(v -> {
+            binding.btnExport.setEnabled(false);
+            executor.execute(this::export);
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        executor.execute(this::load);
+    }
+
+    @Override
+    protected void onDestroy() {
+        executor.shutdownNow();
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        finish();
+        return true;
+    }
+
+    private void load() {
+        String phases;
+        String timeouts;
+        try {
+            phases = formatPhases(LoginMetricsStore.getInstance(this));
+            timeouts = AdaptiveTimeouts.getInstance(this).getDebugSnapshot();
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading diagnostics", e);
+            phases = "Error: " + e.getMessage();
+            timeouts = "";
+        }
+
+        final String phasesText = phases;
+        final String timeoutsText = timeouts.isEmpty() ? "No samples yet" : timeouts;
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            binding.tvPhases.setText(phasesText);
+            binding.tvTimeouts.setText(timeoutsText);
+        });
+    }
+
+    private void export() {
+        File bundle;
+        try {
+            bundle = DiagnosticsBundle.write(this);
+        } catch (Exception e) {
+            Log.e(TAG, "Error exporting diagnostics", e);
+            bundle = null;
+        }
+
+        final File exported = bundle;
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            binding.btnExport.setEnabled(true);
+            if (exported == null) {
+                Toast.makeText(this, "Could not export diagnostics", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider", exported);
+            Intent share = new Intent(Intent.ACTION_SEND)
+                .setType("application/zip")
+                .putExtra(Intent.EXTRA_STREAM, uri)
+                .putExtra(Intent.EXTRA_SUBJECT, "WiFi Auto Login diagnostics")
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(share, "Export diagnostics"));
+        });
+    }
+
+    private static String formatPhases(LoginMetricsStore metrics) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "%-26s %5s %6s %6s %6s\n", "", "n", "p50", "p95", "p99"));
+        for (LoginMetricsStore.Phase phase : LoginMetricsStore.Phase.values()) {
+            LogLinearHistogram.Summary summary = metrics.summarize(phase);
+            text.append(String.format(Locale.US, "%-26s %5d ", phase.label, summary.count));
+            if (summary.count == 0) {
+                text.append(String.format(Locale.US, "%6s %6s %6s\n", "-", "-", "-"));
+            } else {
+                text.append(String.format(Locale.US, "%6s %6s %6s\n",
+                    formatMillis(summary.p50), formatMillis(summary.p95), formatMillis(summary.p99)));
+            }
+        }
+        text.setLength(text.length() - 1);
+        return text.toString();
+    }
+
+    private static String formatMillis(long millis) {
+        return millis < 10_000 ? millis + "ms" : (millis / 1000) + "s";
+    }
+}
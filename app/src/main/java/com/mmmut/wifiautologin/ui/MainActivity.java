@@ -1,28 +1,47 @@
 package com.mmmut.wifiautologin.ui;
 
 import android.Manifest;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Trace;
+import android.text.format.DateFormat;
 import android.util.Log;
+import android.view.View;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.core.splashscreen.SplashScreen;
 import androidx.lifecycle.ViewModelProvider;
+import com.mmmut.wifiautologin.data.CredentialStore;
+import com.mmmut.wifiautologin.data.LoginAttemptRecord;
 import com.mmmut.wifiautologin.databinding.ActivityMainBinding;
 import com.mmmut.wifiautologin.viewmodel.MainViewModel;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_CODE = 1001;
+    private static final String TRACE_ON_CREATE = "MainActivity.onCreate";
+    private static final long MAX_SPLASH_MILLIS = 1500; // hard cap if storage is slow
     private ActivityMainBinding binding;
     private MainViewModel viewModel;
+    private StartupGate startupGate;
+    private boolean reportedFullyDrawn;
+    private boolean reportedSplash;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Startup trace marker: compare this section and the "Fully drawn" time in Perfetto
+        // or logcat to measure startup with and without a ready credential store
+        Trace.beginSection(TRACE_ON_CREATE);
         try {
+            // The system splash stays up until the credentials can be shown, capped in time
+            startupGate = new StartupGate(StartupGate.SYSTEM_CLOCK, MAX_SPLASH_MILLIS);
+            installSplashScreen();
             super.onCreate(savedInstanceState);
             Log.d(TAG, "MainActivity onCreate() called");
             
@@ -49,6 +68,13 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
             
+            final CredentialStore credentialStore = CredentialStore.getInstance(this);
+            credentialStore.whenReady(() -> {
+                // Opens the encrypted store and decrypts the credentials into its cache
+                credentialStore.hasCredentials();
+                startupGate.markStoreReady();
+            });
+            
             setupToolbar();
             setupUI();
             observeViewModel();
@@ -60,6 +86,25 @@ public class MainActivity extends AppCompatActivity {
             Log.e(TAG, "Critical error in MainActivity onCreate", e);
             Toast.makeText(this, "App initialization failed", Toast.LENGTH_LONG).show();
             finish();
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void installSplashScreen() {
+        try {
+            SplashScreen splashScreen = SplashScreen.installSplashScreen(this);
+            splashScreen.setKeepOnScreenCondition(() -> {
+                boolean keep = startupGate.shouldKeepOnScreen();
+                if (!keep && !reportedSplash) {
+                    reportedSplash = true;
+                    Log.d(TAG, "Splash released (" + startupGate.releaseReason() + ") after "
+                        + startupGate.releaseMillis() + " ms");
+                }
+                return keep;
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "Error installing splash screen", e);
         }
     }
 
@@ -97,12 +142,13 @@ public class MainActivity extends AppCompatActivity {
                     viewModel.setAutoLoginEnabled(isChecked));
             }
             
-            // Set up swipe refresh
-            if (binding.swipeRefresh != null) {
-                binding.swipeRefresh.setOnRefreshListener(() -> {
-                    viewModel.refreshStatus();
-                    binding.swipeRefresh.setRefreshing(false);
-                });
+            if (binding.btnLoadMoreHistory != null) {
+                binding.btnLoadMoreHistory.setOnClickListener(v -> viewModel.loadMoreHistory());
+            }
+            
+            if (binding.btnDiagnostics != null) {
+                binding.btnDiagnostics.setOnClickListener(v ->
+                    startActivity(new Intent(this, DiagnosticsActivity.class)));
             }
         } catch (Exception e) {
             Log.e(TAG, "Error setting up UI", e);
@@ -146,6 +192,32 @@ public class MainActivity extends AppCompatActivity {
                 }
             });
             
+            // Credential fields stay as placeholders until the encrypted store has decrypted them
+            viewModel.getCredentialsLoaded().observe(this, loaded -> {
+                boolean ready = loaded != null && loaded;
+                if (binding != null) {
+                    if (binding.etRollNumber != null) binding.etRollNumber.setEnabled(ready);
+                    if (binding.etPassword != null) binding.etPassword.setEnabled(ready);
+                    if (binding.btnSave != null) binding.btnSave.setEnabled(ready);
+                }
+                if (ready) {
+                    startupGate.markStateReady();
+                }
+                if (ready && !reportedFullyDrawn) {
+                    reportedFullyDrawn = true;
+                    reportFullyDrawn();
+                }
+            });
+            
+            viewModel.getHistory().observe(this, this::renderHistory);
+            
+            viewModel.getHasMoreHistory().observe(this, hasMore -> {
+                if (binding != null && binding.btnLoadMoreHistory != null) {
+                    binding.btnLoadMoreHistory.setVisibility(
+                        hasMore != null && hasMore ? View.VISIBLE : View.GONE);
+                }
+            });
+            
             viewModel.getToastMessage().observe(this, message -> {
                 if (message != null) {
                     Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
@@ -156,6 +228,38 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private void renderHistory(List<LoginAttemptRecord> records) {
+        if (binding == null || binding.tvHistory == null) {
+            return;
+        }
+        if (records == null || records.isEmpty()) {
+            binding.tvHistory.setText("No login attempts yet");
+            return;
+        }
+        
+        StringBuilder text = new StringBuilder();
+        for (LoginAttemptRecord record : records) {
+            if (text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(DateFormat.format("dd MMM HH:mm:ss", record.epochMillis))
+                .append("  ").append(record.success ? "OK" : "Failed");
+            if (record.httpCode > 0) {
+                text.append(" (HTTP ").append(record.httpCode).append(')');
+            }
+            if (record.totalMillis >= 0) {
+                text.append(", ").append(record.totalMillis).append(" ms");
+            }
+            if (!record.ssid.isEmpty()) {
+                text.append(" on ").append(record.ssid);
+            }
+            if (record.retryCount > 0) {
+                text.append(", retry ").append(record.retryCount);
+            }
+        }
+        binding.tvHistory.setText(text);
+    }
+
     private void saveCredentials() {
         if (binding == null) {
             Toast.makeText(this, "UI not available", Toast.LENGTH_SHORT).show();
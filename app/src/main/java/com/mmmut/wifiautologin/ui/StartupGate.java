@@ -0,0 +1,84 @@
+package com.mmmut.wifiautologin.ui;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how long the system splash screen stays up on launch: until the encrypted
+ * credential store is open and {@code MainViewModel} has published the decrypted
+ * credentials, so the first frame shows real values, but never longer than a hard cap in
+ * case storage is slow. Polled by the splash screen before every frame.
+ *
+ * <p>The ready signals may arrive on any thread. The release time is kept so startup can be
+ * measured from logcat and replayed in tests.
+ */
+final class StartupGate {
+
+    /** Injectable clock so tests can drive the cap. */
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final Clock clock;
+    private final long startNanos;
+    private final long maxNanos;
+
+    private volatile boolean storeReady;
+    private volatile boolean stateReady;
+    private volatile long releasedNanos = -1;
+    private volatile String releaseReason;
+
+    StartupGate(Clock clock, long maxMillis) {
+        this.clock = clock;
+        this.startNanos = clock.nanoTime();
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /** The credential store has opened and decrypted the credentials into its cache. */
+    void markStoreReady() {
+        storeReady = true;
+    }
+
+    /** The ViewModel has published the values the first frame shows. */
+    void markStateReady() {
+        stateReady = true;
+    }
+
+    /** True while the splash should stay; once false it stays false. */
+    boolean shouldKeepOnScreen() {
+        if (releasedNanos >= 0) {
+            return false;
+        }
+        long now = clock.nanoTime();
+        if (storeReady && stateReady) {
+            release(now, "ready");
+        } else if (now - startNanos >= maxNanos) {
+            release(now, "timeout");
+        } else {
+            return true;
+        }
+        return false;
+    }
+
+    /** Milliseconds from creation to release, or -1 while the splash is still up. */
+    long releaseMillis() {
+        long released = releasedNanos;
+        return released >= 0 ? TimeUnit.NANOSECONDS.toMillis(released - startNanos) : -1;
+    }
+
+    /** "ready" or "timeout" once released, else null. */
+    String releaseReason() {
+        return releaseReason;
+    }
+
+    private void release(long now, String reason) {
+        releaseReason = reason;
+        releasedNanos = now;
+    }
+}
@@ -0,0 +1,89 @@
+package com.mmmut.wifiautologin.viewmodel;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.lifecycle.LiveData;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Formats an epoch-millis timestamp as "dd/MM/yyyy HH:mm:ss (2 min ago)".
+ *
+ * <p>The absolute part is formatted once per timestamp; only the relative suffix changes over
+ * time. While observed, the value re-renders from the cached millis exactly when the suffix
+ * would change (next minute, next hour), so nothing is re-read from preferences and no timer
+ * runs while the screen is in the background. A timestamp of 0 means "never" and yields null.
+ */
+class LoginTimeLiveData extends LiveData<String> {
+
+    // DateTimeFormatter is immutable, so one instance is safe to share between threads
+    private static final DateTimeFormatter FORMAT =
+        DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
+
+    private static final long MINUTE_MILLIS = 60 * 1000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    };
+
+    private long timestamp;
+    private String absolute;
+
+    /** Must be called on the main thread. */
+    void setTimestamp(long timestamp) {
+        if (timestamp == this.timestamp && absolute != null) {
+            return;
+        }
+        this.timestamp = timestamp;
+        absolute = timestamp > 0
+            ? FORMAT.format(Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()))
+            : null;
+        render();
+    }
+
+    @Override
+    protected void onActive() {
+        render();
+    }
+
+    @Override
+    protected void onInactive() {
+        handler.removeCallbacks(tick);
+    }
+
+    private void render() {
+        handler.removeCallbacks(tick);
+        if (absolute == null) {
+            setValue(null);
+            return;
+        }
+
+        long elapsed = Math.max(0L, System.currentTimeMillis() - timestamp);
+        setValue(absolute + " (" + relative(elapsed) + ")");
+
+        if (hasActiveObservers()) {
+            long unit = elapsed < HOUR_MILLIS ? MINUTE_MILLIS : elapsed < DAY_MILLIS ? HOUR_MILLIS : DAY_MILLIS;
+            handler.postDelayed(tick, unit - elapsed % unit);
+        }
+    }
+
+    static String relative(long elapsedMillis) {
+        if (elapsedMillis < MINUTE_MILLIS) {
+            return "just now";
+        } else if (elapsedMillis < HOUR_MILLIS) {
+            return elapsedMillis / MINUTE_MILLIS + " min ago";
+        } else if (elapsedMillis < DAY_MILLIS) {
+            return elapsedMillis / HOUR_MILLIS + " h ago";
+        }
+        long days = elapsedMillis / DAY_MILLIS;
+        return days == 1 ? "1 day ago" : days + " days ago";
+    }
+}
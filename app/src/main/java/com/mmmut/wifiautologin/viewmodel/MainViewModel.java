@@ -1,63 +1,102 @@
 package com.mmmut.wifiautologin.viewmodel;
 
 import android.app.Application;
+import android.content.SharedPreferences;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import com.mmmut.wifiautologin.data.CredentialStore;
+import com.mmmut.wifiautologin.data.LoginAttemptRecord;
+import com.mmmut.wifiautologin.data.LoginHistoryStore;
 import com.mmmut.wifiautologin.data.PreferenceManager;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainViewModel extends AndroidViewModel {
 
+    private static final int HISTORY_PAGE_SIZE = 10;
+
     private final PreferenceManager preferenceManager;
+    private final CredentialStore credentialStore;
     private final MutableLiveData<String> rollNumber = new MutableLiveData<>("");
     private final MutableLiveData<String> password = new MutableLiveData<>("");
     private final MutableLiveData<Boolean> autoLoginEnabled = new MutableLiveData<>(false);
-    private final MutableLiveData<String> lastLoginTime = new MutableLiveData<>(null);
+    private final LoginTimeLiveData lastLoginTime = new LoginTimeLiveData();
     private final MutableLiveData<String> lastLoginResult = new MutableLiveData<>(null);
     private final MutableLiveData<String> toastMessage = new MutableLiveData<>(null);
+    private final MutableLiveData<Boolean> credentialsLoaded = new MutableLiveData<>(false);
+    private final MutableLiveData<List<LoginAttemptRecord>> history =
+        new MutableLiveData<>(Collections.<LoginAttemptRecord>emptyList());
+    private final MutableLiveData<Boolean> hasMoreHistory = new MutableLiveData<>(false);
+    private final ExecutorService historyExecutor = Executors.newSingleThreadExecutor();
+    private final LoginHistoryStore historyStore;
+    private final List<LoginAttemptRecord> loadedHistory = new ArrayList<>(); // historyExecutor only
+    private long lastLoginMillis;
+
+    // Held in a field: SharedPreferences only keeps a weak reference to its listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener statusListener =
+        new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                publishStatus();
+            }
+        };
 
     public MainViewModel(@NonNull Application application) {
         super(application);
         PreferenceManager tempPrefManager = null;
         try {
+            // Cheap: credential decryption is deferred to the shared background store
             tempPrefManager = new PreferenceManager(application);
             android.util.Log.d("MainViewModel", "MainViewModel initialized successfully");
         } catch (Exception e) {
-            android.util.Log.e("MainViewModel", "Error initializing MainViewModel, using fallback", e);
-            // Create a fallback without encryption
-            try {
-                tempPrefManager = new PreferenceManager(application);
-            } catch (Exception ex) {
-                android.util.Log.e("MainViewModel", "Critical error - cannot create PreferenceManager", ex);
-                // Create a minimal fallback
-                tempPrefManager = null;
-            }
+            android.util.Log.e("MainViewModel", "Critical error - cannot create PreferenceManager", e);
         }
         preferenceManager = tempPrefManager;
+        credentialStore = CredentialStore.getInstance(application);
+        historyStore = LoginHistoryStore.getInstance(application);
+        if (preferenceManager != null) {
+            preferenceManager.registerOnChangeListener(statusListener);
+        }
     }
 
+    /**
+     * Publishes the plain settings right away and the credentials once the encrypted store
+     * has decrypted them off the main thread. {@link #getCredentialsLoaded()} flips to true
+     * when the credential fields hold real values instead of placeholders.
+     */
     public void loadCredentials() {
         try {
             if (preferenceManager != null) {
-                String roll = preferenceManager.getRollNumber();
-                String pass = preferenceManager.getPassword();
-                Boolean enabled = preferenceManager.isAutoLoginEnabled();
-                String time = preferenceManager.getLastLoginTime();
-                String result = preferenceManager.getLastLoginResult();
+                publishStatus();
                 
-                rollNumber.setValue(roll != null ? roll : "");
-                password.setValue(pass != null ? pass : "");
-                autoLoginEnabled.setValue(enabled != null ? enabled : false);
-                lastLoginTime.setValue(time);
-                lastLoginResult.setValue(result);
+                credentialStore.whenReady(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            String roll = preferenceManager.getRollNumber();
+                            String pass = preferenceManager.getPassword();
+                            rollNumber.postValue(roll != null ? roll : "");
+                            password.postValue(pass != null ? pass : "");
+                        } catch (Exception e) {
+                            android.util.Log.e("MainViewModel", "Error loading credentials", e);
+                        } finally {
+                            credentialsLoaded.postValue(true);
+                        }
+                    }
+                });
             } else {
                 // Set default values if PreferenceManager is null
                 rollNumber.setValue("");
                 password.setValue("");
                 autoLoginEnabled.setValue(false);
-                lastLoginTime.setValue(null);
+                lastLoginTime.setTimestamp(0L);
                 lastLoginResult.setValue(null);
+                credentialsLoaded.setValue(true);
             }
         } catch (Exception e) {
             android.util.Log.e("MainViewModel", "Error loading credentials", e);
@@ -65,21 +104,34 @@ public class MainViewModel extends AndroidViewModel {
             rollNumber.setValue("");
             password.setValue("");
             autoLoginEnabled.setValue(false);
-            lastLoginTime.setValue(null);
+            lastLoginTime.setTimestamp(0L);
             lastLoginResult.setValue(null);
+            credentialsLoaded.setValue(true);
         }
     }
 
     public void saveCredentials(String rollNumber, String password) {
         try {
             if (preferenceManager != null) {
-                if (rollNumber == null) rollNumber = "";
-                if (password == null) password = "";
+                final String roll = rollNumber != null ? rollNumber : "";
+                final String pass = password != null ? password : "";
                 
-                preferenceManager.saveCredentials(rollNumber, password);
-                this.rollNumber.setValue(rollNumber);
-                this.password.setValue(password);
-                toastMessage.setValue("Credentials saved successfully");
+                this.rollNumber.setValue(roll);
+                this.password.setValue(pass);
+                
+                // Encrypting the values is Keystore work, so keep it off the main thread
+                credentialStore.whenReady(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            preferenceManager.saveCredentials(roll, pass);
+                            toastMessage.postValue("Credentials saved successfully");
+                        } catch (Exception e) {
+                            android.util.Log.e("MainViewModel", "Error saving credentials", e);
+                            toastMessage.postValue("Error saving credentials");
+                        }
+                    }
+                });
             } else {
                 toastMessage.setValue("Error: App not properly initialized");
             }
@@ -104,17 +156,65 @@ public class MainViewModel extends AndroidViewModel {
         }
     }
 
-    public void refreshStatus() {
+    /**
+     * Copies the plain settings and login status into the LiveData. Runs on the main thread,
+     * initially and whenever the preferences change, e.g. when a background login finishes;
+     * the values come from the preferences' in-memory map, not from disk.
+     */
+    private void publishStatus() {
         try {
-            if (preferenceManager != null) {
-                String time = preferenceManager.getLastLoginTime();
-                String result = preferenceManager.getLastLoginResult();
-                lastLoginTime.setValue(time);
-                lastLoginResult.setValue(result);
+            autoLoginEnabled.setValue(preferenceManager.isAutoLoginEnabled());
+            lastLoginResult.setValue(preferenceManager.getLastLoginResult());
+
+            long time = preferenceManager.getLastLoginTime();
+            lastLoginTime.setTimestamp(time);
+            if (time != lastLoginMillis) {
+                // A new attempt was recorded along with the new time
+                lastLoginMillis = time;
+                refreshHistory();
             }
         } catch (Exception e) {
-            android.util.Log.e("MainViewModel", "Error refreshing status", e);
+            android.util.Log.e("MainViewModel", "Error publishing status", e);
+        }
+    }
+
+    /** Reloads the first page of login history, dropping any pages loaded before. */
+    public void refreshHistory() {
+        loadHistory(true);
+    }
+
+    /** Appends the next page of older attempts to {@link #getHistory()}. */
+    public void loadMoreHistory() {
+        loadHistory(false);
+    }
+
+    private void loadHistory(final boolean reset) {
+        // Pages are read and appended on one thread, so they always arrive in order and
+        // only the new page is decoded from the store
+        historyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (reset) {
+                        loadedHistory.clear();
+                    }
+                    loadedHistory.addAll(historyStore.read(loadedHistory.size(), HISTORY_PAGE_SIZE));
+                    history.postValue(new ArrayList<>(loadedHistory));
+                    hasMoreHistory.postValue(loadedHistory.size() < historyStore.size());
+                } catch (Exception e) {
+                    android.util.Log.e("MainViewModel", "Error loading login history", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        if (preferenceManager != null) {
+            preferenceManager.unregisterOnChangeListener(statusListener);
         }
+        historyExecutor.shutdownNow();
+        super.onCleared();
     }
 
     // Getters
@@ -124,4 +224,7 @@ public class MainViewModel extends AndroidViewModel {
     public LiveData<String> getLastLoginTime() { return lastLoginTime; }
     public LiveData<String> getLastLoginResult() { return lastLoginResult; }
     public LiveData<String> getToastMessage() { return toastMessage; }
+    public LiveData<Boolean> getCredentialsLoaded() { return credentialsLoaded; }
+    public LiveData<List<LoginAttemptRecord>> getHistory() { return history; }
+    public LiveData<Boolean> getHasMoreHistory() { return hasMoreHistory; }
 }
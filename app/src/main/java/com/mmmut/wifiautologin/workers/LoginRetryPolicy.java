@@ -0,0 +1,38 @@
+package com.mmmut.wifiautologin.workers;
+
+import com.mmmut.wifiautologin.network.LoginService;
+import java.util.Random;
+
+/**
+ * Whether a failed login gets another run, and the backoff base it starts from. WorkManager
+ * does the waiting and the doubling; a new association starts a new request, so the attempt
+ * cap is per association.
+ */
+final class LoginRetryPolicy {
+
+    static final int MAX_LOGIN_ATTEMPTS = 5;
+    // WorkManager's minimum backoff; the jitter spreads out devices that all lost the portal
+    // at once so their retries don't arrive in lockstep
+    static final long BACKOFF_BASE_MILLIS = 10_000;
+    static final int BACKOFF_JITTER_MILLIS = 5_000;
+
+    private LoginRetryPolicy() {
+    }
+
+    /**
+     * True when a login that ended this way should run again.
+     *
+     * @param runAttemptCount the worker's run attempt count, 0 on the first run
+     */
+    static boolean shouldRetry(LoginService.LoginResult.Outcome outcome, int runAttemptCount) {
+        return outcome.isRetryable() && runAttemptCount + 1 < MAX_LOGIN_ATTEMPTS;
+    }
+
+    /**
+     * WorkManager doubles the backoff itself but has no jitter, so the base is randomized per
+     * request instead; every retry of that request keeps the same random offset.
+     */
+    static long backoffBaseMillis(Random random) {
+        return BACKOFF_BASE_MILLIS + random.nextInt(BACKOFF_JITTER_MILLIS + 1);
+    }
+}
@@ -0,0 +1,171 @@
+package com.mmmut.wifiautologin.workers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.work.BackoffPolicy;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import com.mmmut.wifiautologin.network.LoginTrace;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single entry point for scheduling logins. One Wi-Fi association fires several
+ * broadcasts, so every request goes through one unique work chain:
+ * <ul>
+ *   <li>requests for the network that already has a login pending or running are dropped
+ *       ({@link ExistingWorkPolicy#KEEP}), and the short initial delay acts as the
+ *       debounce window that collects the rest of the burst;</li>
+ *   <li>a request for a different network replaces the chain
+ *       ({@link ExistingWorkPolicy#REPLACE}), cancelling the stale login.</li>
+ * </ul>
+ * Transient failures are retried by WorkManager with exponential backoff, as
+ * {@link LoginRetryPolicy} decides.
+ */
+public final class LoginScheduler {
+
+    private static final String TAG = "LoginScheduler";
+    public static final String UNIQUE_WORK_NAME = "wifi_login";
+    public static final String WORK_TAG = "wifi_login";
+    public static final String HEARTBEAT_WORK_NAME = "session_heartbeat";
+    private static final long DEBOUNCE_MILLIS = 1500;
+
+    private static final String PREF_NAME = "wifi_auto_login_prefs_scheduler";
+    private static final String KEY_NETWORK = "scheduled_network";
+
+    private LoginScheduler() {
+    }
+
+    /**
+     * @param networkKey identifies the association, e.g. SSID plus Wi-Fi network ID
+     */
+    public static void scheduleLogin(Context context, String networkKey, String ssid) {
+        scheduleLogin(context, networkKey, ssid, null, 0L, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param portalId      id of the {@link com.mmmut.wifiautologin.network.PortalAdapter}
+     *                      the network rules chose, or null to choose by SSID when the work runs
+     * @param networkHandle {@link android.net.Network#getNetworkHandle()} of the network to
+     *                      bind the login to, or 0 for the default network
+     * @param delayMillis   debounce window; callers that already deliver one event per
+     *                      association pass 0 so the login starts immediately
+     */
+    public static void scheduleLogin(Context context, String networkKey, String ssid, String portalId,
+                                     long networkHandle, long delayMillis) {
+        if (context == null || networkKey == null) {
+            Log.e(TAG, "Cannot schedule login without context and network");
+            return;
+        }
+
+        try {
+            SharedPreferences prefs = prefs(context);
+            boolean sameNetwork = networkKey.equals(prefs.getString(KEY_NETWORK, null));
+            ExistingWorkPolicy policy = sameNetwork ? ExistingWorkPolicy.KEEP : ExistingWorkPolicy.REPLACE;
+
+            // Minted here, on the network event, so the trace covers the debounce and queueing
+            String traceId = LoginTrace.newId();
+            OneTimeWorkRequest loginWork = new OneTimeWorkRequest.Builder(WiFiLoginWorker.class)
+                .addTag(WORK_TAG)
+                .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL,
+                    LoginRetryPolicy.backoffBaseMillis(ThreadLocalRandom.current()), TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                    .putString(WiFiLoginWorker.KEY_SSID, ssid)
+                    .putString(WiFiLoginWorker.KEY_PORTAL, portalId)
+                    .putLong(WiFiLoginWorker.KEY_NETWORK_HANDLE, networkHandle)
+                    .putLong(WiFiLoginWorker.KEY_SCHEDULED_AT, System.currentTimeMillis())
+                    .putString(WiFiLoginWorker.KEY_TRACE_ID, traceId)
+                    .build())
+                .build();
+
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(UNIQUE_WORK_NAME, policy, loginWork);
+            prefs.edit().putString(KEY_NETWORK, networkKey).apply();
+
+            Log.d(TAG, "Login " + traceId + " scheduled for " + networkKey + " (" + policy + ")");
+        } catch (Exception e) {
+            Log.e(TAG, "Error scheduling login", e);
+        }
+    }
+
+    /** Cancels any pending or running login, e.g. once we have left the network. */
+    public static void cancelLogin(Context context) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            SharedPreferences prefs = prefs(context);
+            if (prefs.getString(KEY_NETWORK, null) == null) {
+                return;
+            }
+            WorkManager.getInstance(context).cancelUniqueWork(UNIQUE_WORK_NAME);
+            prefs.edit().remove(KEY_NETWORK).apply();
+            Log.d(TAG, "Cancelled stale login work");
+        } catch (Exception e) {
+            Log.e(TAG, "Error cancelling login", e);
+        }
+    }
+
+    /**
+     * Schedules the next keepalive. No constraints are set: JobScheduler already batches
+     * delayed jobs with other work, and a network constraint would wait for validation,
+     * which never comes once the portal session has expired.
+     *
+     * @param fromHeartbeat true when called by the running heartbeat itself; the next one is
+     *                      then appended behind it, because replacing would cancel the caller
+     */
+    public static void scheduleHeartbeat(Context context, String ssid, String portalId, long networkHandle,
+                                         long delayMillis, boolean fromHeartbeat) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            OneTimeWorkRequest heartbeat = new OneTimeWorkRequest.Builder(SessionHeartbeatWorker.class)
+                .addTag(HEARTBEAT_WORK_NAME)
+                .setInitialDelay(delayMillis, TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                    .putString(WiFiLoginWorker.KEY_SSID, ssid)
+                    .putString(WiFiLoginWorker.KEY_PORTAL, portalId)
+                    .putLong(WiFiLoginWorker.KEY_NETWORK_HANDLE, networkHandle)
+                    .build())
+                .build();
+
+            ExistingWorkPolicy policy = fromHeartbeat
+                ? ExistingWorkPolicy.APPEND_OR_REPLACE
+                : ExistingWorkPolicy.REPLACE;
+            WorkManager.getInstance(context)
+                .enqueueUniqueWork(HEARTBEAT_WORK_NAME, policy, heartbeat);
+
+            Log.d(TAG, "Heartbeat scheduled in " + delayMillis + " ms");
+        } catch (Exception e) {
+            Log.e(TAG, "Error scheduling heartbeat", e);
+        }
+    }
+
+    public static void cancelHeartbeat(Context context) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            WorkManager.getInstance(context).cancelUniqueWork(HEARTBEAT_WORK_NAME);
+        } catch (Exception e) {
+            Log.e(TAG, "Error cancelling heartbeat", e);
+        }
+    }
+
+    /** Key for the association a login runs on; matches what the network monitor uses. */
+    public static String networkKey(String ssid, long networkHandle) {
+        return ssid + "#" + networkHandle;
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+}
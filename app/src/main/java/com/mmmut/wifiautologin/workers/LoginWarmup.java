@@ -0,0 +1,127 @@
+package com.mmmut.wifiautologin.workers;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.mmmut.wifiautologin.data.EventLog;
+import com.mmmut.wifiautologin.data.PortalDescriptorCache;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.network.AdaptiveTimeouts;
+import com.mmmut.wifiautologin.network.EndpointLatencyTracker;
+import com.mmmut.wifiautologin.network.LoginService;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets a login ready before the network it is for exists. When scan results or the Wi-Fi
+ * state show that a campus network is in range or being joined, everything the worker reads
+ * from disk is loaded up front: the credentials are decrypted into their short-lived cache,
+ * the portal's descriptor is parsed into memory, the learned timeouts and endpoint latencies
+ * are loaded and the login request is compiled, so once the network comes up the worker's
+ * only latency is the network itself.
+ *
+ * <p>Addresses are not resolved ahead of time: before association there is no route to the
+ * campus resolver, and the built-in portals are addressed by IP anyway.
+ */
+public final class LoginWarmup {
+
+    private static final String TAG = "LoginWarmup";
+
+    /** Warm-up trigger codes, as logged in {@link EventLog.Type#WARMUP} events. */
+    public static final int TRIGGER_SCAN = 0;
+    public static final int TRIGGER_CONNECTING = 1;
+
+    // Below the credential cache's lifetime, so a warm-up is still warm when the login runs
+    private static final long WARM_MILLIS = 50_000;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LoginWarmup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Adapter id -> elapsedRealtime of its last warm-up
+    private static final Map<String, Long> WARMED = new ConcurrentHashMap<>();
+
+    private LoginWarmup() {
+    }
+
+    /**
+     * Warms up a login through {@code adapter} in the background, unless that was done
+     * recently. Cheap to call for every scan result.
+     */
+    public static void warm(Context context, final PortalAdapter adapter, final String ssid, final int trigger) {
+        if (context == null || adapter == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        Long last = WARMED.get(adapter.id);
+        if (last != null && now - last < WARM_MILLIS) {
+            return;
+        }
+        WARMED.put(adapter.id, now);
+
+        final Context appContext = context.getApplicationContext();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = SystemClock.elapsedRealtime();
+                    if (!prepare(appContext, adapter, ssid)) {
+                        WARMED.remove(adapter.id);
+                        return;
+                    }
+                    long spent = SystemClock.elapsedRealtime() - start;
+                    EventLog.getInstance(appContext).record(EventLog.Type.WARMUP, trigger, spent,
+                        ssid + " -> " + adapter.id);
+                    Log.d(TAG, "Warmed up login for " + ssid + " (" + adapter.id + ") in " + spent + "ms");
+                } catch (Exception e) {
+                    WARMED.remove(adapter.id);
+                    Log.w(TAG, "Login warm-up failed", e);
+                }
+            }
+        });
+    }
+
+    /** Whether a login through this adapter was warmed up recently; recorded in login traces. */
+    public static boolean isWarm(String adapterId) {
+        Long last = adapterId != null ? WARMED.get(adapterId) : null;
+        return last != null && SystemClock.elapsedRealtime() - last < WARM_MILLIS;
+    }
+
+    /** Waits for the warm-ups started so far, so tests can replay an association step by step. */
+    static void awaitQueued(long timeout, TimeUnit unit) throws Exception {
+        EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                // Runs after everything queued before it
+            }
+        }).get(timeout, unit);
+    }
+
+    private static boolean prepare(Context context, PortalAdapter adapter, String ssid) {
+        PreferenceManager preferenceManager = new PreferenceManager(context);
+        // Also decrypts the credentials into the credential store's cache
+        if (!preferenceManager.isAutoLoginEnabled() || !preferenceManager.hasCredentials()) {
+            return false;
+        }
+        PortalDescriptorCache descriptorCache = new PortalDescriptorCache(context);
+        descriptorCache.warm(adapter.endpoints);
+        new LoginService.Builder()
+            .adapter(adapter)
+            .descriptorCache(descriptorCache)
+            .adaptiveTimeouts(AdaptiveTimeouts.getInstance(context))
+            .latencyTracker(EndpointLatencyTracker.getInstance(context))
+            .build()
+            .prepare(ssid);
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package com.mmmut.wifiautologin.workers;
+
+import android.content.Context;
+import android.net.Network;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+import com.mmmut.wifiautologin.WiFiAutoLoginApplication;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.data.SessionStore;
+import com.mmmut.wifiautologin.network.NetworkBinding;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.network.SessionKeepAlive;
+import com.mmmut.wifiautologin.receivers.WiFiNetworkMonitor;
+import okhttp3.OkHttpClient;
+
+/**
+ * Keeps the portal session from expiring while we stay on the network. Sends the portal's
+ * keepalive shortly before the learned session lifetime runs out, and only falls back to a
+ * full login through {@link LoginScheduler} when the keepalive fails.
+ */
+public class SessionHeartbeatWorker extends Worker {
+
+    private static final String TAG = "SessionHeartbeatWorker";
+
+    public SessionHeartbeatWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Log.d(TAG, "Session heartbeat started");
+
+        try {
+            Context context = getApplicationContext();
+            String ssid = getInputData().getString(WiFiLoginWorker.KEY_SSID);
+            long networkHandle = getInputData().getLong(WiFiLoginWorker.KEY_NETWORK_HANDLE, 0L);
+
+            PreferenceManager preferenceManager = new PreferenceManager(context);
+            if (!preferenceManager.isAutoLoginEnabled() || !preferenceManager.hasCredentials()) {
+                Log.d(TAG, "Auto-login off or no credentials, stopping heartbeat");
+                return Result.success();
+            }
+
+            PortalAdapter adapter = PortalAdapters.resolve(
+                getInputData().getString(WiFiLoginWorker.KEY_PORTAL), ssid);
+            if (adapter.keepAlive == null || adapter.endpoints.isEmpty()) {
+                Log.d(TAG, "Portal " + adapter.id + " has no keepalive, stopping heartbeat");
+                return Result.success();
+            }
+
+            Network network = networkHandle != 0 ? WiFiNetworkMonitor.findNetwork(networkHandle) : null;
+            OkHttpClient client = NetworkBinding.bind(WiFiAutoLoginApplication.getHttpClient(), network);
+            SessionKeepAlive keepAlive = new SessionKeepAlive(client, adapter, adapter.endpoints.get(0));
+
+            SessionStore sessionStore = new SessionStore(context);
+            SessionKeepAlive.Status status = keepAlive.ping(preferenceManager.getRollNumber());
+            long now = System.currentTimeMillis();
+
+            if (status == SessionKeepAlive.Status.ALIVE) {
+                sessionStore.onKeepAlive(now);
+                long delay = sessionStore.nextKeepAliveDelay(now);
+                Log.d(TAG, "Session alive, next keepalive in " + delay + " ms");
+                LoginScheduler.scheduleHeartbeat(context, ssid, adapter.id, networkHandle, delay, true);
+                return Result.success();
+            }
+
+            if (status == SessionKeepAlive.Status.EXPIRED) {
+                sessionStore.onExpired(now);
+                Log.i(TAG, "Session expired, learned lifetime now " + sessionStore.getLifetimeMillis() + " ms");
+            } else {
+                Log.w(TAG, "Keepalive unreachable, falling back to full login");
+            }
+
+            // The login worker schedules the next heartbeat once it succeeds
+            if (ssid != null) {
+                LoginScheduler.scheduleLogin(context, LoginScheduler.networkKey(ssid, networkHandle),
+                    ssid, adapter.id, networkHandle, 0);
+            }
+            return Result.success();
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error during session heartbeat", e);
+            return Result.failure();
+        }
+    }
+}
@@ -1,77 +1,362 @@
 package com.mmmut.wifiautologin.workers;
 
 import android.content.Context;
+import android.net.Network;
 import android.util.Log;
 import androidx.annotation.NonNull;
-import androidx.work.Worker;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+import androidx.work.ListenableWorker;
 import androidx.work.WorkerParameters;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mmmut.wifiautologin.WiFiAutoLoginApplication;
+import com.mmmut.wifiautologin.data.EventLog;
+import com.mmmut.wifiautologin.data.LoginAttemptRecord;
+import com.mmmut.wifiautologin.data.LoginHistoryStore;
+import com.mmmut.wifiautologin.data.LoginMetricsStore;
+import com.mmmut.wifiautologin.data.LoginTraceStore;
+import com.mmmut.wifiautologin.data.PortalDescriptorCache;
 import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.data.SessionStore;
+import com.mmmut.wifiautologin.network.AdaptiveTimeouts;
+import com.mmmut.wifiautologin.network.Cancellable;
+import com.mmmut.wifiautologin.network.CaptivePortalProbe;
+import com.mmmut.wifiautologin.network.EndpointLatencyTracker;
+import com.mmmut.wifiautologin.network.LoginResponseClassifier;
 import com.mmmut.wifiautologin.network.LoginService;
+import com.mmmut.wifiautologin.network.LoginTrace;
+import com.mmmut.wifiautologin.network.NetworkBinding;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.receivers.WiFiNetworkMonitor;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
 
-public class WiFiLoginWorker extends Worker {
+/**
+ * Probes the network and logs in when needed, without holding a WorkManager thread while
+ * requests are out: only the short synchronous start (credentials, network binding, loading
+ * what the login reads from disk) runs on the background executor, and the probe and login
+ * continue in OkHttp callbacks. When WorkManager stops the work, the HTTP call in flight is
+ * cancelled.
+ */
+public class WiFiLoginWorker extends ListenableWorker {
 
     private static final String TAG = "WiFiLoginWorker";
+    public static final String KEY_SSID = "ssid";
+    public static final String KEY_PORTAL = "portal";
+    public static final String KEY_NETWORK_HANDLE = "network_handle";
+    /** Wall-clock time the login was scheduled, for the scheduling-delay metric. */
+    public static final String KEY_SCHEDULED_AT = "scheduled_at";
+    /** Correlation id minted with the network event; see {@link LoginTrace}. */
+    public static final String KEY_TRACE_ID = "trace_id";
+
+    private final String probeUrl;
+    private volatile Cancellable inFlight;
+    private volatile long startNanos;
+    private volatile LoginTrace trace;
 
     public WiFiLoginWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        this(context, workerParams, CaptivePortalProbe.DEFAULT_PROBE_URL);
+    }
+
+    WiFiLoginWorker(Context context, WorkerParameters workerParams, String probeUrl) {
         super(context, workerParams);
+        this.probeUrl = probeUrl;
     }
 
     @NonNull
     @Override
-    public Result doWork() {
+    public ListenableFuture<Result> startWork() {
+        startNanos = System.nanoTime();
+        // startWork is called on the main thread and reading credentials may wait on
+        // Keystore setup, so the synchronous part goes to the background executor
+        return CallbackToFutureAdapter.getFuture(new CallbackToFutureAdapter.Resolver<Result>() {
+            @Override
+            public Object attachCompleter(@NonNull final CallbackToFutureAdapter.Completer<Result> completer) {
+                getBackgroundExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        begin(completer);
+                    }
+                });
+                return TAG;
+            }
+        });
+    }
+
+    @Override
+    public void onStopped() {
+        // Network lost or a newer login replaced this one: abort the request in flight
+        Cancellable operation = inFlight;
+        if (operation != null) {
+            Log.d(TAG, "Login work stopped, cancelling request in flight");
+            operation.cancel();
+        }
+    }
+
+    private void track(Cancellable operation) {
+        inFlight = operation;
+        if (isStopped()) {
+            operation.cancel();
+        }
+    }
+
+    private void begin(final CallbackToFutureAdapter.Completer<Result> completer) {
         Log.d(TAG, "WiFi login work started");
         
         PreferenceManager preferenceManager = null;
         
         try {
-            Context context = getApplicationContext();
+            final Context context = getApplicationContext();
             if (context == null) {
                 Log.e(TAG, "Application context is null");
-                return Result.failure();
+                completer.set(Result.failure());
+                return;
             }
             
             preferenceManager = new PreferenceManager(context);
             
+            // Only the first run measures scheduling; retries are delayed on purpose
+            long scheduledAt = getInputData().getLong(KEY_SCHEDULED_AT, 0L);
+            if (scheduledAt > 0 && getRunAttemptCount() == 0) {
+                LoginMetricsStore.getInstance(context).record(LoginMetricsStore.Phase.SCHEDULE,
+                    System.currentTimeMillis() - scheduledAt);
+            }
+            startTrace(scheduledAt);
+            EventLog.getInstance(context).record(EventLog.Type.WORK_START, getRunAttemptCount(),
+                scheduledAt > 0 ? System.currentTimeMillis() - scheduledAt : -1, trace.id);
+            
             // Get saved credentials
-            String rollNumber = preferenceManager.getRollNumber();
-            String password = preferenceManager.getPassword();
+            final String rollNumber = preferenceManager.getRollNumber();
+            final String password = preferenceManager.getPassword();
             
             if (rollNumber == null || rollNumber.isEmpty() || 
                 password == null || password.isEmpty()) {
                 Log.e(TAG, "No credentials available");
-                if (preferenceManager != null) {
-                    preferenceManager.setLastLoginResult("Failed: No credentials");
+                preferenceManager.setLastLoginResult("Failed: No credentials");
+                finishTrace(context, "no credentials");
+                completer.set(Result.failure());
+                return;
+            }
+            
+            // Pin every request to the Wi-Fi network that triggered the login
+            final long networkHandle = getInputData().getLong(KEY_NETWORK_HANDLE, 0L);
+            Network network = networkHandle != 0 ? WiFiNetworkMonitor.findNetwork(networkHandle) : null;
+            final OkHttpClient client = NetworkBinding.bind(WiFiAutoLoginApplication.getHttpClient(), network);
+            
+            // Stores are opened and the login compiled here, so the OkHttp threads that carry
+            // the probe and login never wait on disk
+            final String ssid = getInputData().getString(KEY_SSID);
+            final PortalAdapter adapter = PortalAdapters.resolve(getInputData().getString(KEY_PORTAL), ssid);
+            final LoginService.Builder loginBuilder = prepareLogin(context, adapter, client, ssid);
+            final SessionStore sessionStore = new SessionStore(context);
+            
+            // Skip the full login when the portal session is still live
+            final PreferenceManager prefs = preferenceManager;
+            final CaptivePortalProbe probe = new CaptivePortalProbe(client, probeUrl);
+            final LoginTrace.Span probeSpan = trace.begin(LoginTrace.LANE_WORKER, "probe");
+            track(probe.probeAsync(new CaptivePortalProbe.ProbeCallback() {
+                @Override
+                public void onState(CaptivePortalProbe.State state) {
+                    probeSpan.end(state.name());
+                    EventLog.getInstance(context).record(EventLog.Type.PROBE, 0, 0, state.name());
+                    onProbed(completer, prefs, context, loginBuilder, adapter, sessionStore, ssid,
+                        networkHandle, state, probe.getPortalUrl(), rollNumber, password);
                 }
-                return Result.failure();
+            }));
+            
+        } catch (Exception e) {
+            fail(completer, preferenceManager, e);
+        }
+    }
+
+    /**
+     * Everything the login reads from disk, loaded on the calling thread: the endpoint
+     * latencies and, for each fixed login page, the cached descriptor, the learned timeouts
+     * and the compiled login request. Portals found by redirect only get the latencies, since
+     * their page is not known before the probe.
+     */
+    private LoginService.Builder prepareLogin(Context context, PortalAdapter adapter, OkHttpClient client,
+                                              String ssid) {
+        PortalDescriptorCache descriptorCache = new PortalDescriptorCache(context);
+        descriptorCache.warm(adapter.endpoints);
+        LoginService.Builder builder = new LoginService.Builder()
+            .adapter(adapter)
+            .client(client)
+            .descriptorCache(descriptorCache)
+            .adaptiveTimeouts(AdaptiveTimeouts.getInstance(context))
+            .latencyTracker(EndpointLatencyTracker.getInstance(context))
+            .metrics(LoginMetricsStore.getInstance(context))
+            .trace(trace)
+            .eventLog(EventLog.getInstance(context));
+        builder.build().prepare(ssid);
+        return builder;
+    }
+
+    private void onProbed(final CallbackToFutureAdapter.Completer<Result> completer,
+                          final PreferenceManager preferenceManager, final Context context,
+                          LoginService.Builder builder, final PortalAdapter adapter,
+                          final SessionStore sessionStore, final String ssid, final long networkHandle,
+                          CaptivePortalProbe.State state, String portalUrl, String rollNumber, String password) {
+        if (isStopped()) {
+            return;
+        }
+        
+        try {
+            trace.setAttribute("portal", adapter.id);
+            // Lets exported traces compare time to internet with and without a warm-up
+            trace.setAttribute("warm", String.valueOf(LoginWarmup.isWarm(adapter.id)));
+            
+            if (state == CaptivePortalProbe.State.AUTHENTICATED) {
+                Log.d(TAG, "Already authenticated, skipping login");
+                preferenceManager.incrementLoginsAvoided();
+                preferenceManager.setLastLoginResult("Already logged in");
+                scheduleHeartbeat(context, sessionStore, adapter, networkHandle, false);
+                LoginMetricsStore.getInstance(context).flush();
+                finishTrace(context, "already authenticated");
+                completer.set(Result.success());
+                return;
             }
             
             // Perform login
-            LoginService loginService = new LoginService();
-            LoginService.LoginResult result = loginService.performLogin(rollNumber, password);
-            
-            // Update preferences with result
-            if (preferenceManager != null) {
-                preferenceManager.setLastLoginTime(System.currentTimeMillis());
-                preferenceManager.setLastLoginResult(result.message);
+            if (adapter.endpoints.isEmpty() && portalUrl != null) {
+                // Portals without a fixed address are logged in wherever they redirected us
+                builder.endpoints(Collections.singletonList(portalUrl));
             }
+            final LoginService loginService = builder.build();
+            final LoginTrace.Span loginSpan = trace.begin(LoginTrace.LANE_WORKER, "login");
+            track(loginService.performLoginAsync(rollNumber, password, ssid, new LoginService.LoginCallback() {
+                @Override
+                public void onResult(LoginService.LoginResult result) {
+                    loginSpan.end(result.outcome.name());
+                    onLoginResult(completer, preferenceManager, context, loginService, adapter, sessionStore,
+                        networkHandle, ssid, result);
+                }
+            }));
             
-            Log.d(TAG, "Login result: " + result.message);
+        } catch (Exception e) {
+            fail(completer, preferenceManager, e);
+        }
+    }
+
+    private void onLoginResult(CallbackToFutureAdapter.Completer<Result> completer,
+                               PreferenceManager preferenceManager, Context context,
+                               LoginService loginService, PortalAdapter adapter, SessionStore sessionStore,
+                               long networkHandle, String ssid, LoginService.LoginResult result) {
+        try {
+            // Record history first: the status update below is what wakes up the UI
+            recordAttempt(context, ssid, result);
+            LoginMetricsStore metrics = LoginMetricsStore.getInstance(context);
+            long verdictMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            metrics.record(LoginMetricsStore.Phase.VERDICT, verdictMillis);
+            EventLog.getInstance(context).record(EventLog.Type.RESULT, result.outcome.ordinal(), verdictMillis,
+                result.message);
+            metrics.flush();
+            AdaptiveTimeouts.getInstance(context).flush();
+            EndpointLatencyTracker.getInstance(context).flush();
+            finishTrace(context, result.outcome.name());
             
-            return result.success ? Result.success() : Result.failure();
+            // Transient failures (timeouts, dropped connections, 5xx) get another go with
+            // backoff until this association has used up its attempts
+            boolean retry = LoginRetryPolicy.shouldRetry(result.outcome, getRunAttemptCount());
             
-        } catch (Exception e) {
-            Log.e(TAG, "Error during login", e);
+            // Update preferences with result
+            preferenceManager.setLastLoginTime(System.currentTimeMillis());
+            preferenceManager.setLastLoginResult(retry ? result.message + " (retrying)" : result.message);
             
-            try {
-                if (preferenceManager != null) {
-                    preferenceManager.setLastLoginTime(System.currentTimeMillis());
-                    preferenceManager.setLastLoginResult("Failed: " + e.getMessage());
-                }
-            } catch (Exception ex) {
-                Log.e(TAG, "Error updating login result", ex);
+            Log.d(TAG, "Login result: " + result.outcome + " - " + result.message
+                + " (run " + (getRunAttemptCount() + 1) + ")");
+            
+            // Now that we are online, refresh the portal descriptor if it has gone stale
+            // and start keeping the new session alive
+            if (result.success) {
+                // Online means validated by the system, which the network monitor reports later
+                LoginTraceStore.getInstance(context).awaitValidation(networkHandle, trace);
+                loginService.revalidateDescriptorIfStale();
+                scheduleHeartbeat(context, sessionStore, adapter, networkHandle, true);
+                completer.set(Result.success());
+            } else {
+                completer.set(retry ? Result.retry() : Result.failure());
             }
             
-            return Result.failure();
+        } catch (Exception e) {
+            fail(completer, preferenceManager, e);
+        }
+    }
+
+    private void fail(CallbackToFutureAdapter.Completer<Result> completer,
+                      PreferenceManager preferenceManager, Exception e) {
+        Log.e(TAG, "Error during login", e);
+        
+        try {
+            finishTrace(getApplicationContext(), "error: " + e.getMessage());
+            AdaptiveTimeouts.getInstance(getApplicationContext()).flush();
+            EndpointLatencyTracker.getInstance(getApplicationContext()).flush();
+            if (preferenceManager != null) {
+                preferenceManager.setLastLoginTime(System.currentTimeMillis());
+                preferenceManager.setLastLoginResult("Failed: " + e.getMessage());
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, "Error updating login result", ex);
+        }
+        
+        completer.set(Result.failure());
+    }
+
+    /** Starts this run's trace, back-dated to the network event that scheduled the login. */
+    private void startTrace(long scheduledAt) {
+        long now = System.currentTimeMillis();
+        LoginTrace started = new LoginTrace(getInputData().getString(KEY_TRACE_ID), getRunAttemptCount(),
+            scheduledAt > 0 ? scheduledAt : now);
+        started.setAttribute("ssid", getInputData().getString(KEY_SSID));
+        // Time spent debouncing, queued in WorkManager or waiting out a retry's backoff
+        started.span(LoginTrace.LANE_WORKER, "queued", 0, started.nowMicros(),
+            "run " + getRunAttemptCount());
+        trace = started;
+    }
+
+    private void finishTrace(Context context, String verdict) {
+        LoginTrace finished = trace;
+        if (finished == null || context == null) {
+            return;
+        }
+        finished.instant(LoginTrace.LANE_WORKER, "verdict", verdict);
+        LoginTraceStore.getInstance(context).save(finished);
+    }
+
+    private void recordAttempt(Context context, String ssid, LoginService.LoginResult result) {
+        int verdict;
+        if (result.verdict == LoginResponseClassifier.Verdict.SUCCESS) {
+            verdict = LoginAttemptRecord.VERDICT_SUCCESS;
+        } else if (result.verdict == LoginResponseClassifier.Verdict.FAILURE
+            || result.verdict == LoginResponseClassifier.Verdict.REJECTED) {
+            verdict = LoginAttemptRecord.VERDICT_FAILURE;
+        } else {
+            verdict = LoginAttemptRecord.VERDICT_UNKNOWN;
+        }
+
+        try {
+            LoginHistoryStore.getInstance(context).append(new LoginAttemptRecord(
+                System.currentTimeMillis(), ssid, result.gateway, (int) result.connectMillis,
+                (int) result.firstByteMillis, (int) result.totalMillis, result.httpCode, verdict,
+                getRunAttemptCount(), result.success));
+        } catch (Exception e) {
+            Log.e(TAG, "Error recording login attempt", e);
+        }
+    }
+
+    private void scheduleHeartbeat(Context context, SessionStore sessionStore, PortalAdapter adapter,
+                                   long networkHandle, boolean newSession) {
+        // Without a keepalive call (or a fixed portal address to send it to) the system's
+        // captive-portal detection is what brings us back once the session expires
+        if (adapter.keepAlive == null || adapter.endpoints.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (newSession) {
+            sessionStore.onLogin(now);
         }
+        LoginScheduler.scheduleHeartbeat(context, getInputData().getString(KEY_SSID), adapter.id,
+            networkHandle, sessionStore.nextKeepAliveDelay(now), false);
     }
 }
@@ -0,0 +1,8 @@
+package com.mmmut.wifiautologin;
+
+/**
+ * JUnit category for timing and allocation benchmarks. They are left out of the regular
+ * unit test run and run with {@code ./gradlew testDebugUnitTest -Pbenchmarks}.
+ */
+public interface Benchmark {
+}
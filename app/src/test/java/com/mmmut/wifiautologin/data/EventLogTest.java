@@ -0,0 +1,139 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventLogTest {
+
+    /** "yyyy-MM-dd HH:mm:ss.SSS " in front of every decoded event. */
+    private static final int TIMESTAMP_CHARS = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private EventLog log;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "events");
+        log = new EventLog(directory);
+    }
+
+    @Test
+    public void eventsReadBackAsWritten() throws IOException {
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < 253) {
+            longText.append('x');
+        }
+        // Two bytes in UTF-8, so only the first of them fits in 255
+        longText.append("\u00e9\u00e9");
+
+        long before = System.currentTimeMillis();
+        log.record(EventLog.Type.NETWORK, 100, EventLog.FLAG_VALIDATED | EventLog.FLAG_CAPTIVE);
+        log.record(EventLog.Type.RULE_MATCH, 100, 0, "MMMUT-Hostel -> sophos");
+        log.record(EventLog.Type.HTTP_PHASE, 3, Long.MAX_VALUE, "172.16.1.3:8090");
+        log.record(EventLog.Type.RESULT, 0, -1_500, "Caf\u00e9 \ud83d\udcf6 login");
+        log.record(EventLog.Type.PROBE, 0, 0, longText.toString());
+        log.record(EventLog.Type.NETWORK_LOST, Long.MIN_VALUE, 0);
+        log.flush();
+
+        List<String> lines = read();
+        assertEquals(Arrays.asList(
+            "NETWORK network=100 flags=3",
+            "RULE_MATCH network=100 MMMUT-Hostel -> sophos",
+            "HTTP_PHASE phase=3 ms=" + Long.MAX_VALUE + " 172.16.1.3:8090",
+            "RESULT outcome=0 ms=-1500 Caf\u00e9 \ud83d\udcf6 login",
+            "PROBE " + longText.substring(0, 254),
+            "NETWORK_LOST network=" + Long.MIN_VALUE), withoutTimestamps(lines));
+        assertTrue(lines.get(0), lines.get(0).compareTo(timestamp(before)) >= 0);
+    }
+
+    @Test
+    public void fullFileRotatesAndTheOldestEventsGo() throws IOException {
+        String text = "event text of about fifty bytes, to fill the file";
+        int count = 0;
+        // Well over two files' worth, so the first file has been rotated away. Flushed every
+        // hundred events so none are dropped, and stopped where the current file has events
+        while (count < 10_000 || log.files().length < 2) {
+            for (int i = 0; i < 100; i++) {
+                log.record(EventLog.Type.WORK_START, count++, 0, text);
+            }
+            log.flush();
+        }
+
+        File[] files = log.files();
+        assertEquals(2, files.length);
+        assertEquals("events.1.bin", files[0].getName());
+        assertTrue(totalBytes() <= 2 * EventLog.MAX_FILE_BYTES + 16 * 1024);
+
+        // Oldest first and without gaps, ending with the last event recorded
+        List<String> lines = withoutTimestamps(read());
+        long first = runOf(lines.get(0));
+        assertTrue("nothing was rotated away", first > 0);
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(lines.get(i), first + i, runOf(lines.get(i)));
+        }
+        assertEquals(count - 1, runOf(lines.get(lines.size() - 1)));
+    }
+
+    @Test
+    public void unknownFilesAreReportedNotDecoded() throws IOException {
+        assertTrue(directory.mkdirs());
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "events.1.bin"))) {
+            out.write(new byte[] {'W', 'E', 'L', '0', 0, 0, 0, 1, 0, 4});
+        }
+        log.record(EventLog.Type.DROPPED, 7, 0);
+        log.flush();
+
+        List<String> lines = read();
+        assertEquals("# events.1.bin: unknown format", lines.get(0));
+        assertEquals("DROPPED count=7", lines.get(1).substring(TIMESTAMP_CHARS));
+    }
+
+    private List<String> read() throws IOException {
+        StringWriter out = new StringWriter();
+        log.writeText(out);
+        return Arrays.asList(out.toString().split("\n"));
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (File file : log.files()) {
+            total += file.length();
+        }
+        return total;
+    }
+
+    private static List<String> withoutTimestamps(List<String> lines) {
+        List<String> events = new ArrayList<>();
+        for (String line : lines) {
+            events.add(line.substring(TIMESTAMP_CHARS));
+        }
+        return events;
+    }
+
+    private static long runOf(String workStart) {
+        String run = workStart.substring("WORK_START run=".length());
+        return Long.parseLong(run.substring(0, run.indexOf(' ')));
+    }
+
+    private static String timestamp(long epochMillis) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(epochMillis));
+    }
+}
@@ -0,0 +1,159 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LoginHistoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsNewestFirstInPages() throws IOException {
+        LoginHistoryStore store = new LoginHistoryStore(folder.newFile());
+        for (int i = 0; i < 5; i++) {
+            store.append(attempt(i));
+        }
+
+        assertEquals(5, store.size());
+        assertEquals(Arrays.asList(4L, 3L), times(store.read(0, 2)));
+        assertEquals(Arrays.asList(2L, 1L), times(store.read(2, 2)));
+        assertEquals(Collections.singletonList(0L), times(store.read(4, 2)));
+        assertTrue(store.read(5, 2).isEmpty());
+        assertTrue(store.read(-1, 2).isEmpty());
+    }
+
+    @Test
+    public void oldestRecordsAreOverwrittenOnceFull() throws IOException {
+        LoginHistoryStore store = new LoginHistoryStore(folder.newFile());
+        int total = LoginHistoryStore.CAPACITY * 2 + 10;
+        for (int i = 0; i < total; i++) {
+            store.append(attempt(i));
+        }
+
+        assertEquals(LoginHistoryStore.CAPACITY, store.size());
+        List<LoginAttemptRecord> all = store.read(0, Integer.MAX_VALUE);
+        assertEquals(LoginHistoryStore.CAPACITY, all.size());
+        assertEquals(total - 1, all.get(0).epochMillis);
+        assertEquals(total - LoginHistoryStore.CAPACITY, all.get(all.size() - 1).epochMillis);
+    }
+
+    @Test
+    public void fileSizeIsFixed() throws IOException {
+        File file = folder.newFile();
+        LoginHistoryStore store = new LoginHistoryStore(file);
+        long size = file.length();
+        for (int i = 0; i < LoginHistoryStore.CAPACITY + 1; i++) {
+            store.append(attempt(i));
+        }
+        assertEquals(size, file.length());
+    }
+
+    @Test
+    public void historySurvivesReopening() throws IOException {
+        File file = folder.newFile();
+        LoginHistoryStore store = new LoginHistoryStore(file);
+        for (int i = 0; i < LoginHistoryStore.CAPACITY + 3; i++) {
+            store.append(attempt(i));
+        }
+
+        LoginHistoryStore reopened = new LoginHistoryStore(file);
+        assertEquals(LoginHistoryStore.CAPACITY, reopened.size());
+        assertEquals(LoginHistoryStore.CAPACITY + 2, reopened.read(0, 1).get(0).epochMillis);
+
+        reopened.append(attempt(1000));
+        assertEquals(1000, reopened.read(0, 1).get(0).epochMillis);
+        assertEquals(LoginHistoryStore.CAPACITY + 2, reopened.read(1, 1).get(0).epochMillis);
+    }
+
+    @Test
+    public void recordFieldsRoundTrip() throws IOException {
+        LoginHistoryStore store = new LoginHistoryStore(folder.newFile());
+        store.append(new LoginAttemptRecord(1_700_000_000_000L, "MMMUT-Hostel", "172.16.1.3:8090",
+            12, 85, 240, 200, LoginAttemptRecord.VERDICT_SUCCESS, 3, true));
+        store.append(new LoginAttemptRecord(1_700_000_001_000L, null, null, -1, -1, 30_000, 0,
+            LoginAttemptRecord.VERDICT_UNKNOWN, 500, false));
+
+        List<LoginAttemptRecord> records = store.read(0, 2);
+        LoginAttemptRecord failed = records.get(0);
+        assertEquals("", failed.ssid);
+        assertEquals("", failed.gateway);
+        assertEquals(-1, failed.connectMillis);
+        assertEquals(0, failed.httpCode);
+        // Seven bits of retries
+        assertEquals(127, failed.retryCount);
+        assertFalse(failed.success);
+
+        LoginAttemptRecord ok = records.get(1);
+        assertEquals(1_700_000_000_000L, ok.epochMillis);
+        assertEquals("MMMUT-Hostel", ok.ssid);
+        assertEquals("172.16.1.3:8090", ok.gateway);
+        assertEquals(12, ok.connectMillis);
+        assertEquals(85, ok.firstByteMillis);
+        assertEquals(240, ok.totalMillis);
+        assertEquals(200, ok.httpCode);
+        assertEquals(LoginAttemptRecord.VERDICT_SUCCESS, ok.verdict);
+        assertEquals(3, ok.retryCount);
+        assertTrue(ok.success);
+    }
+
+    @Test
+    public void longNamesAreCutOnCharacterBoundaries() throws IOException {
+        LoginHistoryStore store = new LoginHistoryStore(folder.newFile());
+        // 31 ASCII bytes, then a two-byte character that would straddle the 32-byte limit
+        String ssid = "abcdefghijklmnopqrstuvwxyz01234\u00e9tail";
+        store.append(new LoginAttemptRecord(1, ssid, null, 0, 0, 0, 0, 0, 0, true));
+
+        assertEquals("abcdefghijklmnopqrstuvwxyz01234", store.read(0, 1).get(0).ssid);
+    }
+
+    @Test
+    public void clearEmptiesTheHistory() throws IOException {
+        File file = folder.newFile();
+        LoginHistoryStore store = new LoginHistoryStore(file);
+        store.append(attempt(1));
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertTrue(store.read(0, 10).isEmpty());
+        assertEquals(0, new LoginHistoryStore(file).size());
+    }
+
+    @Test
+    public void foreignFileIsReset() throws IOException {
+        File file = folder.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[] {'n', 'o', 'p', 'e', 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        }
+
+        LoginHistoryStore store = new LoginHistoryStore(file);
+        assertEquals(0, store.size());
+        store.append(attempt(7));
+        assertEquals(7, new LoginHistoryStore(file).read(0, 1).get(0).epochMillis);
+    }
+
+    private static LoginAttemptRecord attempt(long epochMillis) {
+        return new LoginAttemptRecord(epochMillis, "MMMUT", "172.16.1.3:8090", 10, 50, 100, 200,
+            LoginAttemptRecord.VERDICT_SUCCESS, 0, true);
+    }
+
+    private static List<Long> times(List<LoginAttemptRecord> records) {
+        List<Long> times = new ArrayList<>();
+        for (LoginAttemptRecord record : records) {
+            times.add(record.epochMillis);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,209 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.LogLinearHistogram;
+import com.mmmut.wifiautologin.network.LoginService;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LoginMetricsStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogramsSurviveARestart() {
+        File file = new File(folder.getRoot(), LoginMetricsStore.FILE_NAME);
+        LoginMetricsStore store = new LoginMetricsStore(file);
+        for (int i = 1; i <= 200; i++) {
+            store.record(LoginMetricsStore.Phase.CONNECT, i);
+            store.record(LoginMetricsStore.Phase.VERDICT, 10 * i);
+        }
+        store.record(LoginMetricsStore.Phase.DNS, -1);
+        store.flush();
+
+        LoginMetricsStore restarted = new LoginMetricsStore(file);
+        for (LoginMetricsStore.Phase phase : LoginMetricsStore.Phase.values()) {
+            assertEquals(phase.name(), store.summarize(phase).toString(), restarted.summarize(phase).toString());
+        }
+        assertEquals(200, restarted.summarize(LoginMetricsStore.Phase.VERDICT).count);
+        assertEquals(0, restarted.summarize(LoginMetricsStore.Phase.DNS).count);
+    }
+
+    @Test
+    public void flushWritesOnlyAfterARecord() {
+        File file = new File(folder.getRoot(), LoginMetricsStore.FILE_NAME);
+        LoginMetricsStore store = new LoginMetricsStore(file);
+        store.flush();
+        assertFalse(file.exists());
+
+        store.record(LoginMetricsStore.Phase.FIRST_BYTE, 80);
+        store.flush();
+        assertTrue(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void clearIsPersisted() {
+        File file = new File(folder.getRoot(), LoginMetricsStore.FILE_NAME);
+        LoginMetricsStore store = new LoginMetricsStore(file);
+        store.record(LoginMetricsStore.Phase.SCHEDULE, 1_500);
+        store.flush();
+        store.clear();
+
+        assertEquals(0, new LoginMetricsStore(file).summarize(LoginMetricsStore.Phase.SCHEDULE).count);
+    }
+
+    @Test
+    public void unreadableFilesAreDiscarded() throws IOException {
+        File file = new File(folder.getRoot(), LoginMetricsStore.FILE_NAME);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {'W', 'L', 'M', '0', 0, 0, 0, 1});
+        }
+
+        LoginMetricsStore store = new LoginMetricsStore(file);
+        assertEquals(0, store.summarize(LoginMetricsStore.Phase.CONNECT).count);
+        store.record(LoginMetricsStore.Phase.CONNECT, 12);
+        store.flush();
+        assertEquals(1, new LoginMetricsStore(file).summarize(LoginMetricsStore.Phase.CONNECT).count);
+    }
+
+    @Test
+    public void loginPhasesLandInTheirOwnHistograms() throws Exception {
+        final long dnsMillis = 100;
+        final long connectMillis = 250;
+        final long postFirstByteMillis = 500;
+        MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                MockResponse response = new MockResponse().setHeader("Content-Type", "text/html");
+                if ("GET".equals(request.getMethod())) {
+                    return response.setBody("<form action=\"login\" method=\"post\">"
+                        + "<input name=\"user\"><input type=\"password\" name=\"pass\"></form>");
+                }
+                return response.setBody("<p>You are logged in</p>")
+                    .setHeadersDelay(postFirstByteMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        try {
+            server.start();
+            LoginMetricsStore store = new LoginMetricsStore(new File(folder.getRoot(), LoginMetricsStore.FILE_NAME));
+            OkHttpClient client = new OkHttpClient.Builder()
+                .dns(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        sleep(dnsMillis);
+                        return Dns.SYSTEM.lookup(hostname);
+                    }
+                })
+                .socketFactory(new SlowConnectSocketFactory(connectMillis))
+                .build();
+
+            // By name, so the page fetch resolves it; the POST then reuses the connection
+            String pageUrl = server.url("/guest/").newBuilder().host("localhost").build().toString();
+            LoginService.LoginResult result = new LoginService.Builder()
+                .adapter(PortalAdapters.GENERIC)
+                .client(client)
+                .metrics(store)
+                .endpoints(Collections.singletonList(pageUrl))
+                .build()
+                .performLogin("2021021001", "secret", "phases");
+            assertTrue(result.message, result.success);
+
+            assertOneSampleAbout(dnsMillis, store.summarize(LoginMetricsStore.Phase.DNS));
+            assertOneSampleAbout(connectMillis, store.summarize(LoginMetricsStore.Phase.CONNECT));
+            LogLinearHistogram.Summary firstByte = store.summarize(LoginMetricsStore.Phase.FIRST_BYTE);
+            assertEquals(2, firstByte.count);
+            assertTrue("page first byte " + firstByte.p50 + " ms", firstByte.p50 < dnsMillis);
+            assertAbout(postFirstByteMillis, firstByte.max);
+            // The page request was only sent once its name was resolved and its socket connected
+            LogLinearHistogram.Summary sent = store.summarize(LoginMetricsStore.Phase.REQUEST_SENT);
+            assertEquals(2, sent.count);
+            assertAbout(dnsMillis + connectMillis, sent.max);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static void assertOneSampleAbout(long expectedMillis, LogLinearHistogram.Summary summary) {
+        assertEquals(summary.toString(), 1, summary.count);
+        assertAbout(expectedMillis, summary.max);
+    }
+
+    /** Not below the injected delay, and well short of the next phase's. */
+    private static void assertAbout(long expectedMillis, long recordedMillis) {
+        assertTrue("expected about " + expectedMillis + " ms, recorded " + recordedMillis + " ms",
+            recordedMillis >= expectedMillis && recordedMillis < expectedMillis + 100);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Sockets that take {@code delayMillis} longer to connect. OkHttp only uses the no-arg factory method. */
+    private static final class SlowConnectSocketFactory extends SocketFactory {
+        private final long delayMillis;
+
+        SlowConnectSocketFactory(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    sleep(delayMillis);
+                    super.connect(endpoint, timeout);
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.LoginTrace;
+import java.io.File;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LoginTraceStoreTest {
+
+    private static final long NETWORK = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LoginTraceStore store;
+
+    @Before
+    public void setUp() {
+        store = new LoginTraceStore(new File(folder.getRoot(), "traces"));
+    }
+
+    @Test
+    public void validationClosesTheSavedTrace() throws Exception {
+        LoginTrace trace = new LoginTrace("0badf00d", 0, System.currentTimeMillis());
+        trace.instant(LoginTrace.LANE_WORKER, "verdict", "SUCCESS");
+        store.save(trace);
+        store.awaitValidation(NETWORK, trace);
+        assertEquals("verdict", lastEventName(store.readLatest()));
+
+        store.onValidated(NETWORK);
+        assertEquals("validated", lastEventName(store.readLatest()));
+        assertEquals(1, store.getDirectory().list().length);
+
+        // Later capability updates for the same network leave the trace alone
+        String validated = store.readLatest();
+        store.onValidated(NETWORK);
+        assertEquals(validated, store.readLatest());
+    }
+
+    @Test
+    public void lostNetworkDropsThePendingTrace() throws Exception {
+        LoginTrace trace = new LoginTrace("0badf00d", 0, System.currentTimeMillis());
+        store.awaitValidation(NETWORK, trace);
+
+        store.onLost(NETWORK);
+        store.onValidated(NETWORK);
+
+        assertNull(store.readLatest());
+    }
+
+    @Test
+    public void unknownNetworkIsNotAwaited() {
+        store.awaitValidation(0, new LoginTrace("0badf00d", 0, System.currentTimeMillis()));
+        store.onValidated(0);
+
+        assertNull(store.readLatest());
+    }
+
+    @Test
+    public void onlyTheNewestTracesAreKept() throws Exception {
+        long origin = 1_700_000_000_000L;
+        for (int i = 0; i < LoginTraceStore.MAX_TRACES + 5; i++) {
+            store.save(new LoginTrace("trace" + i, 0, origin + i));
+        }
+
+        assertEquals(LoginTraceStore.MAX_TRACES, store.getDirectory().list().length);
+        String latest = store.readLatest();
+        assertEquals("trace" + (LoginTraceStore.MAX_TRACES + 4),
+            new JSONObject(latest).getJSONObject("otherData").getString("traceId"));
+        assertTrue(new File(store.getDirectory(), (origin + 5) + "-trace5-0.json").exists());
+    }
+
+    private static String lastEventName(String json) throws Exception {
+        JSONArray events = new JSONObject(json).getJSONArray("traceEvents");
+        return events.getJSONObject(events.length() - 1).getString("name");
+    }
+}
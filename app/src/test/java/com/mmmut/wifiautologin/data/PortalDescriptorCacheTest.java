@@ -0,0 +1,163 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.EndpointLatencyTracker;
+import com.mmmut.wifiautologin.network.LoginService;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.network.PortalDescriptor;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.Test;
+
+public class PortalDescriptorCacheTest {
+
+    private static final String FORM = "<form action=\"/\" method=\"post\">"
+        + "<input type=\"hidden\" name=\"magic\" value=\"%MAGIC%\">%EXTRA%"
+        + "<input name=\"username\" type=\"text\"><input name=\"password\" type=\"password\"></form>";
+    private static final String SUCCESS = "<html>Authentication keepalive?</html>";
+
+    private final InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+    private final PortalDescriptorCache cache = new PortalDescriptorCache(prefs);
+
+    @Test
+    public void sessionsOfOnePageShareOneEntry() {
+        // Unique host so the process-wide parsed map starts empty for this page
+        String page = "http://10.1.0.1:1000/fgtauth?";
+        for (int i = 0; i < 50; i++) {
+            cache.put(descriptor(page + "s" + i, fields("magic", "s" + i)));
+        }
+
+        assertEquals(1, prefs.getAll().size());
+        PortalDescriptor next = cache.get(page + "fresh");
+        assertEquals(page + "fresh", next.pageUrl);
+        assertEquals("fresh", next.hiddenFields.get("magic"));
+    }
+
+    @Test
+    public void entriesUnderSessionUrlsAreDropped() {
+        prefs.edit()
+            .putString("descriptor_http://10.2.0.1:1000/fgtauth?aa", "{}")
+            .putString("descriptor_http://10.2.0.1:1000/fgtauth?bb", "{}")
+            .putString("unrelated", "kept")
+            .apply();
+
+        cache.put(descriptor("http://10.2.0.1:1000/fgtauth?cc", fields("magic", "cc")));
+
+        assertEquals(2, prefs.getAll().size());
+        assertTrue(prefs.contains("descriptor_http://10.2.0.1:1000/fgtauth"));
+        assertTrue(prefs.contains("unrelated"));
+    }
+
+    @Test
+    public void formWithPerSessionTokensIsNotReplayed() {
+        String page = "http://10.3.0.1:1000/fgtauth?";
+        cache.put(descriptor(page + "a1", fields("magic", "a1", "token", "t1")));
+        assertFalse(cache.get(page + "a2") == null);
+
+        cache.put(descriptor(page + "a2", fields("magic", "a2", "token", "t2")));
+
+        assertNull(cache.get(page + "a3"));
+        assertEquals("t2", cache.get(page + "a2").hiddenFields.get("token"));
+    }
+
+    @Test
+    public void nextSessionLogsInWithOnePost() throws Exception {
+        MockWebServer server = new MockWebServer();
+        try {
+            server.start();
+            server.enqueue(html(FORM.replace("%MAGIC%", "0a0a0a").replace("%EXTRA%", "")));
+            server.enqueue(html(SUCCESS));
+            assertTrue(login(server, "/fgtauth?0a0a0a").success);
+            assertEquals(2, server.getRequestCount());
+
+            // New session, new magic: the cached form is replayed with the magic carried over
+            server.enqueue(html(SUCCESS));
+            assertTrue(login(server, "/fgtauth?0b0b0b").success);
+            assertEquals(3, server.getRequestCount());
+            server.takeRequest();
+            server.takeRequest();
+            RecordedRequest post = server.takeRequest();
+            assertEquals("POST", post.getMethod());
+            assertTrue(post.getBody().readUtf8().contains("magic=0b0b0b"));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void perSessionTokensCostAGetNotAFailedPost() throws Exception {
+        MockWebServer server = new MockWebServer();
+        // Each session's page carries a token only that session accepts
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("GET".equals(request.getMethod())) {
+                    String session = request.getRequestUrl().query();
+                    return html(FORM.replace("%MAGIC%", session).replace("%EXTRA%",
+                        "<input type=\"hidden\" name=\"token\" value=\"t" + session + "\">"));
+                }
+                String body = request.getBody().readUtf8();
+                String session = body.replaceAll(".*\\bmagic=(\\w+).*", "$1");
+                return body.matches(".*\\btoken=t" + session + "(&.*)?")
+                    ? html(SUCCESS)
+                    : html("<html>Firewall authentication failed</html>");
+            }
+        });
+        try {
+            server.start();
+            assertTrue(login(server, "/fgtauth?01").success);
+            assertEquals(2, server.getRequestCount());
+
+            // Not yet known to be per-session: the stale token is rejected once and the
+            // revalidated form retried, which teaches the cache
+            assertTrue(login(server, "/fgtauth?02").success);
+            assertEquals(5, server.getRequestCount());
+
+            // From now on a session costs a GET and one POST
+            assertTrue(login(server, "/fgtauth?03").success);
+            assertEquals(7, server.getRequestCount());
+            assertTrue(login(server, "/fgtauth?04").success);
+            assertEquals(9, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private LoginService.LoginResult login(MockWebServer server, String path) {
+        return new LoginService.Builder()
+            .adapter(PortalAdapters.FORTIGATE)
+            .client(new OkHttpClient())
+            .descriptorCache(cache)
+            .latencyTracker(new EndpointLatencyTracker())
+            .endpoints(Collections.singletonList(server.url(path).toString()))
+            .build()
+            .performLogin("user", "secret", "test");
+    }
+
+    private static MockResponse html(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/html").setBody(body);
+    }
+
+    private static PortalDescriptor descriptor(String pageUrl, Map<String, String> hidden) {
+        return new PortalDescriptor(pageUrl, pageUrl, "post", "username", "password", hidden, null,
+            null, null, null, System.currentTimeMillis());
+    }
+
+    private static Map<String, String> fields(String... namesAndValues) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            fields.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,88 @@
+package com.mmmut.wifiautologin.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SessionStoreTest {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private final SessionStore store = new SessionStore(new InMemorySharedPreferences());
+    private long now = 1_700_000_000_000L;
+
+    @Test
+    public void keepAliveIsDueBeforeTheLearnedLifetime() {
+        store.onLogin(now);
+        assertEquals((long) (SessionStore.DEFAULT_LIFETIME_MILLIS * 0.8), store.nextKeepAliveDelay(now));
+
+        now += MINUTE;
+        assertEquals((long) (SessionStore.DEFAULT_LIFETIME_MILLIS * 0.8) - MINUTE, store.nextKeepAliveDelay(now));
+    }
+
+    @Test
+    public void expiryShrinksBelowTheGapThatWasTooLong() {
+        store.onLogin(now);
+        now += 3 * MINUTE;
+        store.onExpired(now);
+
+        assertEquals((long) (3 * MINUTE * 0.9), store.getLifetimeMillis());
+    }
+
+    @Test
+    public void growthNeedsKeepalivesThatConfirmTheCurrentLifetime() {
+        store.onLogin(now);
+        // Keepalives far more often than the estimate confirm nothing about it
+        for (int i = 0; i < 30; i++) {
+            now += MINUTE;
+            store.onKeepAlive(now);
+        }
+        assertEquals(SessionStore.DEFAULT_LIFETIME_MILLIS, store.getLifetimeMillis());
+    }
+
+    @Test
+    public void growthStopsBelowAGapKnownToExpire() {
+        store.onLogin(now);
+        now += 4 * MINUTE;
+        store.onExpired(now);
+        long ceiling = (long) (4 * MINUTE * 0.9);
+
+        store.onLogin(now);
+        for (int i = 0; i < 100; i++) {
+            now += store.nextKeepAliveDelay(now);
+            store.onKeepAlive(now);
+            assertTrue(store.getLifetimeMillis() <= ceiling);
+        }
+    }
+
+    @Test
+    public void settlesBelowThePortalsIdleTimeout() {
+        long idleTimeout = 7 * MINUTE + 10_000;
+        int expiries = 0;
+        int lateExpiries = 0;
+
+        store.onLogin(now);
+        long lastActivity = now;
+        for (int i = 0; i < 500; i++) {
+            now += store.nextKeepAliveDelay(now);
+            if (now - lastActivity > idleTimeout) {
+                store.onExpired(now);
+                store.onLogin(now);
+                expiries++;
+                if (i >= 50) {
+                    lateExpiries++;
+                }
+            } else {
+                store.onKeepAlive(now);
+            }
+            lastActivity = now;
+        }
+
+        // Probing up finds the timeout once; after that the estimate stays under it
+        assertTrue("expired " + expiries + " times", expiries <= 1);
+        assertEquals(0, lateExpiries);
+        assertTrue(store.getLifetimeMillis() * 0.8 <= idleTimeout);
+        assertTrue(store.getLifetimeMillis() > 5 * MINUTE);
+    }
+}
@@ -0,0 +1,99 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.data.InMemorySharedPreferences;
+import org.junit.Test;
+
+public class AdaptiveTimeoutsTest {
+
+    private static final String SSID = "MMMUT-WiFi";
+    private static final String GATEWAY = "10.0.0.1";
+
+    @Test
+    public void defaultsUntilEnoughSamples() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(null);
+        timeouts.recordConnect(SSID, GATEWAY, 20);
+
+        AdaptiveTimeouts.Timeouts result = timeouts.timeoutsFor(SSID, GATEWAY);
+        assertEquals(AdaptiveTimeouts.DEFAULT_CONNECT_MILLIS, result.connectMillis);
+        assertEquals(AdaptiveTimeouts.DEFAULT_READ_MILLIS, result.readMillis);
+    }
+
+    @Test
+    public void fastGatewayGetsFlooredTimeouts() {
+        AdaptiveTimeouts timeouts = fastGateway();
+
+        AdaptiveTimeouts.Timeouts result = timeouts.timeoutsFor(SSID, GATEWAY);
+        assertEquals(500, result.connectMillis);
+        assertEquals(2_000, result.readMillis);
+    }
+
+    @Test
+    public void timeoutsBackOffUntilAPhaseCompletes() {
+        AdaptiveTimeouts timeouts = fastGateway();
+
+        timeouts.recordConnectTimeout(SSID, GATEWAY, 500);
+        assertEquals(1_000, timeouts.timeoutsFor(SSID, GATEWAY).connectMillis);
+        timeouts.recordConnectTimeout(SSID, GATEWAY, 1_000);
+        assertEquals(2_000, timeouts.timeoutsFor(SSID, GATEWAY).connectMillis);
+
+        timeouts.recordFirstByteTimeout(SSID, GATEWAY, 2_000);
+        assertEquals(4_000, timeouts.timeoutsFor(SSID, GATEWAY).readMillis);
+
+        // The gateway answers again: back to the learned deadline
+        timeouts.recordConnect(SSID, GATEWAY, 30);
+        assertEquals(500, timeouts.timeoutsFor(SSID, GATEWAY).connectMillis);
+        assertEquals(4_000, timeouts.timeoutsFor(SSID, GATEWAY).readMillis);
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        AdaptiveTimeouts timeouts = fastGateway();
+        for (int i = 0; i < 20; i++) {
+            timeouts.recordFirstByteTimeout(SSID, GATEWAY, 30_000);
+        }
+        assertEquals(30_000, timeouts.timeoutsFor(SSID, GATEWAY).readMillis);
+    }
+
+    @Test
+    public void censoredSamplesRaiseTheLearnedTimeout() {
+        AdaptiveTimeouts timeouts = fastGateway();
+
+        // The gateway now takes ~3 s to answer, so every wait hits the deadline
+        for (int i = 0; i < 10; i++) {
+            timeouts.recordFirstByteTimeout(SSID, GATEWAY, 2_000);
+        }
+        timeouts.recordFirstByte(SSID, GATEWAY, 3_000);
+
+        assertTrue(timeouts.timeoutsFor(SSID, GATEWAY).readMillis > 3_000);
+    }
+
+    @Test
+    public void samplesArePersistedOnFlushOnly() {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(prefs);
+        for (int i = 0; i < 10; i++) {
+            timeouts.recordConnect(SSID, GATEWAY, 20);
+            timeouts.recordFirstByte(SSID, GATEWAY, 40);
+        }
+        assertEquals(0, prefs.writes());
+
+        timeouts.flush();
+        timeouts.flush();
+        assertEquals(1, prefs.writes());
+
+        AdaptiveTimeouts reloaded = new AdaptiveTimeouts(prefs);
+        assertEquals(500, reloaded.timeoutsFor(SSID, GATEWAY).connectMillis);
+    }
+
+    private static AdaptiveTimeouts fastGateway() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(null);
+        for (int i = 0; i < 100; i++) {
+            timeouts.recordConnect(SSID, GATEWAY, 20);
+            timeouts.recordFirstByte(SSID, GATEWAY, 40);
+        }
+        return timeouts;
+    }
+}
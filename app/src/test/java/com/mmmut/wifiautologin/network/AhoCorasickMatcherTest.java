@@ -0,0 +1,108 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+public class AhoCorasickMatcherTest {
+
+    @Test
+    public void overlappingPatternsAreAllReported() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher("he", "she", "his", "hers");
+
+        // "ushers": "she" and "he" end at index 3, "hers" at index 5
+        List<Long> hits = scan(matcher, "ushers");
+        assertEquals(0b0011L, (long) hits.get(3));
+        assertEquals(0b1000L, (long) hits.get(5));
+        assertEquals(0L, (long) hits.get(4));
+    }
+
+    @Test
+    public void matchingIgnoresAsciiCase() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher("Logged In", "<STATUS>live");
+
+        assertEquals(1L, total(matcher, "You are LOGGED in."));
+        assertEquals(2L, total(matcher, "<status>LIVE</status>"));
+        assertEquals(0L, total(matcher, "logged-in"));
+    }
+
+    @Test
+    public void failureLinksRecoverFromPartialMatches() {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher("aab", "ab");
+
+        assertEquals(0b11L, total(matcher, "aaab"));
+        assertEquals(0L, total(matcher, "aaaa"));
+    }
+
+    @Test
+    public void agreesWithNaiveSearchOnRandomText() {
+        String[] patterns = {"invalid", "in", "valid", "lid", "failed", "fail", "ai", "success"};
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns);
+        Random random = new Random(42);
+        char[] alphabet = "invalidfuscesAILD <>".toCharArray();
+
+        for (int round = 0; round < 200; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            List<Long> hits = scan(matcher, text.toString());
+            String lower = text.toString().toLowerCase(Locale.ROOT);
+            for (int end = 0; end < lower.length(); end++) {
+                long expected = 0L;
+                for (int p = 0; p < patterns.length; p++) {
+                    if (lower.startsWith(patterns[p], end + 1 - patterns[p].length())) {
+                        expected |= 1L << p;
+                    }
+                }
+                assertEquals("at " + end + " in " + text, expected, (long) hits.get(end));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsInvalidPatterns() {
+        expectRejected();
+        expectRejected("ok", "");
+        expectRejected("caf\u00e9");
+        String[] tooMany = new String[AhoCorasickMatcher.MAX_PATTERNS + 1];
+        for (int i = 0; i < tooMany.length; i++) {
+            tooMany[i] = "p" + i;
+        }
+        expectRejected(tooMany);
+    }
+
+    private static void expectRejected(String... patterns) {
+        try {
+            new AhoCorasickMatcher(patterns);
+            fail("Expected patterns to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+    }
+
+    /** The match bits after each byte of the text. */
+    private static List<Long> scan(AhoCorasickMatcher matcher, String text) {
+        List<Long> hits = new ArrayList<>();
+        int state = matcher.startState();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            state = matcher.next(state, b);
+            hits.add(matcher.matches(state));
+        }
+        return hits;
+    }
+
+    private static long total(AhoCorasickMatcher matcher, String text) {
+        long all = 0L;
+        for (long hit : scan(matcher, text)) {
+            all |= hit;
+        }
+        return all;
+    }
+}
@@ -0,0 +1,92 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CaptivePortalProbeTest {
+
+    private final MockWebServer server = new MockWebServer();
+    private final BlockingQueue<CaptivePortalProbe.State> states = new ArrayBlockingQueue<>(4);
+
+    @Before
+    public void setUp() throws Exception {
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void emptyNoContentMeansAuthenticated() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(204));
+
+        CaptivePortalProbe probe = probe(new OkHttpClient());
+        probe.probeAsync(collect());
+
+        assertEquals(CaptivePortalProbe.State.AUTHENTICATED, states.poll(5, TimeUnit.SECONDS));
+        assertNull(probe.getPortalUrl());
+    }
+
+    @Test
+    public void redirectPointsAtThePortal() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(302).setHeader("Location", "/fgtauth?0a1b2c"));
+
+        CaptivePortalProbe probe = probe(new OkHttpClient());
+        probe.probeAsync(collect());
+
+        assertEquals(CaptivePortalProbe.State.CAPTIVE, states.poll(5, TimeUnit.SECONDS));
+        assertEquals(server.url("/fgtauth?0a1b2c").toString(), probe.getPortalUrl());
+    }
+
+    @Test
+    public void cancelledProbeDeliversNothing() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(302).setHeader("Location", "/login"));
+        // Cancelled as the response comes in; a cancel landing just after OkHttp's own check
+        // reaches onResponse instead, which is too narrow a window to hit from a test
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(new Interceptor() {
+                @Override
+                public Response intercept(Chain chain) throws IOException {
+                    Response response = chain.proceed(chain.request());
+                    chain.call().cancel();
+                    return response;
+                }
+            })
+            .build();
+
+        CaptivePortalProbe probe = probe(client);
+        probe.probeAsync(collect());
+
+        assertNull(states.poll(500, TimeUnit.MILLISECONDS));
+        assertNull(probe.getPortalUrl());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    private CaptivePortalProbe probe(OkHttpClient client) {
+        return new CaptivePortalProbe(client, server.url("/generate_204").toString());
+    }
+
+    private CaptivePortalProbe.ProbeCallback collect() {
+        return new CaptivePortalProbe.ProbeCallback() {
+            @Override
+            public void onState(CaptivePortalProbe.State state) {
+                states.add(state);
+            }
+        };
+    }
+}
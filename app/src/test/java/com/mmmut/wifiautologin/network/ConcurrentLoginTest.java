@@ -0,0 +1,123 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.LoginService.LoginResult.Outcome;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Several logins started from a two-thread pool, the size of the app's WorkManager executor,
+ * against a portal that takes a second to answer each POST. The logins overlap, so together
+ * they take about as long as one, and none of them holds a pool thread while it waits.
+ */
+public class ConcurrentLoginTest {
+
+    private static final int WORK_THREADS = 2;
+    // Below OkHttp's five requests per host, so no login queues behind another
+    private static final int LOGINS = 4;
+    private static final long POST_DELAY_MILLIS = 1_000;
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient();
+    private final ThreadPoolExecutor workExecutor =
+        (ThreadPoolExecutor) Executors.newFixedThreadPool(WORK_THREADS);
+
+    @Before
+    public void setUp() throws IOException {
+        final String loginPage = PortalFixtures.page("generic-login.html");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("GET".equals(request.getMethod())) {
+                    return PortalAdapterFixturesTest.html(loginPage);
+                }
+                return PortalAdapterFixturesTest.html("<p>You are logged in</p>")
+                    .setHeadersDelay(POST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        workExecutor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void loginsOverlapWithoutHoldingWorkThreads() throws Exception {
+        final CountDownLatch done = new CountDownLatch(LOGINS);
+        final Queue<LoginService.LoginResult> results = new ConcurrentLinkedQueue<>();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < LOGINS; i++) {
+            final String networkKey = "concurrent-" + i;
+            workExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    service().performLoginAsync("2021021001", "secret", networkKey,
+                        new LoginService.LoginCallback() {
+                            @Override
+                            public void onResult(LoginService.LoginResult result) {
+                                results.add(result);
+                                done.countDown();
+                            }
+                        });
+                }
+            });
+        }
+
+        // Every start returned at once: all of the pool's threads are free to meet here while
+        // the portal is still sitting on the logins
+        final CountDownLatch threadsFree = new CountDownLatch(WORK_THREADS);
+        for (int i = 0; i < WORK_THREADS; i++) {
+            workExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    threadsFree.countDown();
+                    try {
+                        threadsFree.await(POST_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue("work threads are held", threadsFree.await(POST_DELAY_MILLIS / 2, TimeUnit.MILLISECONDS));
+        assertEquals(LOGINS, done.getCount());
+        assertEquals(WORK_THREADS, workExecutor.getLargestPoolSize());
+
+        assertTrue("logins did not finish", done.await(10, TimeUnit.SECONDS));
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // One after another they would take LOGINS seconds
+        assertTrue("took " + wallMillis + " ms", wallMillis < 2 * POST_DELAY_MILLIS);
+        for (LoginService.LoginResult result : results) {
+            assertEquals(Outcome.SUCCESS, result.outcome);
+        }
+    }
+
+    private LoginService service() {
+        return new LoginService.Builder()
+            .adapter(PortalAdapters.GENERIC)
+            .client(client)
+            .latencyTracker(new EndpointLatencyTracker())
+            .endpoints(Collections.singletonList(server.url("/guest/").toString()))
+            .build();
+    }
+}
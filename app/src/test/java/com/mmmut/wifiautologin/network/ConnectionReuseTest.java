@@ -0,0 +1,62 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+
+import com.mmmut.wifiautologin.WiFiAutoLoginApplication;
+import java.io.IOException;
+import java.util.Collections;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The probe, the login page, the login POST and a second login, all on the app's shared
+ * client, go out over one keep-alive connection: each request's sequence number counts the
+ * requests that socket has carried before it.
+ */
+public class ConnectionReuseTest {
+
+    private final MockWebServer server = new MockWebServer();
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void probeAndLoginsShareOneConnection() throws Exception {
+        String loginPage = PortalFixtures.page("generic-login.html");
+        server.enqueue(PortalAdapterFixturesTest.html(loginPage));
+        server.enqueue(PortalAdapterFixturesTest.html(loginPage));
+        server.enqueue(PortalAdapterFixturesTest.html("<p>You are logged in</p>"));
+        server.enqueue(PortalAdapterFixturesTest.html(loginPage));
+        server.enqueue(PortalAdapterFixturesTest.html("<p>You are logged in</p>"));
+
+        CaptivePortalProbe probe = new CaptivePortalProbe(WiFiAutoLoginApplication.getHttpClient(),
+            server.url("/generate_204").toString());
+        assertEquals(CaptivePortalProbe.State.CAPTIVE, probe.probe());
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, login().outcome);
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, login().outcome);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("request " + i, i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
+    /** A login as the worker makes it, on the default (shared) client. */
+    private LoginService.LoginResult login() {
+        return new LoginService.Builder()
+            .adapter(PortalAdapters.GENERIC)
+            .latencyTracker(new EndpointLatencyTracker())
+            .endpoints(Collections.singletonList(server.url("/guest/").toString()))
+            .build()
+            .performLogin("2021021001", "secret", "reuse");
+    }
+}
@@ -0,0 +1,57 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.data.InMemorySharedPreferences;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class EndpointLatencyTrackerTest {
+
+    private static final String NEAR = "http://10.0.0.1:8090/httpclient.html";
+    private static final String FAR = "http://10.0.0.2:8090/httpclient.html";
+    private static final String UNSEEN = "http://10.0.0.3:8090/httpclient.html";
+
+    @Test
+    public void fastestMeasuredEndpointsRaceFirst() {
+        EndpointLatencyTracker tracker = new EndpointLatencyTracker();
+        tracker.record(NEAR, 40);
+        tracker.recordFailure(FAR);
+
+        assertEquals(Arrays.asList(NEAR, FAR, UNSEEN), tracker.order(Arrays.asList(UNSEEN, FAR, NEAR)));
+    }
+
+    @Test
+    public void averagesSurviveANewProcess() {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        EndpointLatencyTracker tracker = new EndpointLatencyTracker(prefs);
+        tracker.record(FAR, 40);
+        tracker.record(NEAR, 200);
+        tracker.record(NEAR, 20);
+        assertTrue("memory only until flushed", prefs.getAll().isEmpty());
+        tracker.flush();
+
+        EndpointLatencyTracker restarted = new EndpointLatencyTracker(prefs);
+        assertEquals(tracker.averageMillis(NEAR), restarted.averageMillis(NEAR));
+        assertEquals(40, restarted.averageMillis(FAR));
+        assertEquals(-1, restarted.averageMillis(UNSEEN));
+        List<String> order = restarted.order(Arrays.asList(NEAR, FAR));
+        assertEquals(Arrays.asList(FAR, NEAR), order);
+    }
+
+    @Test
+    public void recordingAfterRestartSmoothsThePersistedAverage() {
+        InMemorySharedPreferences prefs = new InMemorySharedPreferences();
+        EndpointLatencyTracker tracker = new EndpointLatencyTracker(prefs);
+        tracker.record(NEAR, 100);
+        tracker.flush();
+
+        EndpointLatencyTracker restarted = new EndpointLatencyTracker(prefs);
+        restarted.record(NEAR, 200);
+        assertEquals(130, restarted.averageMillis(NEAR));
+        restarted.flush();
+        assertEquals(130, new EndpointLatencyTracker(prefs).averageMillis(NEAR));
+    }
+}
@@ -0,0 +1,243 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.mmmut.wifiautologin.Benchmark;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class HtmlFormExtractorTest {
+
+    private static final Pattern FORM = Pattern.compile("<form\\b([^>]*)>(.*?)</form>",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern INPUT = Pattern.compile("<input\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+
+    @Test
+    public void fortigatePage() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("fortigate-fgtauth.html");
+
+        assertEquals("/", form.action);
+        assertEquals("post", form.method);
+        assertEquals("username", form.usernameField);
+        assertEquals("password", form.passwordField);
+        assertEquals(Arrays.asList("4Tredir", "magic", "answer"), Arrays.asList(form.hiddenFields.keySet().toArray()));
+        assertEquals("%MAGIC%", form.hiddenFields.get("magic"));
+        assertEquals("", form.hiddenFields.get("answer"));
+    }
+
+    @Test
+    public void pfsensePage() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("pfsense-index.html");
+
+        assertEquals("/index.php?zone=campus", form.action);
+        assertEquals("auth_user", form.usernameField);
+        assertEquals("auth_pass", form.passwordField);
+        assertEquals("campus", form.hiddenFields.get("zone"));
+        assertEquals("http://connectivitycheck.gstatic.com/generate_204", form.hiddenFields.get("redirurl"));
+    }
+
+    @Test
+    public void loginFormWinsOverAnEarlierForm() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("generic-login.html");
+
+        assertEquals("auth/login", form.action);
+        assertEquals("post", form.method);
+        assertEquals("email", form.usernameField);
+        assertEquals("pass", form.passwordField);
+        assertEquals(2, form.hiddenFields.size());
+        assertEquals("c5b1e0f2a9", form.hiddenFields.get("csrf_token"));
+    }
+
+    @Test
+    public void scriptCommentsTextareasAndOddMarkupAreHandled() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("tricky-markup.html");
+
+        assertEquals("/login.cgi?lang=en&src=portal", form.action);
+        assertEquals("post", form.method);
+        assertEquals("user", form.usernameField);
+        assertEquals("pass", form.passwordField);
+        Map<String, String> hidden = form.hiddenFields;
+        assertEquals("8f3a/b2/c1", hidden.get("challenge"));
+        assertEquals("http://example.com/?a=1&b=2", hidden.get("dst"));
+        assertEquals("true", hidden.get("popup"));
+        assertEquals(3, hidden.size());
+    }
+
+    @Test
+    public void scriptDrivenPageUsesLooseInputs() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("script-only.html");
+
+        assertNull(form.action);
+        assertEquals("uid", form.usernameField);
+        assertEquals("pwd", form.passwordField);
+        assertEquals("00:11:22:33:44:55", form.hiddenFields.get("ap_mac"));
+    }
+
+    @Test
+    public void sophosScriptPageFallsBackToLooseInputs() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("sophos-httpclient.html");
+
+        assertNull(form.action);
+        assertEquals("username", form.usernameField);
+        assertEquals("password", form.passwordField);
+    }
+
+    @Test
+    public void withoutPasswordTheFirstFormWithFieldsWins() throws Exception {
+        HtmlFormExtractor.FormModel form = extract("no-password.html");
+
+        assertEquals("/accept", form.action);
+        assertEquals("get", form.method);
+        assertNull(form.passwordField);
+        assertEquals("abc", form.hiddenFields.get("token"));
+    }
+
+    @Test
+    public void truncatedPageStillYieldsTheForm() throws Exception {
+        String page = PortalFixtures.page("pfsense-index.html");
+        String truncated = page.substring(0, page.indexOf("<input name=\"accept\""));
+
+        HtmlFormExtractor.FormModel form = HtmlFormExtractor.extract(new Buffer().writeUtf8(truncated));
+
+        assertEquals("auth_pass", form.passwordField);
+        assertEquals("campus", form.hiddenFields.get("zone"));
+    }
+
+    @Test
+    public void attributes() {
+        Map<String, String> attributes = HtmlFormExtractor.parseAttributes(
+            " TYPE=hidden name='a b' value=\"x &quot;y&quot; &#65;&#x42;&bogus;\" disabled data-x = 1 /");
+
+        assertEquals("hidden", attributes.get("type"));
+        assertEquals("a b", attributes.get("name"));
+        assertEquals("x \"y\" AB&bogus;", attributes.get("value"));
+        assertEquals("", attributes.get("disabled"));
+        assertEquals("1", attributes.get("data-x"));
+    }
+
+    @Test
+    public void descriptorHashCoversTheWholePage() throws Exception {
+        String page = PortalFixtures.page("generic-login.html");
+
+        PortalDescriptor descriptor = PortalDescriptor.parse("http://10.0.0.1/guest/",
+            new Buffer().writeUtf8(page), null, null, PortalAdapters.GENERIC);
+
+        // Extraction stops at the login form; the hash still covers the trailing markup
+        assertEquals(ByteString.encodeUtf8(page).sha256().hex(), descriptor.contentHash);
+        assertEquals("http://10.0.0.1/guest/auth/login", descriptor.actionUrl);
+        assertTrue(descriptor.hasContentHash(ByteString.encodeUtf8(page).sha256().hex()));
+    }
+
+    /**
+     * Allocation and throughput microbenchmark against reading the page into a String, as
+     * performLogin did, and finding the login form with regular expressions: three captured
+     * pages, and a 96 KiB page with the form between a large inline script and a long
+     * footer. On the large page, whose footer it never reads, the streaming extractor has to
+     * allocate under a quarter of that and be faster. Small pages cost about the same either
+     * way (the extractor keeps every tag's name and attributes), so there it only has to stay
+     * within twice the buffered path.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void streamingExtractorBeatsBufferingThePage() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        String login = PortalFixtures.page("generic-login.html");
+        StringBuilder script = new StringBuilder("<script>\nvar strings = {\n");
+        StringBuilder footer = new StringBuilder("<footer>\n");
+        while (script.length() < 32 * 1024) {
+            script.append("  \"msg").append(script.length()).append("\": \"Please <b>accept</b> the terms\",\n");
+        }
+        while (footer.length() < 64 * 1024) {
+            footer.append("<p class=\"policy\">Clause ").append(footer.length()).append(" of the usage policy</p>\n");
+        }
+        String large = login.replace("<body>", "<body>\n" + script + "};\n</script>")
+            .replace("</body>", footer + "</footer>\n</body>");
+
+        String[] pages = {
+            PortalFixtures.page("fortigate-fgtauth.html"),
+            PortalFixtures.page("pfsense-index.html"),
+            login,
+            large,
+        };
+        for (String page : pages) {
+            Buffer captured = new Buffer().writeUtf8(page);
+            assertEquals(extractWithRegex(captured.copy()), HtmlFormExtractor.extract(captured.copy()).passwordField);
+            int iterations = page.length() > 16 * 1024 ? 1_000 : 20_000;
+            long thread = Thread.currentThread().getId();
+            for (int round = 0; round < 3; round++) {
+                long before = allocations.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    HtmlFormExtractor.extract(captured.copy());
+                }
+                long streamingNanos = (System.nanoTime() - start) / iterations;
+                long streaming = (allocations.getThreadAllocatedBytes(thread) - before) / iterations;
+
+                before = allocations.getThreadAllocatedBytes(thread);
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    extractWithRegex(captured.copy());
+                }
+                long bufferedNanos = (System.nanoTime() - start) / iterations;
+                long buffered = (allocations.getThreadAllocatedBytes(thread) - before) / iterations;
+
+                if (round == 2) {
+                    String bytes = page.length() + " B page: streaming " + streaming + " B vs buffered "
+                        + buffered + " B";
+                    String nanos = page.length() + " B page: streaming " + streamingNanos + " ns vs buffered "
+                        + bufferedNanos + " ns";
+                    if (page == large) {
+                        assertTrue(bytes, streaming * 4 < buffered);
+                        assertTrue(nanos, streamingNanos < bufferedNanos);
+                    } else {
+                        assertTrue(bytes, streaming < buffered * 2);
+                        assertTrue(nanos, streamingNanos < bufferedNanos * 2);
+                    }
+                }
+            }
+        }
+    }
+
+    /** The whole page as a String, then the first form holding a password input; returns that input's name. */
+    private static String extractWithRegex(Buffer page) {
+        String html = page.readUtf8();
+        Matcher form = FORM.matcher(html);
+        while (form.find()) {
+            Map<String, String> fields = new LinkedHashMap<>();
+            Matcher input = INPUT.matcher(form.group(2));
+            String password = null;
+            while (input.find()) {
+                Map<String, String> attributes = HtmlFormExtractor.parseAttributes(input.group(1));
+                fields.put(attributes.get("name"), attributes.get("value"));
+                if (password == null && "password".equalsIgnoreCase(attributes.get("type"))) {
+                    password = attributes.get("name");
+                }
+            }
+            if (password != null) {
+                return password;
+            }
+        }
+        return null;
+    }
+
+    private static HtmlFormExtractor.FormModel extract(String fixture) throws IOException {
+        return HtmlFormExtractor.extract(new Buffer().writeUtf8(PortalFixtures.page(fixture)));
+    }
+}
@@ -0,0 +1,188 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.mmmut.wifiautologin.Benchmark;
+import com.mmmut.wifiautologin.network.LoginResponseClassifier.Verdict;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import okio.Buffer;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class KeywordResponseClassifierTest {
+
+    private final KeywordResponseClassifier classifier = new KeywordResponseClassifier.Builder()
+        .success("logged in")
+        .failure("invalid")
+        .terminalFailure("account locked")
+        .build();
+
+    private final KeywordResponseClassifier credentials = new KeywordResponseClassifier.Builder()
+        .success("logged in")
+        .credentialFailure("invalid")
+        .failure("failed")
+        .terminalFailure("<status>login</status>")
+        .build();
+
+    @Test
+    public void successWinsOverAnEarlierFailure() throws IOException {
+        assertEquals(Verdict.SUCCESS, classify("Invalid session, renewing... You are logged in"));
+    }
+
+    @Test
+    public void plainFailureHoldsWhenNoSuccessFollows() throws IOException {
+        assertEquals(Verdict.FAILURE, classify("Invalid username or password"));
+    }
+
+    @Test
+    public void terminalFailureEndsTheScan() throws IOException {
+        assertEquals(Verdict.FAILURE, classify("Account locked. <a>Back to the logged in page</a>"));
+    }
+
+    @Test
+    public void credentialKeywordsRejectTheCredentials() throws IOException {
+        assertEquals(Verdict.REJECTED, credentials.classify(new Buffer()
+            .writeUtf8("Login failed: invalid password")));
+        assertEquals(Verdict.FAILURE, credentials.classify(new Buffer()
+            .writeUtf8("Login failed: try again later")));
+        assertEquals(Verdict.SUCCESS, credentials.classify(new Buffer()
+            .writeUtf8("Invalid session, renewing... You are logged in")));
+    }
+
+    @Test
+    public void terminalFailureWaitsForTheMessageThatNamesTheCredentials() throws IOException {
+        assertEquals(Verdict.REJECTED, credentials.classify(new Buffer()
+            .writeUtf8("<status>LOGIN</status><message>Invalid password</message>")));
+        assertEquals(Verdict.REJECTED, credentials.classify(new Buffer()
+            .writeUtf8("Invalid password <status>LOGIN</status> logged in")));
+        // Success keywords no longer count once the status has been seen
+        assertEquals(Verdict.FAILURE, credentials.classify(new Buffer()
+            .writeUtf8("<status>LOGIN</status><message>Logged in elsewhere</message>")));
+    }
+
+    @Test
+    public void nothingRecognisedIsUnknown() throws IOException {
+        assertEquals(Verdict.UNKNOWN, classify("<html><body>Please wait</body></html>"));
+        assertEquals(Verdict.UNKNOWN, classify(""));
+        assertEquals(Verdict.UNKNOWN, classifier.classify(null));
+    }
+
+    @Test
+    public void keywordsSpanningReadChunksAreFound() throws IOException {
+        StringBuilder page = new StringBuilder();
+        while (page.length() < 8192 - 4) {
+            page.append('.');
+        }
+        page.append("logged in");
+        assertEquals(Verdict.SUCCESS, classify(page.toString()));
+    }
+
+    @Test
+    public void scanStopsAfterTheLimit() throws IOException {
+        Buffer page = new Buffer();
+        byte[] filler = new byte[64 * 1024];
+        for (int i = 0; i < 9; i++) {
+            page.write(filler);
+        }
+        page.writeUtf8("logged in");
+        assertEquals(Verdict.UNKNOWN, classifier.classify(page));
+    }
+
+    @Test
+    public void sophosStatusReplies() throws IOException {
+        LoginResponseClassifier sophos = PortalAdapters.SOPHOS.classifier();
+
+        assertEquals(Verdict.SUCCESS, sophos.classify(new Buffer()
+            .writeUtf8("<requestresponse><status><![CDATA[LIVE]]></status></requestresponse>")));
+        // The login status rules out success, though the message mentions a failure and success
+        assertEquals(Verdict.FAILURE, sophos.classify(new Buffer()
+            .writeUtf8("<status>LOGIN</status><message>Login failed. Logged in elsewhere?</message>")));
+        assertEquals(Verdict.FAILURE, sophos.classify(new Buffer()
+            .writeUtf8("<message>Maximum login limit reached</message>")));
+        assertEquals(Verdict.REJECTED, sophos.classify(new Buffer()
+            .writeUtf8("<status>LOGIN</status><message>Login failed. Invalid user name/password.</message>")));
+    }
+
+    /**
+     * Allocation and throughput microbenchmark against the previous path, which read the
+     * whole reply into a String and lower-cased it once per keyword: a Sophos XML reply and a
+     * captured login page with the verdict at the end, and a 64 KiB landing page with the
+     * verdict in its banner. The streaming pass has to allocate under a quarter of what the
+     * previous path did, and on the landing page, whose tail it never reads, be faster too.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void streamingPassBeatsLowercasingTheWholeReply() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder landing = new StringBuilder("<html><body><h1>You are logged in</h1>");
+        while (landing.length() < 64 * 1024) {
+            landing.append("<p>Campus network usage policy, clause ").append(landing.length()).append("</p>\n");
+        }
+        Buffer sophosReply = new Buffer().writeUtf8("<?xml version='1.0' ?><requestresponse>"
+            + "<status><![CDATA[LIVE]]></status><message><![CDATA[You are signed in as {username}]]></message>"
+            + "<logoutmessage><![CDATA[You have successfully logged off]]></logoutmessage></requestresponse>");
+        Buffer loginPage = new Buffer().writeUtf8(PortalFixtures.page("generic-login.html")
+            + "<p>You are logged in</p>");
+        Buffer landingPage = new Buffer().writeUtf8(landing.toString());
+        LoginResponseClassifier sophos = PortalAdapters.SOPHOS.classifier();
+
+        for (Buffer reply : new Buffer[] {sophosReply, loginPage, landingPage}) {
+            assertEquals(classifyLowercased(reply.copy()), sophos.classify(reply.copy()));
+            int iterations = reply.size() > 16 * 1024 ? 1_000 : 20_000;
+            long thread = Thread.currentThread().getId();
+            for (int round = 0; round < 3; round++) {
+                long before = allocations.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    sophos.classify(reply.copy());
+                }
+                long streamingNanos = (System.nanoTime() - start) / iterations;
+                long streaming = (allocations.getThreadAllocatedBytes(thread) - before) / iterations;
+
+                before = allocations.getThreadAllocatedBytes(thread);
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    classifyLowercased(reply.copy());
+                }
+                long lowercasedNanos = (System.nanoTime() - start) / iterations;
+                long lowercased = (allocations.getThreadAllocatedBytes(thread) - before) / iterations;
+
+                if (round == 2) {
+                    assertTrue(reply.size() + " B reply: streaming " + streaming + " B vs lowercased "
+                        + lowercased + " B", streaming * 4 < lowercased);
+                    if (reply == landingPage) {
+                        assertTrue(reply.size() + " B reply: streaming " + streamingNanos + " ns vs lowercased "
+                            + lowercasedNanos + " ns", streamingNanos * 4 < lowercasedNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    /** How LoginService read a reply before the classifier: the whole page, lower-cased per keyword. */
+    private static Verdict classifyLowercased(Buffer reply) {
+        String responseBody = reply.readUtf8();
+        if (responseBody.toLowerCase().contains("success")
+                || responseBody.toLowerCase().contains("logged in")
+                || responseBody.toLowerCase().contains("authentication successful")) {
+            return Verdict.SUCCESS;
+        } else if (responseBody.toLowerCase().contains("invalid")
+                || responseBody.toLowerCase().contains("incorrect")
+                || responseBody.toLowerCase().contains("failed")) {
+            return Verdict.FAILURE;
+        }
+        return Verdict.UNKNOWN;
+    }
+
+    private Verdict classify(String body) throws IOException {
+        return classifier.classify(new Buffer().writeUtf8(body));
+    }
+}
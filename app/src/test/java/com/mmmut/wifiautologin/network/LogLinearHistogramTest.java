@@ -0,0 +1,156 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+
+    @Test
+    public void bucketsTileTheRangeWithoutGaps() {
+        int previous = 0;
+        for (long value = 0; value <= LogLinearHistogram.MAX_VALUE; value++) {
+            int index = LogLinearHistogram.bucketIndex(value);
+            assertTrue("bucket of " + value, index == previous || index == previous + 1);
+            previous = index;
+        }
+        assertEquals(LogLinearHistogram.BUCKETS - 1, previous);
+
+        for (int index = 0; index < LogLinearHistogram.BUCKETS; index++) {
+            assertEquals(index, LogLinearHistogram.bucketIndex(LogLinearHistogram.highestEquivalentValue(index)));
+        }
+        assertEquals(LogLinearHistogram.MAX_VALUE,
+            LogLinearHistogram.highestEquivalentValue(LogLinearHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void reportedValuesAreWithinAnEighthOfTheTruth() {
+        for (long value = 1; value <= LogLinearHistogram.MAX_VALUE; value += 1 + value / 97) {
+            long reported = LogLinearHistogram.highestEquivalentValue(LogLinearHistogram.bucketIndex(value));
+            assertTrue(value + " -> " + reported, reported >= value);
+            assertTrue(value + " -> " + reported, reported - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(3);
+        }
+        histogram.record(12);
+
+        LogLinearHistogram.Summary summary = histogram.summarize();
+        assertEquals(11, summary.count);
+        assertEquals(3, summary.p50);
+        assertEquals(12, summary.p95);
+        assertEquals(12, summary.max);
+    }
+
+    @Test
+    public void percentilesOfAUniformSpread() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        LogLinearHistogram.Summary summary = histogram.summarize();
+        assertEquals(1000, summary.count);
+        assertWithinBucket(500, summary.p50);
+        assertWithinBucket(950, summary.p95);
+        assertWithinBucket(990, summary.p99);
+        assertWithinBucket(1000, summary.max);
+        assertEquals("n=1000 p50=" + summary.p50 + "ms p95=" + summary.p95 + "ms p99=" + summary.p99
+            + "ms max=" + summary.max + "ms", summary.toString());
+    }
+
+    @Test
+    public void tailIsNotHiddenByTheBulk() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(40);
+        }
+        histogram.record(3_000);
+        histogram.record(3_000);
+
+        LogLinearHistogram.Summary summary = histogram.summarize();
+        assertWithinBucket(40, summary.p95);
+        assertWithinBucket(3_000, summary.p99);
+    }
+
+    @Test
+    public void emptyNegativeAndOversizedValues() {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.record(-5);
+        LogLinearHistogram.Summary empty = histogram.summarize();
+        assertEquals(0, empty.count);
+        assertEquals(-1, empty.p50);
+        assertEquals("n=0", empty.toString());
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(LogLinearHistogram.MAX_VALUE, histogram.summarize().max);
+    }
+
+    @Test
+    public void snapshotRoundTrips() {
+        LogLinearHistogram original = new LogLinearHistogram();
+        for (long value : new long[] {0, 7, 8, 95, 96, 1_234, 65_000, 3_600_000}) {
+            original.record(value);
+        }
+
+        LogLinearHistogram restored = new LogLinearHistogram();
+        restored.add(original.snapshot());
+        assertArrayEquals(original.snapshot(), restored.snapshot());
+        assertEquals(original.summarize().toString(), restored.summarize().toString());
+
+        // Persisted counts are added to what this process already recorded
+        restored.add(original.snapshot());
+        assertEquals(16, restored.summarize().count);
+
+        restored.reset();
+        assertEquals(0, restored.summarize().count);
+    }
+
+    @Test
+    public void addRejectsAnotherLayout() {
+        try {
+            new LogLinearHistogram().add(new long[LogLinearHistogram.BUCKETS - 1]);
+            fail("Expected a bucket count mismatch to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // Rejected
+        }
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50_000; i++) {
+                        histogram.record((i * 31L + seed) % 5_000);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(200_000, histogram.summarize().count);
+    }
+
+    private static void assertWithinBucket(long expected, long reported) {
+        assertEquals("reported " + reported + " for " + expected,
+            LogLinearHistogram.bucketIndex(expected), LogLinearHistogram.bucketIndex(reported));
+    }
+}
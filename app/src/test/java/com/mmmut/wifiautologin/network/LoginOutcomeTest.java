@@ -0,0 +1,123 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.mmmut.wifiautologin.network.LoginService.LoginResult.Outcome;
+import java.util.Collections;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * How the way a login fails decides whether it is retried, against a portal that serves its
+ * login page and answers every login POST the same way. The client is the app's, which lets
+ * OkHttp repeat a request once after a dropped connection or a 408.
+ */
+public class LoginOutcomeTest {
+
+    private static final String NETWORK = "test";
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient.Builder()
+        .retryOnConnectionFailure(true)
+        .build();
+    private final AdaptiveTimeouts timeouts = new AdaptiveTimeouts(null);
+    private volatile MockResponse reply;
+
+    @Before
+    public void setUp() throws Exception {
+        final String loginPage = PortalFixtures.page("generic-login.html");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("GET".equals(request.getMethod())) {
+                    return PortalAdapterFixturesTest.html(loginPage);
+                }
+                return reply;
+            }
+        });
+        server.start();
+        // A gateway known to answer fast, so a silent one times out in seconds rather than 30
+        String gateway = server.getHostName() + ":" + server.getPort();
+        for (int i = 0; i < 20; i++) {
+            timeouts.recordConnect(NETWORK, gateway, 5);
+            timeouts.recordFirstByte(NETWORK, gateway, 20);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void serverErrorsTimeoutsAndThrottlingAreTransient() {
+        for (int code : new int[] {500, 502, 503, 504, 408, 429}) {
+            assertEquals("HTTP " + code, Outcome.TRANSIENT, loginAnsweredWith(new MockResponse().setResponseCode(code)));
+        }
+    }
+
+    @Test
+    public void otherStatusesArePermanent() {
+        for (int code : new int[] {400, 403, 404, 405}) {
+            assertEquals("HTTP " + code, Outcome.PERMANENT, loginAnsweredWith(new MockResponse().setResponseCode(code)));
+        }
+    }
+
+    @Test
+    public void droppedConnectionIsTransient() {
+        assertEquals(Outcome.TRANSIENT,
+            loginAnsweredWith(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST)));
+    }
+
+    @Test
+    public void readTimeoutIsTransient() {
+        assertEquals(Outcome.TRANSIENT,
+            loginAnsweredWith(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE)));
+    }
+
+    @Test
+    public void unreachablePortalIsTransient() throws Exception {
+        String pageUrl = server.url("/guest/").toString();
+        server.shutdown();
+
+        assertEquals(Outcome.TRANSIENT, login(pageUrl).outcome);
+    }
+
+    @Test
+    public void rejectedCredentialsAreNotRetried() {
+        Outcome outcome = loginAnsweredWith(PortalAdapterFixturesTest.html("<p>Invalid password</p>"));
+
+        assertEquals(Outcome.INVALID_CREDENTIALS, outcome);
+        assertFalse(outcome.isRetryable());
+    }
+
+    @Test
+    public void refusalsThatDoNotNameTheCredentialsAreTransient() {
+        assertEquals(Outcome.TRANSIENT,
+            loginAnsweredWith(PortalAdapterFixturesTest.html("<p>Login failed, please try again</p>")));
+    }
+
+    private Outcome loginAnsweredWith(MockResponse reply) {
+        this.reply = reply;
+        return login(server.url("/guest/").toString()).outcome;
+    }
+
+    private LoginService.LoginResult login(String pageUrl) {
+        LoginService service = new LoginService.Builder()
+            .adapter(PortalAdapters.GENERIC)
+            .client(client)
+            .adaptiveTimeouts(timeouts)
+            .latencyTracker(new EndpointLatencyTracker())
+            .endpoints(Collections.singletonList(pageUrl))
+            .build();
+        return service.performLogin("2021021001", "secret", NETWORK);
+    }
+}
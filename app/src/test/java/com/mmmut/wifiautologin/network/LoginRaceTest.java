@@ -0,0 +1,175 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.LoginService.LoginResult.Outcome;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The endpoint race across three local portals with injected delays: backups start one
+ * stagger apart while nobody has answered, the first definitive answer wins, and the
+ * endpoints still out are cancelled.
+ */
+public class LoginRaceTest {
+
+    private static final long STAGGER_MILLIS = 300;
+    private static final long SLOW_MILLIS = 2_000;
+
+    private final OkHttpClient client = new OkHttpClient();
+    private final EndpointLatencyTracker tracker = new EndpointLatencyTracker();
+    private Portal first;
+    private Portal second;
+    private Portal third;
+
+    @Before
+    public void setUp() throws IOException {
+        String loginPage = PortalFixtures.page("generic-login.html");
+        first = new Portal(loginPage);
+        second = new Portal(loginPage);
+        third = new Portal(loginPage);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        first.server.shutdown();
+        second.server.shutdown();
+        third.server.shutdown();
+    }
+
+    @Test
+    public void silentEndpointsAreBackedUpOneStaggerApart() throws Exception {
+        first.pageDelayMillis = SLOW_MILLIS;
+        second.pageDelayMillis = SLOW_MILLIS;
+
+        LoginService.LoginResult result = race();
+
+        assertEquals(Outcome.SUCCESS, result.outcome);
+        assertEquals(third.gateway(), result.gateway);
+        long firstToSecond = second.firstRequestNanos - first.firstRequestNanos;
+        long secondToThird = third.firstRequestNanos - second.firstRequestNanos;
+        // Each backup waits one stagger for the endpoint before it, not for its timeout
+        assertTrue("first -> second " + millis(firstToSecond), firstToSecond >= millisToNanos(STAGGER_MILLIS - 50));
+        assertTrue("first -> second " + millis(firstToSecond), firstToSecond < millisToNanos(SLOW_MILLIS));
+        assertTrue("second -> third " + millis(secondToThird), secondToThird >= millisToNanos(STAGGER_MILLIS - 50));
+        assertTrue("second -> third " + millis(secondToThird), secondToThird < millisToNanos(SLOW_MILLIS));
+    }
+
+    @Test
+    public void firstDefinitiveAnswerWinsAndTheRestAreCancelled() throws Exception {
+        first.pageDelayMillis = SLOW_MILLIS;
+        second.loginReply = PortalAdapterFixturesTest.html("<p>Invalid password</p>");
+
+        LoginService.LoginResult result = race();
+
+        assertEquals(Outcome.INVALID_CREDENTIALS, result.outcome);
+        assertEquals(second.gateway(), result.gateway);
+        // The third endpoint's stagger was still pending and is dropped
+        assertEquals(0, third.server.getRequestCount());
+        // The first endpoint's page fetch was cancelled before its reply, so it never posted
+        long cancelledAfter = awaitRecorded(first);
+        assertTrue("cancelled after " + cancelledAfter + " ms", cancelledAfter < SLOW_MILLIS);
+        Thread.sleep(SLOW_MILLIS - cancelledAfter + 200);
+        assertEquals(1, first.server.getRequestCount());
+    }
+
+    @Test
+    public void retryableAnswersDoNotEndTheRace() throws Exception {
+        first.loginDelayMillis = 800;
+        second.loginReply = new MockResponse().setResponseCode(503);
+        third.loginReply = new MockResponse().setResponseCode(503);
+
+        LoginService.LoginResult result = race();
+
+        assertEquals(Outcome.SUCCESS, result.outcome);
+        assertEquals(first.gateway(), result.gateway);
+        assertEquals(2, second.server.getRequestCount());
+        assertEquals(2, third.server.getRequestCount());
+    }
+
+    private LoginService.LoginResult race() throws InterruptedException {
+        LoginService service = new LoginService.Builder()
+            .adapter(PortalAdapters.GENERIC)
+            .client(client)
+            .latencyTracker(tracker)
+            .endpoints(Arrays.asList(first.pageUrl(), second.pageUrl(), third.pageUrl()))
+            .build();
+
+        final AtomicReference<LoginService.LoginResult> result = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        service.performLoginAsync("2021021001", "secret", "race", new LoginService.LoginCallback() {
+            @Override
+            public void onResult(LoginService.LoginResult loginResult) {
+                result.set(loginResult);
+                done.countDown();
+            }
+        });
+        assertTrue("race did not finish", done.await(10, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    /** How long the endpoint's cancelled attempt ran, once the tracker has heard of it. */
+    private long awaitRecorded(Portal portal) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (tracker.averageMillis(portal.pageUrl()) < 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long recorded = tracker.averageMillis(portal.pageUrl());
+        assertTrue("no latency recorded for " + portal.pageUrl(), recorded >= 0);
+        return recorded;
+    }
+
+    private static long millisToNanos(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** One portal: serves the login page and answers logins, each after an optional delay. */
+    private static final class Portal {
+        final MockWebServer server = new MockWebServer();
+        volatile long pageDelayMillis;
+        volatile long loginDelayMillis;
+        volatile MockResponse loginReply = PortalAdapterFixturesTest.html("<p>You are logged in</p>");
+        volatile long firstRequestNanos;
+
+        Portal(final String loginPage) throws IOException {
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) {
+                    if (firstRequestNanos == 0) {
+                        firstRequestNanos = System.nanoTime();
+                    }
+                    if ("GET".equals(request.getMethod())) {
+                        return PortalAdapterFixturesTest.html(loginPage)
+                            .setHeadersDelay(pageDelayMillis, TimeUnit.MILLISECONDS);
+                    }
+                    return loginReply.clone().setHeadersDelay(loginDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            });
+            server.start();
+        }
+
+        String pageUrl() {
+            return server.url("/guest/").toString();
+        }
+
+        String gateway() {
+            return server.getHostName() + ":" + server.getPort();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.mmmut.wifiautologin.Benchmark;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import okhttp3.FormBody;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+public class LoginRequestTemplateTest {
+
+    private static final String USER = "2021041051";
+    private static final String PASSWORD = "p@ss word&=+%\u00e9";
+
+    @Test
+    public void compiledBodyMatchesTheBuiltForm() throws IOException {
+        PortalDescriptor descriptor = descriptor("http://10.0.0.1:8090/httpclient.html", "post");
+
+        LoginRequestTemplate template = LoginRequestTemplate.forLogin(PortalAdapters.SOPHOS, descriptor);
+        assertNotNull(template);
+        Request request = template.newRequest(USER, PASSWORD);
+        FormBody built = PortalAdapters.SOPHOS.buildLoginForm(descriptor, USER, PASSWORD);
+
+        String compiled = bodyOf(request.body());
+        assertEquals(request.body().contentLength(), compiled.length());
+        // The timestamps are taken a moment apart
+        assertEquals(withoutTimestamp(bodyOf(built)), withoutTimestamp(compiled));
+        assertEquals(descriptor.pageUrl, request.header("Referer"));
+        assertEquals("http://10.0.0.1:8090/login.xml", request.url().toString());
+    }
+
+    @Test
+    public void oneTemplateServesEveryCredential() throws IOException {
+        PortalDescriptor descriptor = descriptor("http://10.0.0.2:8090/httpclient.html", "post");
+
+        LoginRequestTemplate first = LoginRequestTemplate.forLogin(PortalAdapters.SOPHOS, descriptor);
+        String alice = bodyOf(first.newRequest("alice", "secret-1").body());
+        LoginRequestTemplate second = LoginRequestTemplate.forLogin(PortalAdapters.SOPHOS, descriptor);
+        String bob = bodyOf(second.newRequest("bob", "secret-2").body());
+
+        assertSame(first, second);
+        assertTrue(alice.contains("username=alice&password=secret-1"));
+        assertTrue(bob.contains("username=bob&password=secret-2"));
+    }
+
+    @Test
+    public void templateHoldsNoCredentials() throws IllegalAccessException {
+        PortalDescriptor descriptor = descriptor("http://10.0.0.3:8090/httpclient.html", "post");
+        LoginRequestTemplate template = LoginRequestTemplate.forLogin(PortalAdapters.SOPHOS, descriptor);
+        template.newRequest(USER, PASSWORD);
+
+        String encoded = new FormBody.Builder().add("p", PASSWORD).build().encodedValue(0);
+        for (Field field : LoginRequestTemplate.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Object value = field.get(template);
+            String text = value instanceof Object[]
+                ? Arrays.toString((Object[]) value)
+                : String.valueOf(value);
+            assertTrue(field.getName(), !text.contains(PASSWORD) && !text.contains(encoded));
+        }
+    }
+
+    @Test
+    public void getFormsAreNotCompiled() {
+        PortalDescriptor descriptor = descriptor("http://10.0.0.4/login", "get");
+        assertNull(LoginRequestTemplate.forLogin(PortalAdapters.GENERIC, descriptor));
+    }
+
+    /**
+     * Allocation microbenchmark: bytes allocated per login request, built and written out,
+     * by the compiled template against building the form from scratch. The template has to
+     * stay under half of the built form.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void templateAllocatesLessThanBuildingTheForm() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final PortalDescriptor descriptor = descriptor("http://10.0.0.5:8090/httpclient.html", "post");
+        BufferedSink sink = Okio.buffer(Okio.blackhole());
+        int iterations = 20_000;
+
+        for (int round = 0; round < 3; round++) {
+            long compiled = bytesPerRequest(allocations, sink, iterations, true, descriptor);
+            long built = bytesPerRequest(allocations, sink, iterations, false, descriptor);
+            if (round == 2) {
+                assertTrue("compiled " + compiled + " B vs built " + built + " B", compiled * 2 < built);
+            }
+        }
+    }
+
+    private static long bytesPerRequest(com.sun.management.ThreadMXBean allocations, BufferedSink sink,
+                                        int iterations, boolean compiled, PortalDescriptor descriptor)
+        throws IOException {
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            Request request = compiled
+                ? LoginRequestTemplate.forLogin(PortalAdapters.SOPHOS, descriptor).newRequest(USER, PASSWORD)
+                : buildLoginRequest(descriptor);
+            request.body().writeTo(sink);
+            sink.flush();
+        }
+        return (allocations.getThreadAllocatedBytes(thread) - before) / iterations;
+    }
+
+    /** What LoginService does for a form it has no template for. */
+    private static Request buildLoginRequest(PortalDescriptor descriptor) {
+        FormBody formBody = PortalAdapters.SOPHOS.buildLoginForm(descriptor, USER, PASSWORD);
+        return new Request.Builder()
+            .addHeader("User-Agent", PortalAdapters.SOPHOS.userAgent)
+            .addHeader("Referer", descriptor.pageUrl)
+            .url(descriptor.actionUrl)
+            .post(formBody)
+            .build();
+    }
+
+    private static PortalDescriptor descriptor(String pageUrl, String method) {
+        Map<String, String> hidden = new LinkedHashMap<>();
+        hidden.put("lang", "en");
+        String actionUrl = pageUrl.substring(0, pageUrl.lastIndexOf('/') + 1)
+            + ("get".equals(method) ? "login" : "login.xml");
+        return new PortalDescriptor(pageUrl, actionUrl, method, "username", "password", hidden,
+            Collections.<String>emptySet(), null, null, null, System.currentTimeMillis());
+    }
+
+    private static String bodyOf(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    private static String withoutTimestamp(String body) {
+        return body.replaceAll("(^|&)a=\\d+", "$1a=");
+    }
+}
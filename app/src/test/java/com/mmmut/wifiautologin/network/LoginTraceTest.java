@@ -0,0 +1,94 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/** The exported timeline has to open as-is in Perfetto and chrome://tracing. */
+public class LoginTraceTest {
+
+    @Test
+    public void timelineIsChromeTraceEventJson() throws Exception {
+        LoginTrace trace = new LoginTrace("0badf00d", 2, System.currentTimeMillis());
+        trace.setAttribute("ssid", "MMMUT-Hostel");
+        LoginTrace.Span probe = trace.begin(LoginTrace.LANE_WORKER, "probe");
+        LoginTrace.Span post = trace.begin("172.16.1.3:8090", "POST /login.xml");
+        post.end("SocketTimeoutException");
+        probe.end();
+        trace.instant(LoginTrace.LANE_WORKER, "verdict", "SUCCESS");
+
+        JSONObject json = new JSONObject(trace.toJson());
+        assertEquals("ms", json.getString("displayTimeUnit"));
+        JSONObject otherData = json.getJSONObject("otherData");
+        assertEquals("0badf00d", otherData.getString("traceId"));
+        assertEquals(2, otherData.getInt("run"));
+        assertEquals(trace.originMillis, otherData.getLong("originMillis"));
+        assertEquals("MMMUT-Hostel", otherData.getString("ssid"));
+
+        // Lane names first, then the events in the order they finished
+        JSONArray events = json.getJSONArray("traceEvents");
+        assertEquals(5, events.length());
+        Map<Integer, String> lanes = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            JSONObject lane = events.getJSONObject(i);
+            assertEquals("M", lane.getString("ph"));
+            assertEquals("thread_name", lane.getString("name"));
+            lanes.put(lane.getInt("tid"), lane.getJSONObject("args").getString("name"));
+        }
+
+        JSONObject postEvent = events.getJSONObject(2);
+        assertEquals("POST /login.xml", postEvent.getString("name"));
+        assertEquals("X", postEvent.getString("ph"));
+        assertEquals("login", postEvent.getString("cat"));
+        assertEquals("172.16.1.3:8090", lanes.get(postEvent.getInt("tid")));
+        assertEquals("SocketTimeoutException", postEvent.getJSONObject("args").getString("detail"));
+
+        JSONObject probeEvent = events.getJSONObject(3);
+        assertEquals("probe", probeEvent.getString("name"));
+        assertEquals(LoginTrace.LANE_WORKER, lanes.get(probeEvent.getInt("tid")));
+        assertFalse(probeEvent.has("args"));
+        // The probe began first and ended last, so it spans the POST
+        assertTrue(probeEvent.getLong("ts") <= postEvent.getLong("ts"));
+        assertTrue(probeEvent.getLong("ts") + probeEvent.getLong("dur")
+            >= postEvent.getLong("ts") + postEvent.getLong("dur"));
+
+        JSONObject verdict = events.getJSONObject(4);
+        assertEquals("i", verdict.getString("ph"));
+        assertEquals("t", verdict.getString("s"));
+        assertFalse(verdict.has("dur"));
+        assertEquals("SUCCESS", verdict.getJSONObject("args").getString("detail"));
+    }
+
+    @Test
+    public void timestampsCountFromTheNetworkEvent() throws Exception {
+        // Scheduled by a network event three seconds ago, in a process that is gone now
+        LoginTrace trace = new LoginTrace(null, 0, System.currentTimeMillis() - 3_000);
+        trace.span(LoginTrace.LANE_WORKER, "queued", 0, trace.nowMicros(), null);
+        trace.begin(LoginTrace.LANE_WORKER, "login").end();
+
+        JSONArray events = new JSONObject(trace.toJson()).getJSONArray("traceEvents");
+        JSONObject queued = events.getJSONObject(1);
+        assertEquals(0, queued.getLong("ts"));
+        assertTrue(queued.getLong("dur") >= 3_000_000);
+        assertTrue(events.getJSONObject(2).getLong("ts") >= 3_000_000);
+        assertEquals(8, trace.id.length());
+    }
+
+    @Test
+    public void spansEndOnce() throws Exception {
+        LoginTrace trace = new LoginTrace("0badf00d", 0, System.currentTimeMillis());
+        LoginTrace.Span span = trace.begin(LoginTrace.LANE_WORKER, "probe");
+        span.end();
+        span.end("late");
+
+        JSONArray events = new JSONObject(trace.toJson()).getJSONArray("traceEvents");
+        assertEquals(2, events.length());
+        assertTrue(trace.summary(), trace.summary().startsWith("0badf00d/0: probe="));
+    }
+}
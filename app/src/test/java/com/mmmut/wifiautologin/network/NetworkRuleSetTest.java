@@ -0,0 +1,72 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class NetworkRuleSetTest {
+
+    private static final String FORTINET_AP = "00:09:0f:12:34:56";
+    private static final String OTHER_AP = "3c:84:6a:12:34:56";
+
+    // Declared least specific first, so any order-dependence would show
+    private final NetworkRuleSet rules = new NetworkRuleSet(Arrays.asList(
+        NetworkRule.captivePortal("captive"),
+        NetworkRule.ssidRegex("^La.-[0-9]+$", "regex"),
+        NetworkRule.ssidGlob("La?-*", "glob"),
+        NetworkRule.ssidPrefix("Lab", "prefix"),
+        NetworkRule.ssidPrefix("Lab-", "longer-prefix"),
+        NetworkRule.bssidOui("00:09:0F", "oui"),
+        NetworkRule.ssid("Lab-42", "exact")));
+
+    @Test
+    public void exactSsidBeatsEverything() {
+        assertEquals("exact", rules.match("Lab-42", FORTINET_AP, true));
+    }
+
+    @Test
+    public void ouiBeatsPrefixes() {
+        assertEquals("oui", rules.match("Lab-43", FORTINET_AP, true));
+        assertEquals("oui", rules.match("Unrelated", "00-09-0F-AA-BB-CC", false));
+    }
+
+    @Test
+    public void longestPrefixBeatsPatterns() {
+        assertEquals("longer-prefix", rules.match("Lab-43", OTHER_AP, true));
+        assertEquals("prefix", rules.match("Labyrinth", null, true));
+    }
+
+    @Test
+    public void firstDeclaredPatternWins() {
+        assertEquals("regex", rules.match("Lax-7", null, true));
+        assertEquals("glob", rules.match("Lax-x", null, true));
+    }
+
+    @Test
+    public void captiveOnlyWhenNothingElseMatchesAndTheNetworkIsCaptive() {
+        assertEquals("captive", rules.match("Coffee", OTHER_AP, true));
+        assertEquals("captive", rules.match(null, null, true));
+        assertNull(rules.match("Coffee", OTHER_AP, false));
+    }
+
+    @Test
+    public void firstDeclaredRuleWinsForTheSameValue() {
+        NetworkRuleSet duplicates = new NetworkRuleSet(Arrays.asList(
+            NetworkRule.ssid("Hostel", "first"),
+            NetworkRule.ssid("Hostel", "second"),
+            NetworkRule.ssidPrefix("Hos", "first"),
+            NetworkRule.ssidPrefix("Hos", "second")));
+
+        assertEquals("first", duplicates.match("Hostel", null, false));
+        assertEquals("first", duplicates.match("Hospital", null, false));
+    }
+
+    @Test
+    public void malformedBssidsAreIgnored() {
+        assertEquals("longer-prefix", rules.match("Lab-43", "not-a-mac", false));
+        assertEquals(-1, NetworkRuleSet.parseOui("00:09"));
+        assertEquals(0x00090f, NetworkRuleSet.parseOui(FORTINET_AP));
+    }
+}
@@ -0,0 +1,175 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Logs in through each built-in adapter against a MockWebServer serving the vendor's
+ * captured login page and replies, checking the POST that goes out and how the reply is read.
+ */
+public class PortalAdapterFixturesTest {
+
+    private static final String USER = "2021021001";
+    private static final String PASSWORD = "p@ss word&1";
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient();
+
+    @Before
+    public void setUp() throws Exception {
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void sophosLogsInWithTheModeAndTimestamp() throws Exception {
+        server.enqueue(html(PortalFixtures.page("sophos-httpclient.html")));
+        server.enqueue(xml("<?xml version='1.0' ?><requestresponse><status><![CDATA[LIVE]]></status>"
+            + "<message><![CDATA[You are signed in as {username}]]></message></requestresponse>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.SOPHOS, "/httpclient.html");
+
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, result.outcome);
+        assertEquals("GET", server.takeRequest().getMethod());
+        RecordedRequest post = server.takeRequest();
+        assertEquals("POST", post.getMethod());
+        String body = post.getBody().readUtf8();
+        assertTrue(body, body.startsWith("username=2021021001&password=p%40ss%20word%261&mode=191&a="));
+        assertTrue(body, body.matches(".*&a=\\d{13}&producttype=0$"));
+    }
+
+    @Test
+    public void sophosLoginStatusMeansWrongCredentials() throws Exception {
+        server.enqueue(html(PortalFixtures.page("sophos-httpclient.html")));
+        server.enqueue(xml("<?xml version='1.0' ?><requestresponse><status><![CDATA[LOGIN]]></status>"
+            + "<message><![CDATA[Login failed. Invalid user name/password. Please contact the "
+            + "administrator.]]></message></requestresponse>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.SOPHOS, "/httpclient.html");
+
+        assertEquals(LoginService.LoginResult.Outcome.INVALID_CREDENTIALS, result.outcome);
+    }
+
+    @Test
+    public void sophosLoginLimitIsRetried() throws Exception {
+        server.enqueue(html(PortalFixtures.page("sophos-httpclient.html")));
+        server.enqueue(xml("<?xml version='1.0' ?><requestresponse><status><![CDATA[LOGIN]]></status>"
+            + "<message><![CDATA[You have reached Maximum Login Limit.]]></message></requestresponse>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.SOPHOS, "/httpclient.html");
+
+        assertEquals(LoginService.LoginResult.Outcome.TRANSIENT, result.outcome);
+        assertTrue(result.outcome.isRetryable());
+    }
+
+    @Test
+    public void fortigatePostsTheSessionMagicBackToTheForm() throws Exception {
+        server.enqueue(html(PortalFixtures.page("fortigate-fgtauth.html").replace("%MAGIC%", "0a1b2c3d4e5f")));
+        server.enqueue(html("<html><body><script>window.location=\"http://10.0.0.1:1000/keepalive?"
+            + "060f0a0b0c0d\";</script></body></html>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.FORTIGATE, "/fgtauth?0a1b2c3d4e5f");
+
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, result.outcome);
+        server.takeRequest();
+        RecordedRequest post = server.takeRequest();
+        assertEquals("/", post.getPath());
+        String body = post.getBody().readUtf8();
+        assertTrue(body, body.contains("magic=0a1b2c3d4e5f"));
+        assertTrue(body, body.contains("4Tredir=http%3A%2F%2Fconnectivitycheck.gstatic.com%2Fgenerate_204"));
+        assertTrue(body, body.startsWith("username=2021021001&password="));
+    }
+
+    @Test
+    public void fortigateRejection() throws Exception {
+        server.enqueue(html(PortalFixtures.page("fortigate-fgtauth.html").replace("%MAGIC%", "0a1b2c3d4e5f")));
+        server.enqueue(html("<html><body><h1>Firewall authentication failed. Please try again.</h1></body></html>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.FORTIGATE, "/fgtauth?0a1b2c3d4e5f");
+
+        assertEquals(LoginService.LoginResult.Outcome.INVALID_CREDENTIALS, result.outcome);
+    }
+
+    @Test
+    public void pfsenseUsesItsFieldNamesAndZone() throws Exception {
+        server.enqueue(html(PortalFixtures.page("pfsense-index.html")));
+        server.enqueue(html("<html><body>You are connected. <a href=\"/?logout_id=ab12\">Disconnect</a></body></html>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.PFSENSE, "/index.php?zone=campus");
+
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, result.outcome);
+        server.takeRequest();
+        RecordedRequest post = server.takeRequest();
+        assertEquals("/index.php?zone=campus", post.getPath());
+        String body = post.getBody().readUtf8();
+        assertTrue(body, body.startsWith("auth_user=2021021001&auth_pass=p%40ss%20word%261&accept=Login"));
+        assertTrue(body, body.contains("zone=campus"));
+    }
+
+    @Test
+    public void pfsenseRejection() throws Exception {
+        server.enqueue(html(PortalFixtures.page("pfsense-index.html")));
+        server.enqueue(html("<html><body>Invalid credentials specified.</body></html>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.PFSENSE, "/index.php?zone=campus");
+
+        assertEquals(LoginService.LoginResult.Outcome.INVALID_CREDENTIALS, result.outcome);
+    }
+
+    @Test
+    public void genericSubmitsWhateverTheLoginFormDeclares() throws Exception {
+        server.enqueue(html(PortalFixtures.page("generic-login.html")));
+        server.enqueue(html("<html><body>Login successful. Enjoy your stay.</body></html>"));
+
+        LoginService.LoginResult result = login(PortalAdapters.GENERIC, "/guest/");
+
+        assertEquals(LoginService.LoginResult.Outcome.SUCCESS, result.outcome);
+        server.takeRequest();
+        RecordedRequest post = server.takeRequest();
+        assertEquals("/guest/auth/login", post.getPath());
+        assertEquals("email=2021021001&pass=p%40ss%20word%261&csrf_token=c5b1e0f2a9&lang=en",
+            post.getBody().readUtf8());
+    }
+
+    @Test
+    public void serverErrorIsRetryable() throws Exception {
+        server.enqueue(html(PortalFixtures.page("generic-login.html")));
+        server.enqueue(new MockResponse().setResponseCode(503));
+
+        LoginService.LoginResult result = login(PortalAdapters.GENERIC, "/guest/");
+
+        assertEquals(LoginService.LoginResult.Outcome.TRANSIENT, result.outcome);
+        assertTrue(result.outcome.isRetryable());
+    }
+
+    private LoginService.LoginResult login(PortalAdapter adapter, String path) {
+        LoginService service = new LoginService.Builder()
+            .adapter(adapter)
+            .client(client)
+            .latencyTracker(new EndpointLatencyTracker())
+            .endpoints(Collections.singletonList(server.url(path).toString()))
+            .build();
+        return service.performLogin(USER, PASSWORD, "test");
+    }
+
+    static MockResponse html(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/html; charset=utf-8").setBody(body);
+    }
+
+    private static MockResponse xml(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/xml").setBody(body);
+    }
+}
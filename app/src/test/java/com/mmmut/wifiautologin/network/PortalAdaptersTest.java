@@ -0,0 +1,63 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Test;
+
+public class PortalAdaptersTest {
+
+    @After
+    public void clearSiteRules() {
+        PortalAdapters.setRules(Collections.<NetworkRule>emptyList());
+    }
+
+    @Test
+    public void siteRulesGoOnTopOfTheBuiltInOnes() {
+        PortalAdapters.setRules(Arrays.asList(
+            NetworkRule.ssid("MMMUT-Guest", PortalAdapters.FORTIGATE.id),
+            NetworkRule.captivePortal(PortalAdapters.GENERIC.id)));
+
+        assertSame(PortalAdapters.FORTIGATE, PortalAdapters.forSsid("MMMUT-Guest"));
+        assertSame(PortalAdapters.SOPHOS, PortalAdapters.forSsid("MMMUT-Hostel"));
+        assertSame(PortalAdapters.GENERIC, PortalAdapters.forNetwork("Cafe", null, true));
+    }
+
+    @Test
+    public void ruleForAnUnknownAdapterDoesNotShadowOneThatResolves() {
+        PortalAdapters.setRules(Arrays.asList(
+            NetworkRule.ssid("MMMUT-Lab", "no-such-portal"),
+            NetworkRule.captivePortal("no-such-portal")));
+
+        // The exact rule would win, but it resolves to nothing; the built-in prefix rule applies
+        assertSame(PortalAdapters.SOPHOS, PortalAdapters.forSsid("MMMUT-Lab"));
+        assertNull(PortalAdapters.forNetwork("Cafe", null, true));
+    }
+
+    @Test
+    public void rulesTakeEffectOnceTheirAdapterIsRegistered() {
+        PortalAdapters.setRules(Collections.singletonList(NetworkRule.ssid("Library", "library-portal")));
+        assertNull(PortalAdapters.forSsid("Library"));
+
+        PortalAdapter library = new PortalAdapter.Builder("library-portal").success("welcome").build();
+        PortalAdapters.register(library);
+
+        assertSame(library, PortalAdapters.forSsid("Library"));
+    }
+
+    @Test
+    public void checkRulesRejectsUnknownAdapters() {
+        PortalAdapters.checkRules(NetworkRule.parseAll("ssid:Lab -> pfsense\ncaptive -> generic"));
+        try {
+            PortalAdapters.checkRules(NetworkRule.parseAll("ssid:Lab -> pfsense\nprefix:Guest -> fortigat"));
+            fail("Expected the misspelt adapter id to be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("prefix:Guest -> fortigat"));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.mmmut.wifiautologin.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class PortalDescriptorTest {
+
+    private static final String FGT_PAGE = "http://10.0.0.1:1000/fgtauth?0a1b2c3d";
+    private static final String PF_PAGE = "http://10.0.0.1:8002/index.php?zone=campus&redirurl=http%3A%2F%2Fexample.com%2F";
+
+    @Test
+    public void pageKeyDropsTheQuery() {
+        assertEquals("http://10.0.0.1:1000/fgtauth", PortalDescriptor.pageKey(FGT_PAGE));
+        assertEquals("http://10.0.0.1:8002/index.php", PortalDescriptor.pageKey(PF_PAGE));
+        assertEquals("http://172.16.1.3:8090/httpclient.html",
+            PortalDescriptor.pageKey("http://172.16.1.3:8090/httpclient.html"));
+    }
+
+    @Test
+    public void forPageCarriesTheFortigateMagicOver() {
+        PortalDescriptor descriptor = descriptor(FGT_PAGE, "http://10.0.0.1:1000/",
+            fields("magic", "0a1b2c3d", "4Tredir", "http://example.com/"));
+
+        PortalDescriptor next = descriptor.forPage("http://10.0.0.1:1000/fgtauth?99887766");
+
+        assertEquals("http://10.0.0.1:1000/fgtauth?99887766", next.pageUrl);
+        assertEquals("99887766", next.hiddenFields.get("magic"));
+        assertEquals("http://example.com/", next.hiddenFields.get("4Tredir"));
+        assertEquals("http://10.0.0.1:1000/", next.actionUrl);
+        assertSame(next, next.forPage(next.pageUrl));
+    }
+
+    @Test
+    public void forPageCarriesQueryParametersAndTheActionQueryOver() {
+        PortalDescriptor descriptor = descriptor(PF_PAGE,
+            "http://10.0.0.1:8002/index.php?zone=campus&redirurl=http%3A%2F%2Fexample.com%2F",
+            fields("zone", "campus", "redirurl", "http://example.com/"));
+
+        PortalDescriptor next = descriptor.forPage(
+            "http://10.0.0.1:8002/index.php?zone=campus&redirurl=http%3A%2F%2Fother.org%2Fx");
+
+        assertEquals("campus", next.hiddenFields.get("zone"));
+        assertEquals("http://other.org/x", next.hiddenFields.get("redirurl"));
+        assertEquals("http://10.0.0.1:8002/index.php?zone=campus&redirurl=http%3A%2F%2Fother.org%2Fx",
+            next.actionUrl);
+    }
+
+    @Test
+    public void sessionFieldsAreLearnedAndBlockReplay() {
+        PortalDescriptor first = descriptor(FGT_PAGE, FGT_PAGE, fields("magic", "0a1b2c3d", "token", "t1"));
+        PortalDescriptor second = descriptor("http://10.0.0.1:1000/fgtauth?55667788", FGT_PAGE,
+            fields("magic", "55667788", "token", "t2"));
+
+        PortalDescriptor learned = second.withSessionFieldsFrom(first);
+
+        assertEquals(Collections.singleton("token"), learned.sessionFields);
+        assertNull(learned.forPage("http://10.0.0.1:1000/fgtauth?aabbccdd"));
+        assertSame(learned, learned.forPage(learned.pageUrl));
+    }
+
+    @Test
+    public void stableFormsLearnNothing() {
+        PortalDescriptor first = descriptor(FGT_PAGE, FGT_PAGE, fields("magic", "0a1b2c3d", "lang", "en"));
+        PortalDescriptor second = descriptor("http://10.0.0.1:1000/fgtauth?55667788", FGT_PAGE,
+            fields("magic", "55667788", "lang", "en"));
+
+        assertSame(second, second.withSessionFieldsFrom(first));
+        assertSame(second, second.withSessionFieldsFrom(null));
+    }
+
+    @Test
+    public void jsonRoundTrip() {
+        PortalDescriptor descriptor = new PortalDescriptor(FGT_PAGE, "http://10.0.0.1:1000/", "post", "username",
+            "password", fields("magic", "0a1b2c3d", "token", "t1"), Collections.singleton("token"),
+            "\"etag\"", "Tue, 01 Oct 2024 10:00:00 GMT", "abcdef", 1234L);
+
+        PortalDescriptor restored = PortalDescriptor.fromJson(descriptor.toJson());
+
+        assertTrue(restored.sameFormAs(descriptor));
+        assertEquals(descriptor.pageUrl, restored.pageUrl);
+        assertEquals(descriptor.sessionFields, restored.sessionFields);
+        assertEquals(descriptor.etag, restored.etag);
+        assertEquals(descriptor.lastModified, restored.lastModified);
+        assertEquals(descriptor.contentHash, restored.contentHash);
+        assertEquals(1234L, restored.fetchedAt);
+    }
+
+    private static PortalDescriptor descriptor(String pageUrl, String actionUrl, Map<String, String> hidden) {
+        return new PortalDescriptor(pageUrl, actionUrl, "post", "username", "password", hidden, null,
+            null, null, null, 0L);
+    }
+
+    private static Map<String, String> fields(String... namesAndValues) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            fields.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,21 @@
+package com.mmmut.wifiautologin.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import okio.Buffer;
+
+/** Captured portal pages under {@code src/test/resources/portal}. */
+final class PortalFixtures {
+
+    private PortalFixtures() {
+    }
+
+    static String page(String name) throws IOException {
+        try (InputStream in = PortalFixtures.class.getResourceAsStream("/portal/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            return new Buffer().readFrom(in).readUtf8();
+        }
+    }
+}
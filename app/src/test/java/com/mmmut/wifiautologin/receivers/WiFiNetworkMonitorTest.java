@@ -0,0 +1,126 @@
+package com.mmmut.wifiautologin.receivers;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.net.wifi.WifiInfo;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.Configuration;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.workers.LoginScheduler;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNetwork;
+import org.robolectric.shadows.ShadowNetworkCapabilities;
+import org.robolectric.shadows.ShadowWifiInfo;
+
+/**
+ * Capability callbacks delivered through {@link org.robolectric.shadows.ShadowConnectivityManager},
+ * checked against the login work they leave in a test WorkManager. The work itself never runs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class WiFiNetworkMonitorTest {
+
+    private Context context;
+    private ConnectivityManager connectivityManager;
+    private PreferenceManager preferences;
+    private final Network network = ShadowNetwork.newInstance(100);
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, new Configuration.Builder()
+            .setExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    // Scheduling is what is under test; logins are left pending
+                }
+            })
+            .build());
+
+        connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        WiFiNetworkMonitor monitor = new WiFiNetworkMonitor(context, connectivityManager);
+        connectivityManager.registerNetworkCallback(new NetworkRequest.Builder()
+            .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+            .build(), monitor.newCallback());
+
+        preferences = new PreferenceManager(context);
+        preferences.saveCredentials("2021021001", "secret");
+        preferences.setAutoLoginEnabled(true);
+    }
+
+    @Test
+    public void captiveCampusNetworkSchedulesOneLogin() throws Exception {
+        deliver(capabilities("MMMUT-Hostel", true, false));
+        List<WorkInfo> scheduled = loginWork();
+        assertEquals(1, scheduled.size());
+
+        // Signal strength updates and the like do not schedule again
+        deliver(capabilities("MMMUT-Hostel", true, false));
+        deliver(capabilities("MMMUT-Hostel", true, false));
+        List<WorkInfo> after = loginWork();
+        assertEquals(1, after.size());
+        assertEquals(scheduled.get(0).getId(), after.get(0).getId());
+    }
+
+    @Test
+    public void enablingAutoLoginWhileConnectedSchedulesOnTheNextUpdate() throws Exception {
+        preferences.setAutoLoginEnabled(false);
+        deliver(capabilities("MMMUT-Hostel", true, false));
+        assertEquals(0, loginWork().size());
+
+        preferences.setAutoLoginEnabled(true);
+        deliver(capabilities("MMMUT-Hostel", true, false));
+        assertEquals(1, loginWork().size());
+    }
+
+    @Test
+    public void validatedOrUnknownNetworksNeedNoLogin() throws Exception {
+        deliver(capabilities("MMMUT-Hostel", false, true));
+        deliver(capabilities("CoffeeShop", true, false));
+
+        assertEquals(0, loginWork().size());
+    }
+
+    private void deliver(NetworkCapabilities capabilities) {
+        for (ConnectivityManager.NetworkCallback callback : shadowOf(connectivityManager).getNetworkCallbacks()) {
+            callback.onCapabilitiesChanged(network, capabilities);
+        }
+    }
+
+    private List<WorkInfo> loginWork() throws Exception {
+        return WorkManager.getInstance(context).getWorkInfosForUniqueWork(LoginScheduler.UNIQUE_WORK_NAME).get();
+    }
+
+    private static NetworkCapabilities capabilities(String ssid, boolean captive, boolean validated) {
+        WifiInfo wifiInfo = ShadowWifiInfo.newInstance();
+        shadowOf(wifiInfo).setSSID(ssid);
+        shadowOf(wifiInfo).setBSSID("02:00:00:00:01:00");
+
+        NetworkCapabilities capabilities = ShadowNetworkCapabilities.newInstance();
+        shadowOf(capabilities).addTransportType(NetworkCapabilities.TRANSPORT_WIFI);
+        shadowOf(capabilities).setTransportInfo(wifiInfo);
+        if (captive) {
+            shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_CAPTIVE_PORTAL);
+        }
+        if (validated) {
+            shadowOf(capabilities).addCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        }
+        return capabilities;
+    }
+}
@@ -0,0 +1,171 @@
+package com.mmmut.wifiautologin.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Gate behaviour with a fake clock. Cold, warm and hung starts are replayed frame by frame
+ * at the splash screen's polling rate, and the release has to land on the first frame after
+ * the gate is ready or capped.
+ */
+public class StartupGateTest {
+
+    private static final long MAX_SPLASH_MILLIS = 1500;
+    private static final long FRAME_MILLIS = 16;
+
+    @Test
+    public void staysUntilStoreAndStateAreReady() {
+        FakeClock clock = new FakeClock();
+        StartupGate gate = new StartupGate(clock, MAX_SPLASH_MILLIS);
+        assertTrue(gate.shouldKeepOnScreen());
+
+        clock.advance(100);
+        gate.markStoreReady();
+        assertTrue(gate.shouldKeepOnScreen());
+
+        clock.advance(20);
+        gate.markStateReady();
+        assertFalse(gate.shouldKeepOnScreen());
+        assertEquals(120, gate.releaseMillis());
+        assertEquals("ready", gate.releaseReason());
+    }
+
+    @Test
+    public void releasedAtTheCapWhenStorageIsSlow() {
+        FakeClock clock = new FakeClock();
+        StartupGate gate = new StartupGate(clock, MAX_SPLASH_MILLIS);
+        gate.markStateReady();
+
+        clock.advance(MAX_SPLASH_MILLIS - 1);
+        assertTrue(gate.shouldKeepOnScreen());
+        assertEquals(-1, gate.releaseMillis());
+
+        clock.advance(1);
+        assertFalse(gate.shouldKeepOnScreen());
+        assertEquals("timeout", gate.releaseReason());
+        assertEquals(MAX_SPLASH_MILLIS, gate.releaseMillis());
+    }
+
+    @Test
+    public void staysReleased() {
+        FakeClock clock = new FakeClock();
+        StartupGate gate = new StartupGate(clock, MAX_SPLASH_MILLIS);
+        gate.markStoreReady();
+        gate.markStateReady();
+        assertFalse(gate.shouldKeepOnScreen());
+
+        clock.advance(10_000);
+        assertFalse(gate.shouldKeepOnScreen());
+        assertEquals(0, gate.releaseMillis());
+    }
+
+    @Test
+    public void coldStartTimeToInteractive() {
+        // Opening the encrypted store and decrypting on a cold process is the slow part
+        StartupGate gate = replay(250, 5);
+        assertEquals("ready", gate.releaseReason());
+        assertReleasedOnTheNextFrame(255, gate.releaseMillis());
+    }
+
+    @Test
+    public void warmStartTimeToInteractive() {
+        // Store already open and credentials cached: only the ViewModel's post remains
+        StartupGate gate = replay(0, 5);
+        assertEquals("ready", gate.releaseReason());
+        assertReleasedOnTheNextFrame(5, gate.releaseMillis());
+    }
+
+    @Test
+    public void hungStoreIsCapped() {
+        StartupGate gate = replay(10_000, 5);
+        assertEquals("timeout", gate.releaseReason());
+        assertReleasedOnTheNextFrame(MAX_SPLASH_MILLIS, gate.releaseMillis());
+    }
+
+    @Test
+    public void readySignalsFromAnotherThreadReleaseInOrder() throws Exception {
+        final StartupGate gate = new StartupGate(new FakeClock(), MAX_SPLASH_MILLIS);
+        final CountDownLatch storeReady = new CountDownLatch(1);
+        final CountDownLatch publish = new CountDownLatch(1);
+        final CountDownLatch stateReady = new CountDownLatch(1);
+        ExecutorService store = Executors.newSingleThreadExecutor();
+        try {
+            store.execute(new Runnable() {
+                @Override
+                public void run() {
+                    gate.markStoreReady();
+                    storeReady.countDown();
+                    try {
+                        publish.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    gate.markStateReady();
+                    stateReady.countDown();
+                }
+            });
+
+            assertTrue(storeReady.await(5, TimeUnit.SECONDS));
+            assertTrue("released before the state was published", gate.shouldKeepOnScreen());
+
+            publish.countDown();
+            assertTrue(stateReady.await(5, TimeUnit.SECONDS));
+            assertFalse(gate.shouldKeepOnScreen());
+            assertEquals("ready", gate.releaseReason());
+        } finally {
+            store.shutdownNow();
+            store.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Replays a start on the fake clock the way MainActivity wires it: the store completes
+     * after {@code storeMillis} and the ViewModel state {@code stateMillis} after that, while
+     * the splash screen polls the gate once per frame until it is released.
+     */
+    private static StartupGate replay(long storeMillis, long stateMillis) {
+        FakeClock clock = new FakeClock();
+        StartupGate gate = new StartupGate(clock, MAX_SPLASH_MILLIS);
+        long elapsed = 0;
+        while (true) {
+            if (elapsed >= storeMillis) {
+                gate.markStoreReady();
+            }
+            if (elapsed >= storeMillis + stateMillis) {
+                gate.markStateReady();
+            }
+            if (!gate.shouldKeepOnScreen()) {
+                return gate;
+            }
+            clock.advance(FRAME_MILLIS);
+            elapsed += FRAME_MILLIS;
+        }
+    }
+
+    /** Released on the first frame at or after {@code readyMillis}. */
+    private static void assertReleasedOnTheNextFrame(long readyMillis, long releaseMillis) {
+        assertTrue("released after " + releaseMillis + " ms, ready at " + readyMillis + " ms",
+            releaseMillis >= readyMillis && releaseMillis < readyMillis + FRAME_MILLIS);
+    }
+
+    private static final class FakeClock implements StartupGate.Clock {
+        private long nanos = 1_000_000_000L;
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long nanoTime() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.mmmut.wifiautologin.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.mmmut.wifiautologin.network.LoginService.LoginResult.Outcome;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class LoginRetryPolicyTest {
+
+    @Test
+    public void transientFailuresRetryUntilTheAttemptsRunOut() {
+        int runs = 0;
+        while (LoginRetryPolicy.shouldRetry(Outcome.TRANSIENT, runs)) {
+            runs++;
+        }
+        // The run that gave up counts too
+        assertEquals(LoginRetryPolicy.MAX_LOGIN_ATTEMPTS, runs + 1);
+    }
+
+    @Test
+    public void otherOutcomesNeverRetry() {
+        for (Outcome outcome : new Outcome[] {Outcome.SUCCESS, Outcome.INVALID_CREDENTIALS, Outcome.PERMANENT}) {
+            assertFalse(outcome.name(), LoginRetryPolicy.shouldRetry(outcome, 0));
+        }
+    }
+
+    @Test
+    public void backoffBaseStaysWithinTheJitterWindow() {
+        Random random = new Random(7);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            long base = LoginRetryPolicy.backoffBaseMillis(random);
+            assertTrue(String.valueOf(base), base >= LoginRetryPolicy.BACKOFF_BASE_MILLIS);
+            assertTrue(String.valueOf(base),
+                base <= LoginRetryPolicy.BACKOFF_BASE_MILLIS + LoginRetryPolicy.BACKOFF_JITTER_MILLIS);
+            seen.add(base);
+        }
+        // Devices that lose the portal together should not retry in lockstep
+        assertTrue(seen.size() > 500);
+    }
+}
@@ -0,0 +1,102 @@
+package com.mmmut.wifiautologin.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.app.Application;
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.Configuration;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.WorkManagerTestInitHelper;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * A broadcast storm against a test WorkManager: every request for the same association
+ * collapses into the first one, and a new association replaces it. Logins stay pending in
+ * their debounce window; none of them runs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class LoginSchedulerTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        WorkManagerTestInitHelper.initializeTestWorkManager(context, new Configuration.Builder()
+            .setExecutor(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    // Only the queue is under test
+                }
+            })
+            .build());
+    }
+
+    @Test
+    public void burstForOneNetworkKeepsTheFirstLogin() throws Exception {
+        String networkKey = LoginScheduler.networkKey("MMMUT-Hostel", 100);
+        LoginScheduler.scheduleLogin(context, networkKey, "MMMUT-Hostel");
+        UUID first = onlyLogin().getId();
+
+        for (int i = 0; i < 20; i++) {
+            LoginScheduler.scheduleLogin(context, networkKey, "MMMUT-Hostel");
+        }
+
+        WorkInfo login = onlyLogin();
+        assertEquals(first, login.getId());
+        assertEquals(WorkInfo.State.ENQUEUED, login.getState());
+    }
+
+    @Test
+    public void newNetworkReplacesThePendingLogin() throws Exception {
+        LoginScheduler.scheduleLogin(context, LoginScheduler.networkKey("MMMUT-Hostel", 100), "MMMUT-Hostel");
+        UUID stale = onlyLogin().getId();
+
+        LoginScheduler.scheduleLogin(context, LoginScheduler.networkKey("MMMUT-Library", 101), "MMMUT-Library");
+
+        WorkInfo login = onlyLogin();
+        assertNotEquals(stale, login.getId());
+        assertEquals(WorkInfo.State.CANCELLED,
+            WorkManager.getInstance(context).getWorkInfoById(stale).get().getState());
+    }
+
+    @Test
+    public void cancelThenRescheduleStartsAFreshLogin() throws Exception {
+        String networkKey = LoginScheduler.networkKey("MMMUT-Hostel", 100);
+        LoginScheduler.scheduleLogin(context, networkKey, "MMMUT-Hostel");
+        UUID lost = onlyLogin().getId();
+
+        LoginScheduler.cancelLogin(context);
+        LoginScheduler.scheduleLogin(context, networkKey, "MMMUT-Hostel");
+
+        assertNotEquals(lost, onlyLogin().getId());
+    }
+
+    /** The one login in the unique chain that has not been cancelled. */
+    private WorkInfo onlyLogin() throws Exception {
+        List<WorkInfo> chain = WorkManager.getInstance(context)
+            .getWorkInfosForUniqueWork(LoginScheduler.UNIQUE_WORK_NAME).get();
+        WorkInfo live = null;
+        for (WorkInfo info : chain) {
+            if (info.getState() != WorkInfo.State.CANCELLED) {
+                assertNull("more than one live login", live);
+                live = info;
+            }
+        }
+        assertNotNull("no live login", live);
+        return live;
+    }
+}
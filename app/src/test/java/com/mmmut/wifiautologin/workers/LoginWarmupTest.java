@@ -0,0 +1,225 @@
+package com.mmmut.wifiautologin.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.app.Application;
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.Data;
+import androidx.work.ListenableWorker;
+import androidx.work.WorkerFactory;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.TestListenableWorkerBuilder;
+import com.mmmut.wifiautologin.Benchmark;
+import com.mmmut.wifiautologin.data.CredentialStore;
+import com.mmmut.wifiautologin.data.LoginTraceStore;
+import com.mmmut.wifiautologin.data.PortalDescriptorCache;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.network.LoginTrace;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.network.PortalDescriptor;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Logins with and without a warm-up, against a local portal whose descriptor is already on
+ * disk. Each round replays an association that starts with nothing in memory: the cached
+ * credentials have expired and the descriptor has not been parsed. In a warm round the Wi-Fi
+ * state reports the campus network being joined before it comes up, as the scan watcher
+ * sees it. The portal answers every round alike, so time to internet differs only by the
+ * work the worker does before its first packet, which its trace times from the start of the
+ * run to the start of the probe.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class LoginWarmupTest {
+
+    private static final String SSID = "MMMUT-Warmup";
+    private static final String LOGIN_PAGE = "<html><body><form action=\"auth\" method=\"post\">"
+        + "<input type=\"text\" name=\"user\"><input type=\"password\" name=\"pass\">"
+        + "</form></body></html>";
+    private static final int ROUNDS = 9;
+
+    // Where PortalDescriptorCache keeps descriptors; written behind its back to unparse one
+    private static final String DESCRIPTOR_PREFS = "wifi_auto_login_prefs_portal";
+    private static final String DESCRIPTOR_KEY_PREFIX = "descriptor_";
+
+    private final MockWebServer server = new MockWebServer();
+    private final AtomicInteger pageFetches = new AtomicInteger();
+    private final AtomicInteger loginPosts = new AtomicInteger();
+    private Context context;
+    private String pageUrl;
+    private int adapters;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ApplicationProvider.getApplicationContext();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("POST".equals(request.getMethod())) {
+                    loginPosts.incrementAndGet();
+                    return html("<p>You are logged in</p>");
+                }
+                if (request.getPath().startsWith("/guest/")) {
+                    pageFetches.incrementAndGet();
+                }
+                // The probe and the login page alike: the portal intercepts everything
+                return html(LOGIN_PAGE);
+            }
+        });
+        server.start();
+        pageUrl = server.url("/guest/").toString();
+
+        PreferenceManager preferences = new PreferenceManager(context);
+        preferences.saveCredentials("2021021001", "secret");
+        preferences.setAutoLoginEnabled(true);
+
+        // The first login on this portal fetches its page and keeps the descriptor
+        assertEquals(ListenableWorker.Result.success(), run(newAdapter(), LoginTrace.newId()));
+        assertEquals(1, pageFetches.get());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void warmUpWhileJoiningIsTracedAndLoginsStayOnePost() throws Exception {
+        JSONObject cold = login(false);
+        JSONObject warm = login(true);
+
+        assertEquals("false", cold.getJSONObject("otherData").getString("warm"));
+        assertEquals("true", warm.getJSONObject("otherData").getString("warm"));
+        // Both read the descriptor from disk; the warm-up itself sends nothing
+        assertEquals(1, pageFetches.get());
+        assertEquals(3, loginPosts.get());
+    }
+
+    /**
+     * Alternating cold and warm rounds; the warm rounds' median time to the first packet has
+     * to be the shorter one.
+     */
+    @Test
+    @Category(Benchmark.class)
+    public void warmLoginsSendTheirFirstPacketSooner() throws Exception {
+        long[] cold = new long[ROUNDS];
+        long[] warm = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            cold[i] = firstPacketMicros(login(false));
+            warm[i] = firstPacketMicros(login(true));
+        }
+
+        Arrays.sort(cold);
+        Arrays.sort(warm);
+        long coldMedian = cold[ROUNDS / 2];
+        long warmMedian = warm[ROUNDS / 2];
+        assertTrue("warm " + warmMedian + "us, cold " + coldMedian + "us", warmMedian < coldMedian);
+    }
+
+    /** One association and the login that follows it; returns the login's trace. */
+    private JSONObject login(boolean warmUp) throws Exception {
+        // A new adapter each round: warm-ups are not repeated for an adapter within a minute
+        PortalAdapter adapter = newAdapter();
+        forgetWhatIsInMemory();
+        if (warmUp) {
+            // What the scan watcher does once the state reaches obtaining an address
+            LoginWarmup.warm(context, adapter, SSID, LoginWarmup.TRIGGER_CONNECTING);
+            LoginWarmup.awaitQueued(10, TimeUnit.SECONDS);
+        }
+
+        String traceId = LoginTrace.newId();
+        assertEquals(ListenableWorker.Result.success(), run(adapter, traceId));
+        return readTrace(traceId);
+    }
+
+    private PortalAdapter newAdapter() {
+        PortalAdapter adapter = new PortalAdapter.Builder("warmup-test-" + adapters++)
+            .endpoint(pageUrl)
+            .success("logged in")
+            .failure("failed")
+            .build();
+        PortalAdapters.register(adapter);
+        return adapter;
+    }
+
+    /** The state of a process that has been idle past the credential cache's lifetime. */
+    private void forgetWhatIsInMemory() {
+        CredentialStore.getInstance(context).clearCache();
+        PortalDescriptorCache descriptorCache = new PortalDescriptorCache(context);
+        String json = descriptorCache.get(pageUrl).toJson();
+        descriptorCache.remove(pageUrl);
+        context.getSharedPreferences(DESCRIPTOR_PREFS, Context.MODE_PRIVATE).edit()
+            .putString(DESCRIPTOR_KEY_PREFIX + PortalDescriptor.pageKey(pageUrl), json)
+            .commit();
+    }
+
+    private JSONObject readTrace(String traceId) throws Exception {
+        File[] files = LoginTraceStore.getInstance(context).getDirectory().listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.getName().contains("-" + traceId + "-")) {
+                return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            }
+        }
+        fail("no trace " + traceId);
+        return null;
+    }
+
+    /** Microseconds from the start of the run to the probe going out. */
+    private static long firstPacketMicros(JSONObject trace) throws Exception {
+        JSONArray events = trace.getJSONArray("traceEvents");
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if ("probe".equals(event.optString("name")) && "X".equals(event.optString("ph"))) {
+                return event.getLong("ts");
+            }
+        }
+        fail("no probe in " + trace);
+        return -1;
+    }
+
+    private ListenableWorker.Result run(PortalAdapter adapter, String traceId) throws Exception {
+        final String probeUrl = server.url("/generate_204").toString();
+        WiFiLoginWorker worker = TestListenableWorkerBuilder.from(context, WiFiLoginWorker.class)
+            .setInputData(new Data.Builder()
+                .putString(WiFiLoginWorker.KEY_SSID, SSID)
+                .putString(WiFiLoginWorker.KEY_PORTAL, adapter.id)
+                .putString(WiFiLoginWorker.KEY_TRACE_ID, traceId)
+                .build())
+            .setWorkerFactory(new WorkerFactory() {
+                @Override
+                public ListenableWorker createWorker(@NonNull Context appContext, @NonNull String workerClassName,
+                                                     @NonNull WorkerParameters workerParameters) {
+                    return new WiFiLoginWorker(appContext, workerParameters, probeUrl);
+                }
+            })
+            .build();
+        return worker.startWork().get(30, TimeUnit.SECONDS);
+    }
+
+    private static MockResponse html(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/html; charset=utf-8").setBody(body);
+    }
+}
@@ -0,0 +1,176 @@
+package com.mmmut.wifiautologin.workers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Observer;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.work.Data;
+import androidx.work.ListenableWorker;
+import androidx.work.WorkerFactory;
+import androidx.work.WorkerParameters;
+import androidx.work.testing.TestListenableWorkerBuilder;
+import com.mmmut.wifiautologin.data.LoginAttemptRecord;
+import com.mmmut.wifiautologin.data.PreferenceManager;
+import com.mmmut.wifiautologin.network.PortalAdapter;
+import com.mmmut.wifiautologin.network.PortalAdapters;
+import com.mmmut.wifiautologin.viewmodel.MainViewModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * The worker end to end against a flaky local portal: the probe is answered by the portal's
+ * own page, and each login POST gets the next queued reply, or a 503 once they run out.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WiFiLoginWorkerTest {
+
+    private static final String SSID = "MMMUT-Test";
+    private static final String LOGIN_PAGE = "<html><body><form action=\"auth\" method=\"post\">"
+        + "<input type=\"text\" name=\"user\"><input type=\"password\" name=\"pass\">"
+        + "</form></body></html>";
+
+    private final MockWebServer server = new MockWebServer();
+    private final Queue<MockResponse> loginReplies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger loginPosts = new AtomicInteger();
+    private Context context;
+    private PortalAdapter adapter;
+
+    @Before
+    public void setUp() throws Exception {
+        context = ApplicationProvider.getApplicationContext();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("POST".equals(request.getMethod())) {
+                    loginPosts.incrementAndGet();
+                    MockResponse reply = loginReplies.poll();
+                    return reply != null ? reply : new MockResponse().setResponseCode(503);
+                }
+                // The probe and the login page alike: the portal intercepts everything
+                return html(LOGIN_PAGE);
+            }
+        });
+        server.start();
+
+        adapter = new PortalAdapter.Builder("flaky-test")
+            .endpoint(server.url("/guest/").toString())
+            .success("logged in")
+            .credentialFailure("invalid")
+            .failure("failed")
+            .build();
+        PortalAdapters.register(adapter);
+        new PreferenceManager(context).saveCredentials("2021021001", "secret");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void serverErrorIsRetriedAndTheNextRunLogsIn() throws Exception {
+        loginReplies.add(new MockResponse().setResponseCode(503));
+        loginReplies.add(html("<p>You are logged in</p>"));
+
+        assertEquals(ListenableWorker.Result.retry(), run(0));
+        assertEquals(ListenableWorker.Result.success(), run(1));
+        assertEquals(2, loginPosts.get());
+    }
+
+    @Test
+    public void lastAttemptGivesUp() throws Exception {
+        assertEquals(ListenableWorker.Result.retry(), run(LoginRetryPolicy.MAX_LOGIN_ATTEMPTS - 2));
+        assertEquals(ListenableWorker.Result.failure(), run(LoginRetryPolicy.MAX_LOGIN_ATTEMPTS - 1));
+    }
+
+    @Test
+    public void rejectedCredentialsAreNotRetried() throws Exception {
+        loginReplies.add(html("<p>Invalid password</p>"));
+
+        assertEquals(ListenableWorker.Result.failure(), run(0));
+    }
+
+    @Test
+    public void finishedLoginsReachTheViewModelWithoutARefresh() throws Exception {
+        MainViewModel viewModel = new MainViewModel((Application) context.getApplicationContext());
+        final List<String> results = new ArrayList<>();
+        viewModel.getLastLoginResult().observeForever(new Observer<String>() {
+            @Override
+            public void onChanged(String result) {
+                // Time and result are separate preference writes, each of which republishes
+                if (result != null && (results.isEmpty() || !result.equals(results.get(results.size() - 1)))) {
+                    results.add(result);
+                }
+            }
+        });
+        loginReplies.add(new MockResponse().setResponseCode(503));
+        loginReplies.add(html("<p>You are logged in</p>"));
+
+        run(0);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(1, results.size());
+        assertTrue(results.get(0), results.get(0).endsWith("(retrying)"));
+
+        long secondRun = System.currentTimeMillis();
+        run(1);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals(2, results.size());
+        assertEquals("Login successful", results.get(1));
+
+        // The history page is reloaded off the main thread for the new attempt as well
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!historyStartsWithAttemptSince(viewModel, secondRun) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertTrue("history was not reloaded", historyStartsWithAttemptSince(viewModel, secondRun));
+    }
+
+    private static boolean historyStartsWithAttemptSince(MainViewModel viewModel, long epochMillis) {
+        List<LoginAttemptRecord> history = viewModel.getHistory().getValue();
+        return history != null && !history.isEmpty() && history.get(0).epochMillis >= epochMillis
+            && SSID.equals(history.get(0).ssid);
+    }
+
+    private ListenableWorker.Result run(int runAttemptCount) throws Exception {
+        final String probeUrl = server.url("/generate_204").toString();
+        WiFiLoginWorker worker = TestListenableWorkerBuilder.from(context, WiFiLoginWorker.class)
+            .setInputData(new Data.Builder()
+                .putString(WiFiLoginWorker.KEY_SSID, SSID)
+                .putString(WiFiLoginWorker.KEY_PORTAL, adapter.id)
+                .build())
+            .setRunAttemptCount(runAttemptCount)
+            .setWorkerFactory(new WorkerFactory() {
+                @Override
+                public ListenableWorker createWorker(@NonNull Context appContext, @NonNull String workerClassName,
+                                                     @NonNull WorkerParameters workerParameters) {
+                    return new WiFiLoginWorker(appContext, workerParameters, probeUrl);
+                }
+            })
+            .build();
+        return worker.startWork().get(30, TimeUnit.SECONDS);
+    }
+
+    private static MockResponse html(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/html; charset=utf-8").setBody(body);
+    }
+}